@@ -0,0 +1,186 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.digitransit.DigitransitClient;
+import fi.hsl.transitdata.cancellation.state.CaffeineBulletinStateStore;
+import fi.hsl.transitdata.cancellation.timetable.DigitransitTripInfoProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pulsar.client.api.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link AlertHandler} end to end: trips are fetched over HTTP from {@link DigitransitStub} and cancellations
+ * are sent to {@link PulsarStub}. Latency of a message is measured from handing it to the handler until it is
+ * acknowledged, that is until the last of its cancellations has been confirmed.
+ *
+ * Messages are handed to the handler either one at a time, or all at once so that bulletins are handled in parallel
+ * by the workers. Every message is a new bulletin and trips are not cached, so each message fetches its trips. Number
+ * of messages, Digitransit latency and error rate can be changed with system properties, e.g.
+ * {@code mvn verify -P integration-test -Dharness.messages=1000 -Dharness.latency=50 -Dharness.errorRate=0.01}.
+ */
+public class AlertHandlerThroughputIT {
+
+    private static final Logger log = LoggerFactory.getLogger(AlertHandlerThroughputIT.class);
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+    private static final int[] ROUTES_PER_BULLETIN = { 1, 5, 20 };
+    private static final int WARMUP_MESSAGES = 5;
+    private static final int MESSAGES = Integer.getInteger("harness.messages", 30);
+    private static final Duration LATENCY = Duration.ofMillis(Long.getLong("harness.latency", 0));
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("harness.errorRate", "0"));
+
+    private DigitransitStub digitransit;
+    private DigitransitClient digitransitClient;
+    private PulsarStub pulsar;
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private AlertHandler handler;
+    private int bulletins;
+
+    @Before
+    public void setUp() throws Exception {
+        // every message has a new bulletin, waiting for newer versions would only add to the latency
+        Config config = ConfigFactory.parseString("processor.coalescing.quietPeriod=0")
+                .withFallback(ConfigFactory.parseResources("environment.conf")).resolve();
+        digitransit = new DigitransitStub(TIMEZONE);
+        digitransitClient = DigitransitClient.newInstance(config, digitransit.getUrl(), registry);
+        pulsar = new PulsarStub();
+        handler = new AlertHandler(pulsar.createContext(config), TIMEZONE,
+                new DigitransitTripInfoProvider(digitransitClient, TIMEZONE),
+                CaffeineBulletinStateStore.newInstance(config.getDuration("state.expireAfter")), registry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handler.close();
+        digitransitClient.close();
+        digitransit.close();
+    }
+
+    @Test
+    public void testThroughputAndLatencyByBulletinSize() throws Exception {
+        digitransit.setLatency(LATENCY);
+        digitransit.setErrorRate(ERROR_RATE);
+
+        for (int routes : ROUTES_PER_BULLETIN) {
+            run(routes, WARMUP_MESSAGES, false);
+            Result result = run(routes, MESSAGES, false);
+            logResult("one at a time", routes, result);
+
+            assertEquals(MESSAGES, result.latencies.getCount());
+            if (ERROR_RATE == 0) {
+                assertTrue(result.cancellations > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testThroughputWhenMessagesArriveTogether() throws Exception {
+        digitransit.setLatency(LATENCY);
+        digitransit.setErrorRate(ERROR_RATE);
+
+        for (int routes : ROUTES_PER_BULLETIN) {
+            run(routes, WARMUP_MESSAGES, true);
+            Result result = run(routes, MESSAGES, true);
+            logResult("all at once", routes, result);
+
+            assertEquals(MESSAGES, result.latencies.getCount());
+        }
+    }
+
+    @Test
+    public void testEveryMessageIsAcknowledgedWhenDigitransitFails() throws Exception {
+        digitransit.setLatency(Duration.ofMillis(20));
+        digitransit.setErrorRate(0.2);
+
+        Result result = run(1, 50, false);
+
+        // failed lookups are logged and the message is acknowledged, none are left waiting
+        assertEquals(50, result.latencies.getCount());
+        assertTrue(digitransit.getFailedRequests() > 0);
+    }
+
+    /**
+     * @param pipelined if true, all messages are handed to the handler without waiting for the previous ones to be
+     *                  acknowledged, as happens when Pulsar delivers a backlog
+     */
+    private Result run(int routes, int messages, boolean pipelined) throws Exception {
+        long sentBefore = pulsar.getSentMessages();
+        Result result = new Result();
+        List<Message<byte[]>> handled = new ArrayList<>(messages);
+        long[] received = new long[messages];
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            Message<byte[]> message = pulsar.createMessage(createServiceAlert(routes));
+            received[i] = System.nanoTime();
+            handler.handleMessage(message);
+            handled.add(message);
+            if (!pipelined) {
+                pulsar.getAck(message.getMessageId()).get(1, TimeUnit.MINUTES);
+            }
+        }
+        for (int i = 0; i < messages; i++) {
+            long acked = pulsar.getAck(handled.get(i).getMessageId()).get(1, TimeUnit.MINUTES);
+            if (acked < 0) {
+                result.negativeAcks++;
+                acked = System.nanoTime();
+            }
+            result.latencies.record(acked - received[i]);
+        }
+        result.messagesPerSecond = messages / ((System.nanoTime() - start) / 1e9);
+        result.cancellations = pulsar.getSentMessages() - sentBefore;
+        return result;
+    }
+
+    private void logResult(String mode, int routes, Result result) {
+        log.info("{} routes per bulletin, {}: {} msg/s, p50={} ms, p99={} ms, p999={} ms, "
+                        + "{} cancellations, {} of {} messages negatively acknowledged",
+                routes, mode,
+                String.format("%.1f", result.messagesPerSecond),
+                String.format("%.1f", result.latencies.getPercentileMillis(50)),
+                String.format("%.1f", result.latencies.getPercentileMillis(99)),
+                String.format("%.1f", result.latencies.getPercentileMillis(99.9)),
+                result.cancellations, result.negativeAcks, result.latencies.getCount());
+    }
+
+    private InternalMessages.ServiceAlert createServiceAlert(int routes) {
+        LocalDateTime validFrom = LocalDateTime.of(2024, 2, 19, 6, 0);
+        InternalMessages.Bulletin.Builder bulletin = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId("bulletin-" + bulletins++)
+                .setImpact(InternalMessages.Bulletin.Impact.CANCELLED)
+                .setPriority(InternalMessages.Bulletin.Priority.WARNING)
+                .setLastModifiedUtcMs(System.currentTimeMillis())
+                .setValidFromUtcMs(validFrom.atZone(ZoneId.of(TIMEZONE)).toInstant().toEpochMilli())
+                .setValidToUtcMs(validFrom.plusHours(12).atZone(ZoneId.of(TIMEZONE)).toInstant().toEpochMilli());
+        for (int i = 0; i < routes; i++) {
+            bulletin.addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder()
+                    .setEntityId(Integer.toString(1001 + i)));
+        }
+        return InternalMessages.ServiceAlert.newBuilder()
+                .setSchemaVersion(1)
+                .addBulletins(bulletin)
+                .build();
+    }
+
+    private static class Result {
+        private final LatencyRecorder latencies = new LatencyRecorder();
+        private double messagesPerSecond;
+        private long cancellations;
+        private int negativeAcks;
+    }
+}
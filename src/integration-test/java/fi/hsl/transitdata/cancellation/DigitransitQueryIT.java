@@ -0,0 +1,83 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.digitransit.DigitransitClient;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.timetable.DigitransitTripInfoProvider;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares full and lean routes queries against {@link DigitransitStub}: lean queries return only the trips that run
+ * on the service date, in a much smaller response.
+ */
+public class DigitransitQueryIT {
+
+    private static final Logger log = LoggerFactory.getLogger(DigitransitQueryIT.class);
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+    private static final List<String> ROUTE_IDS = List.of("HSL:1001", "HSL:1002", "HSL:1003", "HSL:1004", "HSL:1005");
+    // Monday
+    private static final List<String> DATES = List.of("20240219");
+
+    private DigitransitStub digitransit;
+
+    @Before
+    public void setUp() throws Exception {
+        digitransit = new DigitransitStub(TIMEZONE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        digitransit.close();
+    }
+
+    @Test
+    public void testLeanQueryReturnsOnlyTripsOfServiceDate() {
+        Lookup full = lookup(false);
+        Lookup lean = lookup(true);
+        log.info("Full query: {} trips in {} bytes, lean query: {} trips in {} bytes",
+                full.trips, full.responseBytes, lean.trips, lean.responseBytes);
+
+        assertEquals(ROUTE_IDS.size() * digitransit.getTripsPerRoute(), full.trips);
+        assertTrue(lean.trips > 0);
+        assertTrue(lean.trips < full.trips / 4);
+        assertTrue("Full response " + full.responseBytes + " bytes, lean response " + lean.responseBytes + " bytes",
+                lean.responseBytes < full.responseBytes / 5);
+    }
+
+    private Lookup lookup(boolean lean) {
+        Config config = ConfigFactory.parseString("digitransit.leanQuery.enabled=" + lean
+                        + "\ndigitransit.compression=false")
+                .withFallback(ConfigFactory.parseResources("environment.conf")).resolve();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        try (DigitransitClient client = DigitransitClient.newInstance(config, digitransit.getUrl(), registry)) {
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos =
+                    new DigitransitTripInfoProvider(client, TIMEZONE).getTripInfos(ROUTE_IDS, DATES);
+
+            Lookup lookup = new Lookup();
+            lookup.trips = tripInfos.values().stream().mapToInt(List::size).sum();
+            DistributionSummary responses = registry.get("cancellation.digitransit.response").summary();
+            lookup.responseBytes = (long) responses.totalAmount();
+            return lookup;
+        }
+    }
+
+    private static class Lookup {
+        private int trips;
+        private long responseBytes;
+    }
+}
@@ -0,0 +1,138 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.digitransit.DigitransitClient;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.timetable.CachingTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.DigitransitTripInfoProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Looks up trips over HTTP from {@link DigitransitStub} while the stub is slow or down: slow queries are hedged,
+ * queries fail immediately while the circuit breaker is open, and the last loaded trips are used while trips can not
+ * be loaded.
+ */
+public class DigitransitResilienceIT {
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+    private static final List<String> DATES = List.of("20240219");
+
+    private DigitransitStub digitransit;
+    private DigitransitClient digitransitClient;
+    private DigitransitTripInfoProvider provider;
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Before
+    public void setUp() throws Exception {
+        Config config = ConfigFactory.parseString(
+                "digitransit.hedging.minDelay=100 milliseconds\n"
+                        + "digitransit.circuitBreaker.failureThreshold=3\n"
+                        + "digitransit.circuitBreaker.openDuration=1 second")
+                .withFallback(ConfigFactory.parseResources("environment.conf")).resolve();
+        digitransit = new DigitransitStub(TIMEZONE);
+        digitransit.setLatency(Duration.ofMillis(10));
+        digitransitClient = DigitransitClient.newInstance(config, digitransit.getUrl(), registry);
+        provider = new DigitransitTripInfoProvider(digitransitClient, TIMEZONE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        digitransitClient.close();
+        digitransit.close();
+    }
+
+    @Test
+    public void testSlowQueriesAreHedged() {
+        // latencies of fast queries set the hedging delay
+        for (int i = 0; i < 30; i++) {
+            lookup("HSL:1001");
+        }
+
+        digitransit.setSlowRequests(5, Duration.ofSeconds(5));
+        long maxMillis = 0;
+        for (int i = 0; i < 20; i++) {
+            long start = System.currentTimeMillis();
+            assertFalse(lookup("HSL:1001").isEmpty());
+            maxMillis = Math.max(maxMillis, System.currentTimeMillis() - start);
+        }
+
+        // a duplicate of each slow query was answered quickly
+        assertTrue(registry.get("cancellation.digitransit.hedged").counter().count() >= 3);
+        assertTrue("Slowest lookup took " + maxMillis + " ms", maxMillis < 2000);
+    }
+
+    @Test
+    public void testQueriesFailImmediatelyWhileApiIsDown() throws Exception {
+        digitransit.setErrorRate(1);
+        for (int i = 0; i < 3; i++) {
+            assertLookupFails("HSL:1001");
+        }
+        assertEquals(2, circuitState(), 0);
+
+        int requests = digitransit.getRequests();
+        for (int i = 0; i < 10; i++) {
+            assertLookupFails("HSL:1001");
+        }
+        assertEquals(requests, digitransit.getRequests());
+        assertEquals(10, registry.get("cancellation.digitransit.rejected").counter().count(), 0);
+
+        // one trial query closes the breaker after the API has recovered
+        digitransit.setErrorRate(0);
+        Thread.sleep(1100);
+        assertFalse(lookup("HSL:1001").isEmpty());
+        assertEquals(0, circuitState(), 0);
+        assertEquals(requests + 1, digitransit.getRequests());
+    }
+
+    @Test
+    public void testLastLoadedTripsAreUsedWhileApiIsDown() throws Exception {
+        try (CachingTripInfoProvider cachingProvider = new CachingTripInfoProvider(provider, Duration.ofMillis(100),
+                Duration.ofMillis(100), Duration.ofHours(1), 1000, Duration.ofHours(1))) {
+            Map<RouteDay, List<InternalMessages.TripInfo>> loaded =
+                    cachingProvider.getTripInfos(List.of("HSL:1001"), DATES);
+            Thread.sleep(200);
+
+            digitransit.setErrorRate(1);
+            int requests = digitransit.getRequests();
+            assertEquals(loaded, cachingProvider.getTripInfos(List.of("HSL:1001"), DATES));
+            assertTrue(digitransit.getRequests() > requests);
+
+            try {
+                cachingProvider.getTripInfos(List.of("HSL:1002"), DATES);
+                fail("Expected failure, trips of the route have never been loaded");
+            } catch (RuntimeException e) {
+                assertEquals("Failed to get trip data", e.getMessage());
+            }
+        }
+    }
+
+    private List<InternalMessages.TripInfo> lookup(String routeId) {
+        return provider.getTripInfos(List.of(routeId), DATES).get(new RouteDay(routeId, DATES.get(0)));
+    }
+
+    private void assertLookupFails(String routeId) {
+        long start = System.currentTimeMillis();
+        try {
+            lookup(routeId);
+            fail("Expected failure");
+        } catch (RuntimeException e) {
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+    }
+
+    private double circuitState() {
+        return registry.get("cancellation.digitransit.circuit").gauge().value();
+    }
+}
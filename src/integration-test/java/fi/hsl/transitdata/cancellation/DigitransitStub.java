@@ -0,0 +1,214 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fi.hsl.transitdata.cancellation.digitransit.RouteQueries;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for Digitransit routes API. Responses are built from a recorded routes response: every requested
+ * route gets the trips of the recorded route, moved to the requested service date. Lean queries get only the trips
+ * that ran on the same day of week, grouped into patterns by direction, without active dates. Latency of the responses, latency
+ * of occasional slow responses and the share of failed requests can be changed between runs.
+ */
+class DigitransitStub implements AutoCloseable {
+
+    private static final String RECORDED_RESPONSE = "/schema/graphql-query-results.json";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MockWebServer server = new MockWebServer();
+    private final ZoneId zone;
+    private final String recordedRouteId;
+    private final List<JsonNode> recordedTrips = new ArrayList<>();
+    // days of week on which each recorded trip ran, by index in recordedTrips
+    private final List<Set<DayOfWeek>> recordedDaysOfWeek = new ArrayList<>();
+
+    // KEY: route identifier, service date and query type, VALUE: route serialized as JSON
+    private final Map<String, String> routes = new ConcurrentHashMap<>();
+
+    private final Random random = new Random(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failedRequests = new AtomicInteger();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile double errorRate;
+    private volatile int slowRequestInterval;
+    private volatile Duration slowLatency = Duration.ZERO;
+
+    DigitransitStub(String timezone) throws IOException {
+        this.zone = ZoneId.of(timezone);
+        try (InputStream inputStream = getClass().getResourceAsStream(RECORDED_RESPONSE)) {
+            JsonNode recordedRoute = mapper.readTree(inputStream).path("data").path("routes").get(0);
+            recordedRouteId = recordedRoute.get("gtfsId").asText();
+            recordedRoute.get("trips").forEach(recordedTrips::add);
+        }
+        for (JsonNode recordedTrip : recordedTrips) {
+            Set<DayOfWeek> daysOfWeek = EnumSet.noneOf(DayOfWeek.class);
+            recordedTrip.get("activeDates").forEach(
+                    date -> daysOfWeek.add(LocalDate.parse(date.asText(), DateTimeFormatter.BASIC_ISO_DATE).getDayOfWeek()));
+            recordedDaysOfWeek.add(daysOfWeek);
+        }
+        server.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(@NotNull RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return server.url("/routing/v1/routers/hsl/index/graphql").toString();
+    }
+
+    /**
+     * @return trips per route and date in the response to a full query
+     */
+    int getTripsPerRoute() {
+        return recordedTrips.size();
+    }
+
+    void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param errorRate share of requests that fail with HTTP 503, between 0 and 1
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param interval    every interval'th request is slow, 0 disables slow requests
+     * @param slowLatency latency of the slow requests
+     */
+    void setSlowRequests(int interval, Duration slowLatency) {
+        this.slowRequestInterval = interval;
+        this.slowLatency = slowLatency;
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        int requestNumber = requests.incrementAndGet();
+        int interval = slowRequestInterval;
+        Duration delay = interval > 0 && requestNumber % interval == 0 ? slowLatency : latency;
+        MockResponse response;
+        if (isFailure()) {
+            failedRequests.incrementAndGet();
+            response = new MockResponse().setResponseCode(503).setBody("Service Unavailable");
+        } else {
+            try {
+                JsonNode body = mapper.readTree(request.getBody().readUtf8());
+                boolean lean = body.get("query").asText().contains("tripsForDate");
+                response = new MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(createResponse(body.get("variables"), lean));
+            } catch (IOException e) {
+                response = new MockResponse().setResponseCode(400).setBody(e.getMessage());
+            }
+        }
+        return response.setHeadersDelay(delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isFailure() {
+        synchronized (random) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    private String createResponse(JsonNode variables, boolean lean) {
+        StringBuilder response = new StringBuilder("{\"data\":{");
+        for (int i = 0; variables.has(RouteQueries.dateAlias(i)); i++) {
+            String date = variables.get(RouteQueries.dateAlias(i)).asText();
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append('"').append(RouteQueries.dateAlias(i)).append("\":[");
+            int routeIndex = 0;
+            for (JsonNode routeId : variables.get("ids")) {
+                if (routeIndex++ > 0) {
+                    response.append(',');
+                }
+                response.append(routes.computeIfAbsent(routeId.asText() + "/" + date + "/" + lean,
+                        key -> lean ? createLeanRoute(routeId.asText(), date) : createRoute(routeId.asText(), date)));
+            }
+            response.append(']');
+        }
+        return response.append("}}").toString();
+    }
+
+    private String createRoute(String routeId, String date) {
+        long serviceDay = LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay(zone).toEpochSecond();
+        ObjectNode route = mapper.createObjectNode();
+        route.put("id", routeId);
+        route.put("gtfsId", routeId);
+        for (JsonNode recordedTrip : recordedTrips) {
+            ObjectNode trip = recordedTrip.deepCopy();
+            trip.put("gtfsId", routeId + recordedTrip.get("gtfsId").asText().substring(recordedRouteId.length()));
+            ((ObjectNode) trip.get("departureStoptime")).put("serviceDay", serviceDay);
+            route.withArray("trips").add(trip);
+        }
+        return route.toString();
+    }
+
+    private String createLeanRoute(String routeId, String date) {
+        LocalDate serviceDate = LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+        long serviceDay = serviceDate.atStartOfDay(zone).toEpochSecond();
+        // KEY: directionId, VALUE: pattern
+        Map<String, ObjectNode> patterns = new LinkedHashMap<>();
+        for (int i = 0; i < recordedTrips.size(); i++) {
+            if (!recordedDaysOfWeek.get(i).contains(serviceDate.getDayOfWeek())) {
+                continue;
+            }
+            JsonNode recordedTrip = recordedTrips.get(i);
+            ObjectNode trip = mapper.createObjectNode();
+            trip.put("gtfsId", routeId + recordedTrip.get("gtfsId").asText().substring(recordedRouteId.length()));
+            trip.set("directionId", recordedTrip.get("directionId"));
+            ObjectNode departureStoptime = trip.putObject("departureStoptime");
+            departureStoptime.put("serviceDay", serviceDay);
+            departureStoptime.set("scheduledDeparture", recordedTrip.get("departureStoptime").get("scheduledDeparture"));
+            patterns.computeIfAbsent(recordedTrip.get("directionId").asText(), directionId -> mapper.createObjectNode())
+                    .withArray("trips").add(trip);
+        }
+        ObjectNode route = mapper.createObjectNode();
+        route.put("gtfsId", routeId);
+        route.putArray("patterns").addAll(patterns.values());
+        return route.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+}
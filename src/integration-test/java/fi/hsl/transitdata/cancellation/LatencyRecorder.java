@@ -0,0 +1,38 @@
+package fi.hsl.transitdata.cancellation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of one run, reported as percentiles. Not thread-safe.
+ */
+class LatencyRecorder {
+
+    private long[] latenciesNanos = new long[64];
+    private int count;
+
+    void record(long latencyNanos) {
+        if (count == latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+        }
+        latenciesNanos[count++] = latencyNanos;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return latency in milliseconds, nearest-rank method
+     */
+    double getPercentileMillis(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long[] sorted = Arrays.copyOf(latenciesNanos, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(rank, 1) - 1] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,84 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.pulsar.PulsarApplicationContext;
+import fi.hsl.common.transitdata.TransitdataProperties;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * In-memory stand-ins for Pulsar consumer and producer. Sent messages are confirmed immediately, and acknowledgement
+ * of each input message completes a future with the time it happened. Mocks do not record invocations, so that
+ * memory use stays flat during long runs.
+ */
+class PulsarStub {
+
+    private final Consumer<byte[]> consumer;
+    private final Producer<byte[]> producer;
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    // KEY: input message, VALUE: System.nanoTime() of the ack, or -1 for a negative ack
+    private final Map<MessageId, CompletableFuture<Long>> acks = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    PulsarStub() {
+        consumer = mock(Consumer.class, withSettings().stubOnly());
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenAnswer(invocation -> {
+            getAck(invocation.getArgument(0)).complete(System.nanoTime());
+            return CompletableFuture.completedFuture(null);
+        });
+        doAnswer(invocation -> getAck(invocation.getArgument(0)).complete(-1L))
+                .when(consumer).negativeAcknowledge(any(MessageId.class));
+
+        TypedMessageBuilder<byte[]> messageBuilder = mock(TypedMessageBuilder.class,
+                withSettings().stubOnly().defaultAnswer(RETURNS_SELF));
+        when(messageBuilder.sendAsync()).thenAnswer(invocation -> {
+            sentMessages.incrementAndGet();
+            return CompletableFuture.completedFuture(mock(MessageId.class, withSettings().stubOnly()));
+        });
+        producer = mock(Producer.class, withSettings().stubOnly());
+        when(producer.newMessage()).thenReturn(messageBuilder);
+    }
+
+    PulsarApplicationContext createContext(Config config) {
+        PulsarApplicationContext context = mock(PulsarApplicationContext.class, withSettings().stubOnly());
+        when(context.getConfig()).thenReturn(config);
+        when(context.getConsumer()).thenReturn(consumer);
+        when(context.getSingleProducer()).thenReturn(producer);
+        return context;
+    }
+
+    @SuppressWarnings("unchecked")
+    Message<byte[]> createMessage(InternalMessages.ServiceAlert serviceAlert) {
+        MessageId messageId = mock(MessageId.class, withSettings().stubOnly());
+        Message<byte[]> message = mock(Message.class, withSettings().stubOnly());
+        when(message.getMessageId()).thenReturn(messageId);
+        when(message.getProperty(TransitdataProperties.KEY_PROTOBUF_SCHEMA))
+                .thenReturn(TransitdataProperties.ProtobufSchema.TransitdataServiceAlert.toString());
+        when(message.getData()).thenReturn(serviceAlert.toByteArray());
+        return message;
+    }
+
+    /**
+     * @return future that completes with System.nanoTime() when the message is acknowledged, or with -1 when it is
+     * negatively acknowledged
+     */
+    CompletableFuture<Long> getAck(MessageId messageId) {
+        return acks.computeIfAbsent(messageId, key -> new CompletableFuture<>());
+    }
+
+    long getSentMessages() {
+        return sentMessages.get();
+    }
+}
@@ -0,0 +1,92 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.util.TimeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a full routes response with the trips of the recorded route, repeated for several routes, directly into
+ * trips compared to binding it to a JSON tree and copying the tree into trips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TripInfoDecoderBenchmark {
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+    private static final String DATE = "20231216";
+
+    @Param({ "1", "10" })
+    public int routes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TripInfoDecoder decoder = new TripInfoDecoder(TIMEZONE);
+    private RouteQuery query;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        String route;
+        try (InputStream inputStream = getClass().getResourceAsStream("/schema/graphql-query-results.json")) {
+            String recorded = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            route = recorded.substring(recorded.indexOf('[') + 1, recorded.lastIndexOf(']')).trim();
+        }
+        List<String> routeIds = new ArrayList<>();
+        StringBuilder body = new StringBuilder("{\"data\":{\"d0\":[");
+        for (int i = 0; i < routes; i++) {
+            routeIds.add("HSL:4611");
+            body.append(i > 0 ? "," : "").append(route);
+        }
+        response = body.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+        query = new RouteQuery(routeIds, Collections.singletonList(DATE));
+    }
+
+    @Benchmark
+    public Map<RouteDay, List<InternalMessages.TripInfo>> decode() throws IOException {
+        return decoder.decode(query, response);
+    }
+
+    @Benchmark
+    public List<InternalMessages.TripInfo> bindAndCopy() throws IOException {
+        JsonNode results = mapper.readTree(response);
+        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>();
+        for (JsonNode route : results.get("data").get("d0")) {
+            for (JsonNode trip : route.get("trips")) {
+                JsonNode departure = trip.get("departureStoptime");
+                tripInfos.add(InternalMessages.TripInfo.newBuilder()
+                        .setRouteId(route.get("gtfsId").asText())
+                        .setTripId(trip.get("gtfsId").asText())
+                        .setOperatingDay(TimeUtils.getDateAsString(departure.get("serviceDay").asInt(), TIMEZONE))
+                        .setStartTime(TimeUtils.getTimeAsString(departure.get("scheduledDeparture").asInt()))
+                        .setDirectionId(Integer.parseInt(trip.get("directionId").asText()))
+                        .build());
+            }
+        }
+        return tripInfos;
+    }
+}
@@ -0,0 +1,135 @@
+package fi.hsl.transitdata.cancellation.util;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generated timetable for benchmarks. Trips are spread over one week starting on Monday 2024-02-19, about 100 trips
+ * per route, departing every ten minutes from 06:00.
+ */
+final class BenchmarkData {
+
+    static final String TIMEZONE = "Europe/Helsinki";
+    static final LocalDateTime VALID_FROM = LocalDateTime.of(2024, 2, 19, 5, 0);
+    static final LocalDateTime VALID_TO = LocalDateTime.of(2024, 2, 26, 5, 0);
+
+    private static final String[] WEEKDAYS = { "Ma", "Ti", "Ke", "To", "Pe", "La", "Su" };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param trips            number of distinct departures
+     * @param weekdayVariants  whether each departure is included twice with different GTFS trip ids, as Digitransit
+     *                         returns them
+     */
+    static List<InternalMessages.TripInfo> createTripInfos(int trips, boolean weekdayVariants) {
+        int routes = Math.max(1, trips / 100);
+        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>();
+        for (int i = 0; i < trips; i++) {
+            int route = i % routes;
+            int day = i / routes % 7;
+            int slot = i / routes / 7;
+            String routeId = "HSL:" + (1001 + route);
+            String operatingDay = Integer.toString(20240219 + day);
+            String startTime = ServiceTime.formatTime(6 * 60 + slot * 10);
+            int directionId = slot % 2;
+            for (int variant = 0; variant < (weekdayVariants ? 2 : 1); variant++) {
+                String gtfsId = routeId + "_20240212_" + WEEKDAYS[(day + variant) % 7] + "_" + (directionId + 1) + "_"
+                        + startTime;
+                tripInfos.add(InternalMessages.TripInfo.newBuilder()
+                        .setRouteId(routeId)
+                        .setTripId(gtfsId)
+                        .setOperatingDay(operatingDay)
+                        .setStartTime(startTime)
+                        .setDirectionId(directionId)
+                        .build());
+            }
+        }
+        return tripInfos;
+    }
+
+    static TripInfoProvider createTripInfoProvider(List<InternalMessages.TripInfo> tripInfos) {
+        Map<RouteDay, List<InternalMessages.TripInfo>> trips = new HashMap<>();
+        for (InternalMessages.TripInfo tripInfo : tripInfos) {
+            trips.computeIfAbsent(new RouteDay(tripInfo.getRouteId(), tripInfo.getOperatingDay()), key -> new ArrayList<>())
+                    .add(tripInfo);
+        }
+        return (routeIds, dates) -> {
+            Map<RouteDay, List<InternalMessages.TripInfo>> result = new HashMap<>();
+            for (String routeId : routeIds) {
+                for (String date : dates) {
+                    RouteDay routeDay = new RouteDay(routeId, date);
+                    result.put(routeDay, trips.getOrDefault(routeDay, new ArrayList<>()));
+                }
+            }
+            return result;
+        };
+    }
+
+    static InternalMessages.Bulletin createBulletin(List<InternalMessages.TripInfo> tripInfos) {
+        Set<String> routeIds = new LinkedHashSet<>();
+        tripInfos.forEach(tripInfo -> routeIds.add(tripInfo.getRouteId()));
+        InternalMessages.Bulletin.Builder builder = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId("benchmark")
+                .setImpact(InternalMessages.Bulletin.Impact.CANCELLED)
+                .setPriority(InternalMessages.Bulletin.Priority.WARNING)
+                .setLastModifiedUtcMs(1708300000000L)
+                .setValidFromUtcMs(VALID_FROM.atZone(ZoneId.of(TIMEZONE)).toInstant().toEpochMilli())
+                .setValidToUtcMs(VALID_TO.atZone(ZoneId.of(TIMEZONE)).toInstant().toEpochMilli());
+        for (String routeId : routeIds) {
+            builder.addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(routeId));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return cancellations as they are created from a mass cancellation bulletin
+     */
+    static List<CancellationData> createCancellations(List<InternalMessages.TripInfo> tripInfos) {
+        return BulletinUtils.createTripCancellations(
+                createBulletin(tripInfos), TIMEZONE, createTripInfoProvider(tripInfos));
+    }
+
+    /**
+     * Store of one bulletin, so that the benchmark measures comparing versions and not the store.
+     */
+    static class SingleBulletinStateStore implements BulletinStateStore {
+        private BulletinState state;
+
+        SingleBulletinStateStore(BulletinState state) {
+            this.state = state;
+        }
+
+        @Override
+        public BulletinState get(String bulletinId) {
+            return state;
+        }
+
+        @Override
+        public void put(String bulletinId, BulletinState state) {
+            this.state = state;
+        }
+
+        @Override
+        public Collection<BulletinState> values() {
+            return state != null ? Collections.singletonList(state) : Collections.emptyList();
+        }
+    }
+}
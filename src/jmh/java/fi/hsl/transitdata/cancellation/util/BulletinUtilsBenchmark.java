@@ -0,0 +1,61 @@
+package fi.hsl.transitdata.cancellation.util;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building TripCancellation messages of a mass cancellation bulletin from the timetable, and serializing them as they
+ * are sent to Pulsar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulletinUtilsBenchmark {
+
+    @Param({ "10", "1000", "10000", "50000" })
+    public int trips;
+
+    private InternalMessages.Bulletin bulletin;
+    private TripInfoProvider tripInfoProvider;
+    private List<CancellationData> cancellations;
+
+    @Setup
+    public void setUp() {
+        List<InternalMessages.TripInfo> tripInfos = BenchmarkData.createTripInfos(trips, true);
+        bulletin = BenchmarkData.createBulletin(tripInfos);
+        tripInfoProvider = BenchmarkData.createTripInfoProvider(tripInfos);
+        cancellations = BulletinUtils.createTripCancellations(bulletin, BenchmarkData.TIMEZONE, tripInfoProvider);
+    }
+
+    @Benchmark
+    public List<CancellationData> createTripCancellations() {
+        return BulletinUtils.createTripCancellations(bulletin, BenchmarkData.TIMEZONE, tripInfoProvider);
+    }
+
+    @Benchmark
+    public long serializeCancellations() {
+        long bytes = 0;
+        for (CancellationData cancellationData : cancellations) {
+            bytes += cancellationData.getPayload().toByteArray().length;
+        }
+        return bytes;
+    }
+}
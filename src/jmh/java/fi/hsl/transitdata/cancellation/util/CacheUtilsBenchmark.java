@@ -0,0 +1,74 @@
+package fi.hsl.transitdata.cancellation.util;
+
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing a bulletin version to the previous one: a new bulletin, a modified bulletin where 10% of the trips are
+ * replaced, and a bulletin whose validity period has been shortened to half. {@link CacheUtils#getBulletinDiff} is
+ * what the handler of the bulletins calls, {@link BulletinState#diff} is the comparison without logging the changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheUtilsBenchmark {
+
+    @Param({ "10", "1000", "10000", "50000" })
+    public int trips;
+
+    private List<CancellationData> original;
+    private List<CancellationData> modified;
+    private List<CancellationData> shrunk;
+    private BulletinState originalState;
+    private BulletinStateStore store;
+
+    @Setup
+    public void setUp() {
+        int replaced = trips / 10;
+        List<CancellationData> all = BenchmarkData.createCancellations(
+                BenchmarkData.createTripInfos(trips + replaced, false));
+        original = all.subList(0, trips);
+        modified = all.subList(replaced, replaced + trips);
+        shrunk = original.subList(0, trips / 2);
+        originalState = BulletinState.of(original);
+        store = new BenchmarkData.SingleBulletinStateStore(originalState);
+    }
+
+    @Benchmark
+    public BulletinState.Diff newBulletin() {
+        return CacheUtils.getBulletinDiff("benchmark", original, null, store);
+    }
+
+    @Benchmark
+    public BulletinState.Diff modifiedBulletin() {
+        return CacheUtils.getBulletinDiff("benchmark", modified, originalState, store);
+    }
+
+    @Benchmark
+    public BulletinState.Diff shrunkBulletin() {
+        return CacheUtils.getBulletinDiff("benchmark", shrunk, originalState, store);
+    }
+
+    @Benchmark
+    public BulletinState.Diff modifiedBulletinState() {
+        return BulletinState.diff(originalState, modified);
+    }
+}
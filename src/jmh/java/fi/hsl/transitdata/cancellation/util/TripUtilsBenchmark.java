@@ -0,0 +1,73 @@
+package fi.hsl.transitdata.cancellation.util;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering, de-duplicating and renaming trips returned by the timetable, and the time conversions used for them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TripUtilsBenchmark {
+
+    @Param({ "10", "1000", "10000", "50000" })
+    public int trips;
+
+    private List<InternalMessages.TripInfo> tripInfos;
+    private List<InternalMessages.TripInfo> tripInfosWithVariants;
+    // first half of the week
+    private final LocalDateTime validFrom = BenchmarkData.VALID_FROM;
+    private final LocalDateTime validTo = BenchmarkData.VALID_FROM.plusHours(84);
+
+    @Setup
+    public void setUp() {
+        tripInfos = BenchmarkData.createTripInfos(trips, false);
+        tripInfosWithVariants = BenchmarkData.createTripInfos(trips, true);
+    }
+
+    @Benchmark
+    public List<InternalMessages.TripInfo> removeDuplicates() {
+        return TripUtils.removeDuplicates(tripInfosWithVariants);
+    }
+
+    @Benchmark
+    public List<InternalMessages.TripInfo> filterTripInfos() {
+        return TripUtils.filterTripInfos(tripInfos, validFrom, validTo);
+    }
+
+    @Benchmark
+    public void isBetween(Blackhole blackhole) {
+        AbstractMap.SimpleEntry<String, String> from = TimeUtils.convertInto30hClockStrings(validFrom);
+        AbstractMap.SimpleEntry<String, String> to = TimeUtils.convertInto30hClockStrings(validTo);
+        for (InternalMessages.TripInfo tripInfo : tripInfos) {
+            blackhole.consume(TimeUtils.isBetween(tripInfo.getOperatingDay(), tripInfo.getStartTime(), from, to));
+        }
+    }
+
+    @Benchmark
+    public void getTimeAsString(Blackhole blackhole) {
+        for (int i = 0; i < trips; i++) {
+            blackhole.consume(TimeUtils.getTimeAsString(6 * 3600 + i % 1080 * 60));
+        }
+    }
+}
@@ -7,91 +7,424 @@ import fi.hsl.common.pulsar.PulsarApplicationContext;
 import fi.hsl.common.transitdata.TransitdataProperties;
 import fi.hsl.common.transitdata.TransitdataSchema;
 import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinScope;
 import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
 import fi.hsl.transitdata.cancellation.util.BulletinUtils;
-
 import fi.hsl.transitdata.cancellation.util.CacheUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.pulsar.client.api.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public class AlertHandler implements IMessageHandler {
+public class AlertHandler implements IMessageHandler, AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(AlertHandler.class);
+    
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
 
     private final Consumer<byte[]> consumer;
-    private final Producer<byte[]> producer;
-    
-    public static final Duration CACHE_DURATION = Duration.of(4, ChronoUnit.HOURS);
+    private final CancellationPublisher publisher;
+    private final EmissionPolicy emissionPolicy;
+    // in DELTA mode, all cancellations of handled bulletins are sent again when their full refresh is due, null if
+    // full refresh is disabled
+    private final ScheduledExecutorService fullRefreshScheduler;
+    // KEY: bulletinId, VALUE: latest handled version of the bulletin, handled again when its full refresh is due
+    private final ConcurrentMap<String, InternalMessages.Bulletin> refreshedBulletins = new ConcurrentHashMap<>();
+    // KEY: bulletinId
+    private final ConcurrentMap<String, ScheduledFuture<?>> scheduledRefreshes = new ConcurrentHashMap<>();
     
-    // KEY: bulletinId, VALUE: Map<KEY: tripId, VALUE: cancellationData>
-    private final Cache<String, Map<String, CancellationData>> bulletinsCache;
+    // KEY: bulletinId, VALUE: cancelled trips of the bulletin
+    private final BulletinStateStore bulletinStateStore;
+    // KEY: bulletinId, VALUE: routes and dates of the version in the state store, missing after a restart
+    private final Cache<String, BulletinScope> bulletinScopes;
+    // modified bulletins fetch only the timetables that were added to them
+    private final boolean incremental;
+    // republished and outdated versions of bulletins are skipped, based on the fingerprint stored with the state
+    private final boolean skipHandled;
     
     private final String timezone;
     
-    private final String digitransitDeveloperApiUri;
+    private final TripInfoProvider tripInfoProvider;
+    
+    // mass cancellation bulletins are handled in parallel, partitioned by bulletinId
+    private final PartitionedExecutor workers;
+    private final BulletinCoalescer coalescer;
+    // KEY: bulletinId, VALUE: handling of the latest version of the bulletin, the next version waits for it
+    private final ConcurrentMap<String, CompletableFuture<Void>> bulletinsInProgress = new ConcurrentHashMap<>();
+    // input messages that have not been acknowledged yet
+    private final Semaphore pendingMessages;
+    
+    // single trip cancellations are forwarded without decoding, a sample of them is decoded to validate them
+    private final boolean passthrough;
+    private final double validationRate;
+    
+    private final Timer serviceAlertHandling;
+    private final Timer tripCancellationHandling;
+    private final Timer otherMessageHandling;
+    private final DistributionSummary tripsPerBulletin;
+    private final Counter unchangedVersions;
+    private final Counter outdatedVersions;
 
-    public AlertHandler(final PulsarApplicationContext context, String timezone, String digitransitDeveloperApiUri) {
+    public AlertHandler(final PulsarApplicationContext context, String timezone, TripInfoProvider tripInfoProvider,
+                        BulletinStateStore bulletinStateStore, MeterRegistry registry) {
         this.consumer = context.getConsumer();
-        this.producer = context.getSingleProducer();
+        this.publisher = new CancellationPublisher(context.getSingleProducer(),
+                context.getConfig().getInt("processor.maxOutstandingMessages"), registry);
+        this.emissionPolicy = EmissionPolicy.newInstance(context.getConfig());
+        this.emissionPolicy.bindTo(registry);
+        this.fullRefreshScheduler = emissionPolicy.isFullRefreshEnabled()
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "bulletin-full-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
         
         this.timezone = timezone;
-        this.digitransitDeveloperApiUri = digitransitDeveloperApiUri;
+        this.tripInfoProvider = tripInfoProvider;
+        this.bulletinStateStore = bulletinStateStore;
+        this.bulletinScopes = Caffeine.newBuilder()
+                .expireAfterAccess(context.getConfig().getDuration("state.expireAfter"))
+                .build();
+        this.incremental = context.getConfig().getBoolean("processor.incremental.enabled");
+        this.skipHandled = context.getConfig().getBoolean("processor.idempotency.enabled");
+        
+        this.workers = PartitionedExecutor.newInstance(context.getConfig());
+        this.coalescer = BulletinCoalescer.newInstance(context.getConfig(), this::handleBulletin, registry);
+        this.pendingMessages = new Semaphore(context.getConfig().getInt("processor.maxPendingMessages"));
+        this.passthrough = context.getConfig().getBoolean("processor.passthrough.enabled");
+        this.validationRate = context.getConfig().getDouble("processor.passthrough.validationRate");
         
-        this.bulletinsCache = Caffeine.newBuilder()
-                .expireAfterAccess(CACHE_DURATION)
-                .build(key -> new HashMap<>());
+        this.serviceAlertHandling = handlingTimer(registry, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert.toString());
+        this.tripCancellationHandling = handlingTimer(registry, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation.toString());
+        this.otherMessageHandling = handlingTimer(registry, "other");
+        this.tripsPerBulletin = DistributionSummary.builder("cancellation.bulletin.trips")
+                .description("Cancelled trips of each handled mass cancellation bulletin")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.unchangedVersions = BulletinCoalescer.versionCounter(registry, "unchanged");
+        this.outdatedVersions = BulletinCoalescer.versionCounter(registry, "outdated");
     }
     
     @Override
     public void handleMessage(@NotNull final Message message) {
+        Timer.Sample sample = Timer.start();
         try {
-            List<CancellationData> cancellationDataList = new ArrayList<>();
+            pendingMessages.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            consumer.negativeAcknowledge(message.getMessageId());
+            return;
+        }
+        handle(message).whenComplete((result, throwable) -> {
+            pendingMessages.release();
+            sample.stop(getHandlingTimer(message));
+        });
+    }
+    
+    /**
+     * @return future that completes when the message has been acknowledged or negatively acknowledged
+     */
+    private CompletableFuture<Void> handle(Message message) {
+        CompletableFuture<Void> published;
+        try {
+            published = publishCancellations(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            consumer.negativeAcknowledge(message.getMessageId());
+            return CompletableFuture.completedFuture(null);
+        } catch (final Exception e) {
+            log.error("Exception while handling message", e);
+            ack(message.getMessageId());
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        return published.handle((result, throwable) -> {
+            if (throwable == null) {
+                ack(message.getMessageId());
+            } else {
+                log.error("Failed to send cancellations, message will be redelivered", throwable);
+                consumer.negativeAcknowledge(message.getMessageId());
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Each mass cancellation bulletin is handled by the worker of its bulletin identifier, so that versions of one
+     * bulletin are compared and sent in order, while different bulletins are handled in parallel. Versions that
+     * arrive in quick succession are coalesced first, so that only the latest of them is handled.
+     *
+     * @return future that completes when every cancellation of the message, or of a newer version of its bulletins,
+     * has been confirmed
+     */
+    private CompletableFuture<Void> publishCancellations(Message message) throws Exception {
+        if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert)) {
+            InternalMessages.ServiceAlert serviceAlert = InternalMessages.ServiceAlert.parseFrom(message.getData());
+            serviceAlert.getBulletinsList().forEach(bulletin -> log.info(
+                    "Bulletin: impact={}, priority={}, category={}",
+                    bulletin.getImpact(), bulletin.getPriority(), bulletin.getCategory()));
+            List<InternalMessages.Bulletin> massCancellations = BulletinUtils.filterMassCancellationsFromBulletins(serviceAlert.getBulletinsList());
             
-            if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert)) {
-                InternalMessages.ServiceAlert serviceAlert = InternalMessages.ServiceAlert.parseFrom(message.getData());
-                serviceAlert.getBulletinsList().forEach(bulletin -> log.info(
-                        "Bulletin: impact={}, priority={}, category={}",
-                        bulletin.getImpact(), bulletin.getPriority(), bulletin.getCategory()));
-                List<InternalMessages.Bulletin> massCancellations = BulletinUtils.filterMassCancellationsFromBulletins(serviceAlert.getBulletinsList());
-                
-                if (massCancellations.isEmpty()) {
-                    log.info("No mass cancellation bulletins, total number of bulletins: " + serviceAlert.getBulletinsList().size());
-                } else {
-                    List<String> routeIds = massCancellations.stream().flatMap(massCancellation ->
-                            massCancellation.getAffectedRoutesList().stream().map(
-                                    InternalMessages.Bulletin.AffectedEntity::getEntityId)).collect(Collectors.toList());
-                    log.info("Affected routes: {}", routeIds);
-                    for (InternalMessages.Bulletin massCancellation : massCancellations) {
-                        List<CancellationData> bulletinCancellations =
-                                BulletinUtils.createTripCancellations(massCancellation, timezone, digitransitDeveloperApiUri);
-                        cancellationDataList.addAll(
-                                CacheUtils.handleBulletinCancellations(massCancellation.getBulletinId(),
-                                        bulletinCancellations, bulletinsCache));
-                    }
-                    log.info("Added {} cancellations from mass cancellation service alert", cancellationDataList.size());
+            if (massCancellations.isEmpty()) {
+                log.info("No mass cancellation bulletins, total number of bulletins: " + serviceAlert.getBulletinsList().size());
+                return CompletableFuture.completedFuture(null);
+            }
+            List<String> routeIds = massCancellations.stream().flatMap(massCancellation ->
+                    massCancellation.getAffectedRoutesList().stream().map(
+                            InternalMessages.Bulletin.AffectedEntity::getEntityId)).collect(Collectors.toList());
+            log.info("Affected routes: {}", routeIds);
+            
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[massCancellations.size()];
+            for (int i = 0; i < massCancellations.size(); i++) {
+                futures[i] = coalescer.submit(massCancellations.get(i));
+            }
+            return CompletableFuture.allOf(futures);
+        } else if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation)) {
+            if (passthrough) {
+                if (isValidated()) {
+                    // throws if the payload is not a valid TripCancellation, in which case it is not forwarded
+                    InternalMessages.TripCancellation.parseFrom(message.getData());
                 }
-            } else if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation)) {
-                InternalMessages.TripCancellation tripCancellation = InternalMessages.TripCancellation.parseFrom(message.getData());
-                CancellationData data = new CancellationData(tripCancellation, message.getEventTime(), message.getKey(), -1);
-                cancellationDataList.add(data);
-            } else {
-                throw new Exception("Invalid protobuf schema");
+                return publisher.forward(message);
+            }
+            InternalMessages.TripCancellation tripCancellation = InternalMessages.TripCancellation.parseFrom(message.getData());
+            CancellationData data = new CancellationData(tripCancellation, message.getEventTime(), message.getKey(), -1);
+            return publisher.publish(Collections.singletonList(data));
+        } else {
+            throw new Exception("Invalid protobuf schema");
+        }
+    }
+    
+    private boolean isValidated() {
+        return validationRate >= 1 || validationRate > 0 && ThreadLocalRandom.current().nextDouble() < validationRate;
+    }
+    
+    /**
+     * Versions of a bulletin are handled one at a time on the worker of the bulletin: the next version is compared to
+     * the state of the bulletin only after the cancellations of the previous version have been confirmed and its
+     * state has been stored.
+     *
+     * @return future that completes when every cancellation of the bulletin has been confirmed
+     */
+    private CompletableFuture<Void> handleBulletin(InternalMessages.Bulletin massCancellation) {
+        String bulletinId = massCancellation.getBulletinId();
+        CompletableFuture<Void> handled = bulletinsInProgress.compute(bulletinId, (key, previous) -> {
+            CompletableFuture<Void> previousHandled = previous != null
+                    ? previous.handle((result, throwable) -> null)
+                    : CompletableFuture.completedFuture(null);
+            return previousHandled
+                    .thenCompose(ignored -> workers.submit(bulletinId, () -> publishBulletin(massCancellation)))
+                    .thenCompose(Function.identity());
+        });
+        handled.whenComplete((result, throwable) -> bulletinsInProgress.remove(bulletinId, handled));
+        return handled;
+    }
+    
+    /**
+     * Runs on the worker of the bulletin. If cancellations cannot be created, the error is logged and nothing is sent,
+     * as the same bulletin would fail again if the message was redelivered. Versions that have already been handled
+     * are skipped. State of the bulletin is stored only after its cancellations have been confirmed, so that a
+     * redelivered message is compared to the state that was last sent successfully.
+     *
+     * @return future that completes when every cancellation of the bulletin has been confirmed
+     */
+    private CompletableFuture<Void> publishBulletin(InternalMessages.Bulletin massCancellation) {
+        String bulletinId = massCancellation.getBulletinId();
+        long fingerprint = BulletinUtils.getFingerprint(massCancellation);
+        EmissionPolicy.Selection selection;
+        BulletinState state;
+        try {
+            // the state is not modified by others, versions of the bulletin are handled one at a time
+            BulletinState previousState = bulletinStateStore.get(bulletinId);
+            if (skipHandled && isHandled(massCancellation, fingerprint, previousState)) {
+                return CompletableFuture.completedFuture(null);
             }
             
-            sendCancellations(cancellationDataList);
+            List<CancellationData> bulletinCancellations;
+            if (incremental) {
+                BulletinScope previousScope = bulletinScopes.getIfPresent(bulletinId);
+                // the scope is only used with the state created from it, e.g. not with a state replicated from
+                // another instance
+                if (previousState == null || previousState.isEmpty() || previousScope == null
+                        || previousState.getTimestamp() != previousScope.getLastModifiedUtcMs()) {
+                    previousScope = null;
+                }
+                bulletinCancellations = BulletinUtils.createTripCancellations(
+                        massCancellation, timezone, tripInfoProvider, previousScope, previousState);
+            } else {
+                bulletinCancellations = BulletinUtils.createTripCancellations(massCancellation, timezone, tripInfoProvider);
+            }
+            tripsPerBulletin.record(bulletinCancellations.size());
+            BulletinState.Diff diff = CacheUtils.getBulletinDiff(
+                    bulletinId, bulletinCancellations, previousState, bulletinStateStore);
+            // fingerprint is stored in the same write as the state, so that a version is never seen as handled
+            // before its cancellations have been confirmed
+            state = skipHandled
+                    ? diff.getState().withVersion(massCancellation.getLastModifiedUtcMs(), fingerprint)
+                    : diff.getState();
+            if (incremental) {
+                bulletinScopes.put(bulletinId, BulletinScope.of(massCancellation, ServiceTime.zone(timezone)));
+            }
+            selection = emissionPolicy.select(bulletinId, diff.getChanges());
         } catch (final Exception e) {
-            log.error("Exception while handling message", e);
-        } finally {
-            ack(message.getMessageId());
+            log.error("Exception while handling bulletin {}", bulletinId, e);
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        log.info("Sending {} cancellations of mass cancellation bulletin {}",
+                selection.getCancellations().size(), bulletinId);
+        CompletableFuture<Void> published;
+        try {
+            published = publisher.publish(selection.getCancellations());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        // if sending fails, the stored state and the emission policy are left as they were and the message is
+        // redelivered. The state is stored on the worker of the bulletin instead of the thread that completes the send
+        CompletableFuture<Void> stored = published.thenRunAsync(() -> {
+            bulletinStateStore.put(bulletinId, state);
+            selection.commit();
+        }, workers.getWorker(bulletinId));
+        if (fullRefreshScheduler == null) {
+            return stored;
         }
+        return stored.thenRun(() -> {
+            refreshedBulletins.merge(bulletinId, massCancellation, (previous, handled) ->
+                    handled.getLastModifiedUtcMs() >= previous.getLastModifiedUtcMs() ? handled : previous);
+            scheduleFullRefresh(bulletinId);
+        });
     }
-
+    
+    private void scheduleFullRefresh(String bulletinId) {
+        scheduledRefreshes.computeIfAbsent(bulletinId, key -> fullRefreshScheduler.schedule(() -> refresh(key),
+                emissionPolicy.getFullRefreshDelay(key).toMillis(), TimeUnit.MILLISECONDS));
+    }
+    
+    /**
+     * Handle the latest version of the bulletin again when its full refresh is due, so that all of its cancellations
+     * are sent again even if no new version arrives. Bulletins are refreshed until their validity period has ended or
+     * their state has expired.
+     */
+    private void refresh(String bulletinId) {
+        scheduledRefreshes.remove(bulletinId);
+        InternalMessages.Bulletin bulletin = refreshedBulletins.get(bulletinId);
+        if (bulletin == null) {
+            return;
+        }
+        try {
+            if (bulletin.getValidToUtcMs() < System.currentTimeMillis() || bulletinStateStore.get(bulletinId) == null) {
+                refreshedBulletins.remove(bulletinId, bulletin);
+                return;
+            }
+            if (!emissionPolicy.isFullRefreshDue(bulletinId)) {
+                // all cancellations have been sent since the refresh was scheduled
+                scheduleFullRefresh(bulletinId);
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Failed to refresh bulletin {}", bulletinId, e);
+            scheduleFullRefresh(bulletinId);
+            return;
+        }
+        log.info("Sending all cancellations of bulletin {} again", bulletinId);
+        handleBulletin(bulletin).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.error("Failed to send all cancellations of bulletin {} again", bulletinId, throwable);
+            }
+            scheduleFullRefresh(bulletinId);
+        });
+    }
+    
+    /**
+     * @return true if the same version of the bulletin, or a newer one, has already been handled, and the full refresh
+     * of the bulletin is not due
+     */
+    private boolean isHandled(InternalMessages.Bulletin massCancellation, long fingerprint, BulletinState previousState) {
+        if (previousState == null) {
+            return false;
+        }
+        if (previousState.getFingerprint() == fingerprint) {
+            if (emissionPolicy.isFullRefreshDue(massCancellation.getBulletinId())) {
+                // the same version is handled again to send all of its cancellations
+                return false;
+            }
+            log.info("Bulletin {} has not changed since it was last handled, skipping it", massCancellation.getBulletinId());
+            unchangedVersions.increment();
+            return true;
+        }
+        if (massCancellation.getLastModifiedUtcMs() < previousState.getTimestamp()) {
+            log.info("Bulletin {} modified at {} is older than the handled version modified at {}, skipping it",
+                    massCancellation.getBulletinId(), massCancellation.getLastModifiedUtcMs(), previousState.getTimestamp());
+            outdatedVersions.increment();
+            return true;
+        }
+        return false;
+    }
+    
+    private Timer getHandlingTimer(Message message) {
+        if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert)) {
+            return serviceAlertHandling;
+        } else if (TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation)) {
+            return tripCancellationHandling;
+        }
+        return otherMessageHandling;
+    }
+    
+    /**
+     * Stop full refreshes, handle collected versions of bulletins without waiting for their quiet period, and wait
+     * until the bulletins in progress have been confirmed and their state has been stored, so that the state store can
+     * be closed after this.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (fullRefreshScheduler != null) {
+            fullRefreshScheduler.shutdownNow();
+        }
+        coalescer.close();
+        CompletableFuture<?>[] inProgress = bulletinsInProgress.values().toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(inProgress).get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // failures have been logged by the handling of the message
+        } catch (TimeoutException e) {
+            log.warn("{} bulletins were not handled in {} seconds, their state is not stored",
+                    inProgress.length, CLOSE_TIMEOUT_SECONDS);
+        }
+        workers.close();
+    }
+    
+    private static Timer handlingTimer(MeterRegistry registry, String schema) {
+        return Timer.builder("cancellation.message.handling")
+                .description("Time from receiving an input message until it has been acknowledged")
+                .tag("schema", schema)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+    
     // identical method is in many repos
     private void ack(MessageId received) {
         consumer.acknowledgeAsync(received)
@@ -101,28 +434,4 @@ public class AlertHandler implements IMessageHandler {
                 })
                 .thenRun(() -> {});
     }
-
-    // This method is copied from transitdata-omm-cancellation-source
-    private void sendCancellations(List<CancellationData> cancellations) throws PulsarClientException {
-        for (CancellationData data: cancellations) {
-            sendPulsarMessage(data.payload, data.timestampEpochMs, data.dvjId);
-        }
-    }
-    
-    // This method is copied from transitdata-omm-cancellation-source
-    private void sendPulsarMessage(InternalMessages.TripCancellation tripCancellation, long timestamp, String dvjId) throws PulsarClientException {
-        try {
-            producer.newMessage().value(tripCancellation.toByteArray())
-                    .eventTime(timestamp)
-                    .key(dvjId)
-                    .property(TransitdataProperties.KEY_DVJ_ID, dvjId)
-                    .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation.toString())
-                    .send();
-        } catch (PulsarClientException pe) {
-            log.error("Failed to send message to Pulsar", pe);
-            throw pe;
-        } catch (Exception e) {
-            log.error("Failed to handle cancellation message", e);
-        }
-    }
 }
@@ -0,0 +1,218 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects versions of a bulletin that arrive in quick succession, e.g. while the bulletin is being edited, and hands
+ * only the latest of them to the processor.
+ *
+ * A version that arrives when no other version of the bulletin has arrived within the quiet period, e.g. the first
+ * version, is processed immediately. Versions that follow it within the quiet period are collected, and the latest of
+ * them is processed when no newer version has arrived within the quiet period, but at the latest when the maximum
+ * delay has elapsed since the first of them arrived. Versions older than a pending or already processed version, by
+ * 'lastModifiedUtcMs', are discarded. Zero quiet period processes every version immediately.
+ */
+public class BulletinCoalescer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulletinCoalescer.class);
+
+    private final Duration quietPeriod;
+    private final Duration maxDelay;
+    private final Function<InternalMessages.Bulletin, CompletableFuture<Void>> processor;
+    private final ScheduledExecutorService scheduler;
+
+    // KEY: bulletinId, guarded by this
+    private final Map<String, PendingBulletin> pendingBulletins = new HashMap<>();
+    // KEY: bulletinId, VALUE: lastModifiedUtcMs of the latest processed version
+    private final Cache<String, Long> processedVersions;
+    // KEY: bulletinId of a bulletin that has received a version within the quiet period, guarded by this
+    private final Cache<String, Boolean> recentBulletins;
+
+    private final Counter processed;
+    private final Counter coalesced;
+    private final Counter outdated;
+
+    /**
+     * @param processor processes a bulletin, returned future completes when its cancellations have been confirmed
+     */
+    public BulletinCoalescer(Duration quietPeriod, Duration maxDelay, Duration expireAfter,
+                             Function<InternalMessages.Bulletin, CompletableFuture<Void>> processor,
+                             MeterRegistry registry) {
+        if (quietPeriod.isNegative() || maxDelay.compareTo(quietPeriod) < 0) {
+            throw new IllegalArgumentException("Quiet period must not be negative or longer than maximum delay: "
+                    + quietPeriod + ", " + maxDelay);
+        }
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+        this.processor = processor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulletin-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.processedVersions = Caffeine.newBuilder().expireAfterAccess(expireAfter).build();
+        this.recentBulletins = Caffeine.newBuilder().expireAfterWrite(quietPeriod).build();
+
+        this.processed = versionCounter(registry, "processed");
+        this.coalesced = versionCounter(registry, "coalesced");
+        this.outdated = versionCounter(registry, "outdated");
+    }
+
+    /**
+     * @param config 'processor.coalescing.quietPeriod', 'processor.coalescing.maxDelay' and 'state.expireAfter'
+     */
+    public static BulletinCoalescer newInstance(Config config,
+                                                Function<InternalMessages.Bulletin, CompletableFuture<Void>> processor,
+                                                MeterRegistry registry) {
+        Duration quietPeriod = config.getDuration("processor.coalescing.quietPeriod");
+        Duration maxDelay = config.getDuration("processor.coalescing.maxDelay");
+        if (!quietPeriod.isZero()) {
+            log.info("Coalescing bulletin versions, quiet period {}, maximum delay {}", quietPeriod, maxDelay);
+        }
+        return new BulletinCoalescer(quietPeriod, maxDelay, config.getDuration("state.expireAfter"), processor, registry);
+    }
+
+    /**
+     * @return future that completes when this version, or a newer version that replaced it, has been processed.
+     * Outdated versions complete immediately.
+     */
+    public CompletableFuture<Void> submit(InternalMessages.Bulletin bulletin) {
+        String bulletinId = bulletin.getBulletinId();
+        long lastModified = bulletin.getLastModifiedUtcMs();
+        if (isOutdated(bulletinId, lastModified)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (quietPeriod.isZero()) {
+            processedVersions.put(bulletinId, lastModified);
+            return process(bulletin);
+        }
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            boolean quiet = recentBulletins.getIfPresent(bulletinId) == null;
+            recentBulletins.put(bulletinId, true);
+            PendingBulletin pending = pendingBulletins.get(bulletinId);
+            if (pending == null && quiet) {
+                processedVersions.put(bulletinId, lastModified);
+            } else {
+                return collect(bulletin, pending, now);
+            }
+        }
+        return process(bulletin);
+    }
+
+    /**
+     * Called with the lock held.
+     *
+     * @param pending collected versions of the bulletin, or null if this is the first of them
+     */
+    private CompletableFuture<Void> collect(InternalMessages.Bulletin bulletin, PendingBulletin pending, long now) {
+        String bulletinId = bulletin.getBulletinId();
+        long lastModified = bulletin.getLastModifiedUtcMs();
+        if (pending == null) {
+            pending = new PendingBulletin(now);
+            pendingBulletins.put(bulletinId, pending);
+        } else if (lastModified < pending.bulletin.getLastModifiedUtcMs()) {
+            log.info("Discarding bulletin {} modified at {}, a newer version is pending", bulletinId, lastModified);
+            outdated.increment();
+            return CompletableFuture.completedFuture(null);
+        } else {
+            pending.flush.cancel(false);
+            coalesced.increment();
+        }
+        pending.bulletin = bulletin;
+
+        long delay = Math.min(quietPeriod.toNanos(), pending.firstReceived + maxDelay.toNanos() - now);
+        PendingBulletin flushed = pending;
+        pending.flush = scheduler.schedule(() -> flush(bulletinId, flushed), Math.max(delay, 0), TimeUnit.NANOSECONDS);
+        return pending.result;
+    }
+
+    private boolean isOutdated(String bulletinId, long lastModified) {
+        Long processedVersion = processedVersions.getIfPresent(bulletinId);
+        if (processedVersion != null && lastModified < processedVersion) {
+            log.info("Discarding bulletin {} modified at {}, a version modified at {} has already been processed",
+                    bulletinId, lastModified, processedVersion);
+            outdated.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void flush(String bulletinId, PendingBulletin pending) {
+        InternalMessages.Bulletin bulletin;
+        synchronized (this) {
+            // a newer version may have rescheduled the flush after this one had already started
+            if (pendingBulletins.get(bulletinId) != pending) {
+                return;
+            }
+            pendingBulletins.remove(bulletinId);
+            bulletin = pending.bulletin;
+            processedVersions.put(bulletinId, bulletin.getLastModifiedUtcMs());
+        }
+        process(bulletin).whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                pending.result.complete(null);
+            } else {
+                pending.result.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> process(InternalMessages.Bulletin bulletin) {
+        processed.increment();
+        try {
+            return processor.apply(bulletin);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    static Counter versionCounter(MeterRegistry registry, String result) {
+        return Counter.builder("cancellation.bulletin.versions")
+                .description("Received versions of mass cancellation bulletins")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Process pending bulletins without waiting for their quiet period, and stop.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        Map<String, PendingBulletin> remaining;
+        synchronized (this) {
+            remaining = new HashMap<>(pendingBulletins);
+        }
+        remaining.forEach(this::flush);
+    }
+
+    private static class PendingBulletin {
+        final long firstReceived;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        InternalMessages.Bulletin bulletin;
+        ScheduledFuture<?> flush;
+
+        PendingBulletin(long firstReceived) {
+            this.firstReceived = firstReceived;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package fi.hsl.transitdata.cancellation;
+
+import fi.hsl.common.transitdata.TransitdataProperties;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Publishes trip cancellations asynchronously. Messages are sent without waiting for the previous ones to be confirmed,
+ * so that the producer can batch them, but at most a bounded number of messages are outstanding at a time.
+ */
+public class CancellationPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(CancellationPublisher.class);
+
+    private final Producer<byte[]> producer;
+    private final int maxOutstandingMessages;
+    private final Semaphore outstandingMessages;
+
+    private final Timer confirmedMessages;
+    private final Timer failedMessages;
+    private final Map<InternalMessages.TripCancellation.Status, Counter> sentByStatus =
+            new EnumMap<>(InternalMessages.TripCancellation.Status.class);
+    private final Counter forwardedMessages;
+
+    public CancellationPublisher(Producer<byte[]> producer, int maxOutstandingMessages, MeterRegistry registry) {
+        this.producer = producer;
+        this.maxOutstandingMessages = maxOutstandingMessages;
+        this.outstandingMessages = new Semaphore(maxOutstandingMessages);
+
+        this.confirmedMessages = publishTimer(registry, "success");
+        this.failedMessages = publishTimer(registry, "error");
+        for (InternalMessages.TripCancellation.Status status : InternalMessages.TripCancellation.Status.values()) {
+            sentByStatus.put(status, Counter.builder("cancellation.published")
+                    .description("Cancellations confirmed by the broker")
+                    .tag("status", status.name())
+                    .register(registry));
+        }
+        this.forwardedMessages = Counter.builder("cancellation.forwarded")
+                .description("Single trip cancellations forwarded without decoding, confirmed by the broker")
+                .register(registry);
+        Gauge.builder("cancellation.publish.outstanding", this, CancellationPublisher::getOutstandingMessages)
+                .description("Sent cancellations waiting for confirmation")
+                .register(registry);
+    }
+
+    /**
+     * Send cancellations. Blocks while the maximum number of messages are outstanding.
+     *
+     * @return future that completes when every cancellation has been confirmed by the broker, or completes
+     * exceptionally if any of them failed
+     */
+    public CompletableFuture<Void> publish(List<CancellationData> cancellations) throws InterruptedException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[cancellations.size()];
+        for (int i = 0; i < cancellations.size(); i++) {
+            futures[i] = send(cancellations.get(i));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Forward a trip cancellation as it was received, without decoding and encoding it again. Key, event time and
+     * properties of the input message are copied. Blocks while the maximum number of messages are outstanding.
+     *
+     * @param message message with a TripCancellation payload
+     * @return future that completes when the cancellation has been confirmed by the broker
+     */
+    public CompletableFuture<Void> forward(Message<?> message) throws InterruptedException {
+        String dvjId = message.getKey();
+        return send(() -> producer.newMessage().value(message.getData())
+                        .eventTime(message.getEventTime())
+                        .key(dvjId)
+                        .properties(message.getProperties())
+                        .property(TransitdataProperties.KEY_DVJ_ID, dvjId)
+                        .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation.toString()),
+                dvjId, forwardedMessages).thenApply(messageId -> null);
+    }
+
+    public int getOutstandingMessages() {
+        return maxOutstandingMessages - outstandingMessages.availablePermits();
+    }
+
+    private CompletableFuture<MessageId> send(CancellationData data) throws InterruptedException {
+        return send(() -> producer.newMessage().value(data.payload.toByteArray())
+                        .eventTime(data.timestampEpochMs)
+                        .key(data.dvjId)
+                        .property(TransitdataProperties.KEY_DVJ_ID, data.dvjId)
+                        .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.InternalMessagesTripCancellation.toString()),
+                data.getTripId(), sentByStatus.get(data.payload.getStatus()));
+    }
+
+    private CompletableFuture<MessageId> send(Supplier<TypedMessageBuilder<byte[]>> message, String tripId,
+                                              Counter confirmedCounter) throws InterruptedException {
+        outstandingMessages.acquire();
+        Timer.Sample sample = Timer.start();
+        CompletableFuture<MessageId> future;
+        try {
+            future = message.get().sendAsync();
+        } catch (RuntimeException e) {
+            outstandingMessages.release();
+            throw e;
+        }
+        return future.whenComplete((messageId, throwable) -> {
+            outstandingMessages.release();
+            if (throwable != null) {
+                sample.stop(failedMessages);
+                log.error("Failed to send cancellation of trip {} to Pulsar", tripId, throwable);
+            } else {
+                sample.stop(confirmedMessages);
+                confirmedCounter.increment();
+            }
+        });
+    }
+
+    private static Timer publishTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("cancellation.publish")
+                .description("Time from sending a cancellation until the broker has confirmed it")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,171 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.typesafe.config.Config;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which cancellations of a modified bulletin are sent.
+ *
+ * In {@link Mode#ALL} mode ("ALL" in 'processor.emission.mode'), new, unchanged and cancelled cancellations are sent,
+ * which is how the processor has always worked. In {@link Mode#DELTA} mode ("DELTA"), unchanged cancellations are not
+ * sent again, except when the full refresh interval has elapsed since all cancellations of the bulletin were last
+ * sent. The handler of the bulletins schedules a full refresh of each bulletin when it is due, so that it does not
+ * depend on new versions of the bulletin arriving, see {@link #getFullRefreshDelay(String)}.
+ */
+public class EmissionPolicy implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(EmissionPolicy.class);
+
+    public enum Mode {
+        ALL, DELTA
+    }
+
+    private final Mode mode;
+    private final Duration fullRefreshInterval;
+    private final Clock clock;
+
+    // KEY: bulletinId, VALUE: when all cancellations of the bulletin were last sent (epoch millis)
+    private final Cache<String, Long> lastFullEmissions;
+
+    private final AtomicLong emittedMessages = new AtomicLong();
+    private final AtomicLong suppressedMessages = new AtomicLong();
+
+    public EmissionPolicy(Mode mode, Duration fullRefreshInterval, Duration expireAfter, Clock clock) {
+        this.mode = mode;
+        this.fullRefreshInterval = fullRefreshInterval;
+        this.clock = clock;
+        this.lastFullEmissions = Caffeine.newBuilder().expireAfterAccess(expireAfter).build();
+    }
+
+    public static EmissionPolicy newInstance(Config config) {
+        return new EmissionPolicy(
+                config.getEnum(Mode.class, "processor.emission.mode"),
+                config.getDuration("processor.emission.fullRefreshInterval"),
+                config.getDuration("state.expireAfter"),
+                Clock.systemUTC());
+    }
+
+    /**
+     * Nothing is recorded about the bulletin until {@link Selection#commit()} is called, so that a full refresh is not
+     * considered sent if sending the cancellations fails.
+     *
+     * @param bulletinId bulletin identifier
+     * @param changes    changes compared to the previous version of the bulletin
+     * @return cancellations to send
+     */
+    public Selection select(String bulletinId, BulletinChanges changes) {
+        long now = clock.millis();
+        Long lastFullEmission = mode == Mode.DELTA ? lastFullEmissions.getIfPresent(bulletinId) : null;
+        boolean fullRefresh = lastFullEmission != null && !fullRefreshInterval.isZero()
+                && now - lastFullEmission >= fullRefreshInterval.toMillis();
+        boolean includeUnchanged = mode == Mode.ALL || fullRefresh;
+        // the first version seen by this instance starts the full refresh interval, everything that was not in the
+        // state store is new anyway
+        boolean recorded = mode == Mode.DELTA && (lastFullEmission == null || fullRefresh);
+        List<CancellationData> selected = changes.getChanges(includeUnchanged);
+
+        int suppressed = includeUnchanged ? 0 : changes.getUnchangedCancellations().size();
+        emittedMessages.addAndGet(selected.size());
+        suppressedMessages.addAndGet(suppressed);
+        if (suppressed > 0) {
+            log.info("Bulletin {}: sending {} changed cancellations, suppressed {} unchanged. Total suppressed {}",
+                    bulletinId, selected.size(), suppressed, suppressedMessages.get());
+        }
+        return new Selection(bulletinId, selected, recorded ? now : -1);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cancellation.emission", emittedMessages, AtomicLong::get)
+                .description("Cancellations of bulletins selected for sending or suppressed by the emission mode")
+                .tag("result", "emitted")
+                .register(registry);
+        FunctionCounter.builder("cancellation.emission", suppressedMessages, AtomicLong::get)
+                .description("Cancellations of bulletins selected for sending or suppressed by the emission mode")
+                .tag("result", "suppressed")
+                .register(registry);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if all cancellations of bulletins are sent again at the full refresh interval
+     */
+    public boolean isFullRefreshEnabled() {
+        return mode == Mode.DELTA && !fullRefreshInterval.isZero();
+    }
+
+    /**
+     * @return true if all cancellations of the bulletin would be sent if it was handled now
+     */
+    public boolean isFullRefreshDue(String bulletinId) {
+        if (!isFullRefreshEnabled()) {
+            return false;
+        }
+        Long lastFullEmission = lastFullEmissions.getIfPresent(bulletinId);
+        return lastFullEmission != null && clock.millis() - lastFullEmission >= fullRefreshInterval.toMillis();
+    }
+
+    /**
+     * @return time until the full refresh of the bulletin is due, zero if it is already due
+     */
+    public Duration getFullRefreshDelay(String bulletinId) {
+        Long lastFullEmission = lastFullEmissions.getIfPresent(bulletinId);
+        if (lastFullEmission == null) {
+            return fullRefreshInterval;
+        }
+        return Duration.ofMillis(Math.max(0, lastFullEmission + fullRefreshInterval.toMillis() - clock.millis()));
+    }
+
+    public long getEmittedMessages() {
+        return emittedMessages.get();
+    }
+
+    public long getSuppressedMessages() {
+        return suppressedMessages.get();
+    }
+
+    /**
+     * Cancellations selected from one version of a bulletin.
+     */
+    public class Selection {
+        private final String bulletinId;
+        private final List<CancellationData> cancellations;
+        // recorded as the last full emission of the bulletin on commit (epoch millis), -1 if nothing is recorded
+        private final long fullEmission;
+
+        private Selection(String bulletinId, List<CancellationData> cancellations, long fullEmission) {
+            this.bulletinId = bulletinId;
+            this.cancellations = cancellations;
+            this.fullEmission = fullEmission;
+        }
+
+        public List<CancellationData> getCancellations() {
+            return cancellations;
+        }
+
+        /**
+         * Record that the cancellations have been sent, to be called only after they have been confirmed.
+         */
+        public void commit() {
+            if (fullEmission >= 0) {
+                lastFullEmissions.put(bulletinId, fullEmission);
+            }
+        }
+    }
+}
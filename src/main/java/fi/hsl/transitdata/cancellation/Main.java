@@ -5,11 +5,28 @@ import fi.hsl.common.config.ConfigParser;
 import fi.hsl.common.config.ConfigUtils;
 import fi.hsl.common.pulsar.PulsarApplication;
 import fi.hsl.common.pulsar.PulsarApplicationContext;
+import fi.hsl.transitdata.cancellation.digitransit.DigitransitClient;
+import fi.hsl.transitdata.cancellation.metrics.MetricsServer;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.CaffeineBulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.FileBulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.MeteredBulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.PulsarStateTopic;
+import fi.hsl.transitdata.cancellation.state.ReplicatedBulletinStateStore;
+import fi.hsl.transitdata.cancellation.timetable.CachingTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.DigitransitTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.GtfsTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.PrewarmingTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.SnapshotTripInfoProvider;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.time.Clock;
 import java.util.Scanner;
 
 public class Main {
@@ -21,12 +38,15 @@ public class Main {
         Config config = ConfigParser.createConfig();
         String timezone = config.getString("processor.timezone");
         log.info("Using timezone " + timezone);
-        try (PulsarApplication app = PulsarApplication.newInstance(config)) {
-            String digitransitDeveloperApiUri = getDigitransitDeveloperApiUri();
-            
-            PulsarApplicationContext context = app.getContext();
-            final AlertHandler handler = new AlertHandler(context, timezone, digitransitDeveloperApiUri);
-        
+        try (MetricsServer metricsServer = createMetricsServer(config);
+             PulsarApplication app = PulsarApplication.newInstance(config);
+             DigitransitClient digitransitClient = createDigitransitClient(config, getRegistry(metricsServer));
+             TripInfoProvider tripInfoProvider = createTripInfoProvider(
+                     config, digitransitClient, timezone, getRegistry(metricsServer));
+             BulletinStateStore bulletinStateStore = new MeteredBulletinStateStore(
+                     createBulletinStateStore(config, app.getContext()), getRegistry(metricsServer));
+             AlertHandler handler = new AlertHandler(
+                     app.getContext(), timezone, tripInfoProvider, bulletinStateStore, getRegistry(metricsServer))) {
             log.info("Start handling the messages");
             app.launchWithHandler(handler);
         } catch (Exception e) {
@@ -34,6 +54,88 @@ public class Main {
         }
     }
     
+    /**
+     * @return server, or null if metrics are disabled
+     */
+    private static MetricsServer createMetricsServer(Config config) throws Exception {
+        if (!config.getBoolean("metrics.enabled")) {
+            log.info("Metrics are disabled");
+            return null;
+        }
+        return MetricsServer.newInstance(config);
+    }
+    
+    /**
+     * @return registry of the server, or a registry that discards everything if metrics are disabled
+     */
+    private static MeterRegistry getRegistry(MetricsServer metricsServer) {
+        return metricsServer != null ? metricsServer.getRegistry() : Metrics.globalRegistry;
+    }
+    
+    /**
+     * @return client, or null if timetables are not loaded from Digitransit
+     */
+    private static DigitransitClient createDigitransitClient(Config config, MeterRegistry registry) throws Exception {
+        if (!"digitransit".equals(config.getString("timetable.provider"))) {
+            return null;
+        }
+        return DigitransitClient.newInstance(config, getDigitransitDeveloperApiUri(), registry);
+    }
+    
+    private static TripInfoProvider createTripInfoProvider(
+            Config config, DigitransitClient digitransitClient, String timezone, MeterRegistry registry)
+            throws Exception {
+        String provider = config.getString("timetable.provider");
+        log.info("Using timetable provider " + provider);
+        
+        switch (provider) {
+            case "digitransit":
+                TripInfoProvider digitransitProvider = new DigitransitTripInfoProvider(digitransitClient, timezone);
+                if (config.getBoolean("timetable.snapshot.enabled")) {
+                    digitransitProvider = SnapshotTripInfoProvider.newInstance(config, digitransitProvider, timezone);
+                }
+                TripInfoProvider cachingProvider = CachingTripInfoProvider.newInstance(
+                        config, digitransitProvider, registry);
+                if (config.getBoolean("timetable.prewarm.enabled")) {
+                    cachingProvider = PrewarmingTripInfoProvider.newInstance(config, cachingProvider, timezone);
+                }
+                return cachingProvider;
+            case "gtfs":
+                return GtfsTripInfoProvider.newInstance(config);
+            default:
+                throw new Exception("Unknown timetable provider " + provider + ", expected 'digitransit' or 'gtfs'");
+        }
+    }
+    
+    private static BulletinStateStore createBulletinStateStore(Config config, PulsarApplicationContext context)
+            throws Exception {
+        String store = config.getString("state.store");
+        log.info("Using bulletin state store " + store);
+        
+        BulletinStateStore bulletinStateStore;
+        switch (store) {
+            case "memory":
+                bulletinStateStore = CaffeineBulletinStateStore.newInstance(config.getDuration("state.expireAfter"));
+                break;
+            case "file":
+                bulletinStateStore = FileBulletinStateStore.newInstance(config);
+                break;
+            default:
+                throw new Exception("Unknown bulletin state store " + store + ", expected 'memory' or 'file'");
+        }
+        
+        if (config.getBoolean("state.replication.enabled")) {
+            log.info("Replicating bulletin state through topic " + config.getString("state.replication.topic"));
+            bulletinStateStore = new ReplicatedBulletinStateStore(
+                    bulletinStateStore,
+                    PulsarStateTopic.newInstance(config, context.getClient()),
+                    config.getDuration("state.expireAfter"),
+                    config.getDuration("state.replication.catchUpTimeout"),
+                    Clock.systemUTC());
+        }
+        return bulletinStateStore;
+    }
+    
     private static String getDigitransitDeveloperApiUri() throws Exception {
         String digitransitDeveloperApiUri;
         
@@ -0,0 +1,92 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on a fixed number of single-threaded workers. Tasks with the same key always run on the same worker in
+ * the order they were submitted, while tasks with different keys run in parallel.
+ */
+public class PartitionedExecutor implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private final ExecutorService[] workers;
+
+    public PartitionedExecutor(int numberOfWorkers, String threadNamePrefix) {
+        if (numberOfWorkers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + numberOfWorkers);
+        }
+        workers = new ExecutorService[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            String threadName = threadNamePrefix + "-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @param config 'processor.workers', 0 uses one worker per available processor
+     */
+    public static PartitionedExecutor newInstance(Config config) {
+        int numberOfWorkers = config.getInt("processor.workers");
+        if (numberOfWorkers == 0) {
+            numberOfWorkers = Runtime.getRuntime().availableProcessors();
+        }
+        log.info("Processing bulletins with {} workers", numberOfWorkers);
+        return new PartitionedExecutor(numberOfWorkers, "bulletin-worker");
+    }
+
+    /**
+     * @param key  tasks with the same key are run one at a time, in order
+     * @param task task to run
+     * @return future result of the task
+     */
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, workers[getWorkerIndex(key)]);
+    }
+
+    /**
+     * @return worker of the key, e.g. to continue a task of the key after an asynchronous operation
+     */
+    public Executor getWorker(String key) {
+        return workers[getWorkerIndex(key)];
+    }
+
+    public int getNumberOfWorkers() {
+        return workers.length;
+    }
+
+    int getWorkerIndex(String key) {
+        int hash = key.hashCode();
+        // spread the bits, bulletin identifiers often differ only at the end
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, workers.length);
+    }
+
+    /**
+     * Stop accepting tasks and wait for the submitted ones to complete.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        for (ExecutorService worker : workers) {
+            if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Worker did not complete its tasks in time");
+            }
+        }
+    }
+}
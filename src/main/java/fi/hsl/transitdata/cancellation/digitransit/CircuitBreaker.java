@@ -0,0 +1,73 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Stops sending queries to Digitransit API while it is down, so that lookups fail immediately instead of each waiting
+ * for its own timeout and adding to the load of a recovering API.
+ *
+ * The breaker opens after the given number of consecutive failed queries. While open, queries are rejected. After the
+ * open duration one trial query is let through: if it succeeds the breaker closes, otherwise it stays open for another
+ * open duration.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, Duration openDuration, Clock clock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true if a query may be sent, in which case its outcome must be recorded with {@link #recordSuccess()} or
+     * {@link #recordFailure()}
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.millis() - openedAt >= openDuration.toMillis()) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // trial query is still in flight
+                return false;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.millis();
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,333 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBufInputStream;
+import io.smallrye.graphql.client.core.Document;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Long-lived GraphQL client for Digitransit API. One instance is created at startup and shared by all lookups, so
+ * that Vert.x event loop threads and pooled keep-alive connections are reused between bulletins. Responses are decoded
+ * by {@link TripInfoDecoder} directly from the received body, on Vert.x worker threads so that decoding large responses
+ * does not block the event loop.
+ *
+ * Queries that are slower than most recent queries are hedged: a duplicate is sent and the first successful response
+ * is used. Queries fail immediately while the circuit breaker is open after consecutive failures.
+ */
+public class DigitransitClient implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DigitransitClient.class);
+
+    private final Vertx vertx;
+    private final WebClient client;
+    // decodes responses off the event loop, one worker per request in flight
+    private final WorkerExecutor decoderExecutor;
+    private final String apiUri;
+    private final RouteQueryPlanner queryPlanner;
+    private final RequestLimiter requestLimiter;
+    private final Duration requestTimeout;
+    // null if hedging is disabled
+    private final HedgingPolicy hedgingPolicy;
+    // null if circuit breaker is disabled
+    private final CircuitBreaker circuitBreaker;
+
+    private final Timer successfulRequests;
+    private final Timer failedRequests;
+    private final DistributionSummary responseBytes;
+    private final Counter hedgedRequests;
+    private final Counter rejectedQueries;
+
+    DigitransitClient(Vertx vertx, WebClient client, String apiUri, RouteQueryPlanner queryPlanner,
+                      int maxInFlightRequests, Duration requestTimeout, HedgingPolicy hedgingPolicy,
+                      CircuitBreaker circuitBreaker, MeterRegistry registry) {
+        this.vertx = vertx;
+        this.client = client;
+        this.decoderExecutor = vertx.createSharedWorkerExecutor("digitransit-decoder", maxInFlightRequests);
+        this.apiUri = apiUri;
+        this.queryPlanner = queryPlanner;
+        this.requestLimiter = new RequestLimiter(maxInFlightRequests);
+        this.requestTimeout = requestTimeout;
+        this.hedgingPolicy = hedgingPolicy;
+        this.circuitBreaker = circuitBreaker;
+
+        this.successfulRequests = requestTimer(registry, "success");
+        this.failedRequests = requestTimer(registry, "error");
+        this.responseBytes = DistributionSummary.builder("cancellation.digitransit.response")
+                .description("Size of Digitransit responses as received, when the server tells it")
+                .baseUnit("bytes")
+                .register(registry);
+        this.hedgedRequests = Counter.builder("cancellation.digitransit.hedged")
+                .description("Duplicate requests sent for slow Digitransit queries")
+                .register(registry);
+        this.rejectedQueries = Counter.builder("cancellation.digitransit.rejected")
+                .description("Digitransit queries rejected while the circuit breaker was open")
+                .register(registry);
+        if (circuitBreaker != null) {
+            Gauge.builder("cancellation.digitransit.circuit", circuitBreaker, breaker -> breaker.getState().ordinal())
+                    .description("State of the Digitransit circuit breaker: 0 closed, 1 half-open, 2 open")
+                    .register(registry);
+        }
+    }
+
+    public static DigitransitClient newInstance(Config config, String apiUri, MeterRegistry registry) {
+        WebClientOptions options = new WebClientOptions()
+                .setMaxPoolSize(config.getInt("digitransit.maxPoolSize"))
+                .setKeepAlive(true)
+                .setKeepAliveTimeout((int) config.getDuration("digitransit.keepAliveTimeout").getSeconds())
+                .setConnectTimeout((int) config.getDuration("digitransit.connectTimeout").toMillis())
+                .setTryUseCompression(config.getBoolean("digitransit.compression"));
+
+        Vertx vertx = Vertx.vertx();
+        WebClient client = WebClient.create(vertx, options);
+
+        int maxInFlightRequests = config.getInt("digitransit.maxInFlightRequests");
+        Duration requestTimeout = config.getDuration("digitransit.requestTimeout");
+        HedgingPolicy hedgingPolicy = config.getBoolean("digitransit.hedging.enabled")
+                ? new HedgingPolicy(config.getDouble("digitransit.hedging.percentile"),
+                        config.getDuration("digitransit.hedging.minDelay"),
+                        config.getDuration("digitransit.hedging.maxDelay"))
+                : null;
+        int failureThreshold = config.getInt("digitransit.circuitBreaker.failureThreshold");
+        CircuitBreaker circuitBreaker = failureThreshold > 0
+                ? new CircuitBreaker(failureThreshold, config.getDuration("digitransit.circuitBreaker.openDuration"),
+                        Clock.systemUTC())
+                : null;
+
+        log.info("Created Digitransit client (maxPoolSize={}, keepAliveTimeout={}s, compression={}, "
+                        + "maxInFlightRequests={}, requestTimeout={}, hedging={}, circuitBreakerFailureThreshold={})",
+                options.getMaxPoolSize(), options.getKeepAliveTimeout(), options.isTryUseCompression(),
+                maxInFlightRequests, requestTimeout, hedgingPolicy != null, failureThreshold);
+        return new DigitransitClient(vertx, client, apiUri, RouteQueryPlanner.newInstance(config),
+                maxInFlightRequests, requestTimeout, hedgingPolicy, circuitBreaker, registry);
+    }
+
+    /**
+     * Execute a query asynchronously using the shared connection pool. The request fails with a timeout if no
+     * response is received within the configured request timeout, and with an exception if the response status is not
+     * 200 OK.
+     *
+     * @param document  query document, usually one of the prebuilt documents in {@link RouteQueries}
+     * @param variables values for the variables declared by the document
+     * @return future response, with the body as received
+     */
+    public CompletableFuture<HttpResponse<Buffer>> executeAsync(Document document, Map<String, Object> variables) {
+        JsonObject request = new JsonObject()
+                .put("query", document.build())
+                .put("variables", new JsonObject(variables));
+        return client.postAbs(apiUri)
+                .putHeader("Accept", "application/json")
+                .timeout(requestTimeout.toMillis())
+                .sendJsonObject(request)
+                .compose(response -> response.statusCode() == 200
+                        ? Future.succeededFuture(response)
+                        : Future.failedFuture(new IllegalStateException("Unexpected response from Digitransit API. Code="
+                                + response.statusCode() + ", message=\"" + response.statusMessage() + "\"")))
+                .toCompletionStage()
+                .toCompletableFuture();
+    }
+
+    /**
+     * Get trips of the given routes on the given dates. Batched queries planned by {@link RouteQueryPlanner} are
+     * executed concurrently, but no more than the configured number of requests are in flight at the same time. Trips
+     * are returned in the order of the planned queries, regardless of the order in which the responses arrive.
+     *
+     * @param routeIds route identifiers with 'HSL:' prefix
+     * @param dates    dates as string, with format 'YYYYMMDD' (e.g. '20240131')
+     * @param decoder  decodes the responses
+     * @return trips by route and date, routes that were not found are missing
+     */
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates,
+                                                                      TripInfoDecoder decoder) {
+        List<RouteQuery> queries = queryPlanner.plan(routeIds, dates);
+        List<CompletableFuture<Map<RouteDay, List<InternalMessages.TripInfo>>>> results = new ArrayList<>(queries.size());
+
+        for (RouteQuery query : queries) {
+            results.add(requestLimiter.submit(() -> {
+                long startTime = System.currentTimeMillis();
+                // each response is decoded as soon as it arrives, so that its body can be released
+                return executeQuery(query).thenCompose(response -> {
+                    long latencyMs = System.currentTimeMillis() - startTime;
+                    return decoderExecutor.executeBlocking(() -> {
+                        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos =
+                                decode(decoder, query, response.body());
+                        queryPlanner.recordResponse(query, countTrips(tripInfos.values()), latencyMs);
+                        return tripInfos;
+                    }, false).toCompletionStage();
+                });
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Failed to get trip data", e.getCause());
+        }
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        for (CompletableFuture<Map<RouteDay, List<InternalMessages.TripInfo>>> result : results) {
+            tripInfos.putAll(result.join());
+        }
+
+        log.debug("Executed {} queries for {} routes and {} dates", queries.size(), routeIds.size(), dates.size());
+        return tripInfos;
+    }
+
+    private static Map<RouteDay, List<InternalMessages.TripInfo>> decode(TripInfoDecoder decoder, RouteQuery query,
+                                                                        Buffer body) {
+        if (body == null) {
+            throw new UncheckedIOException(new IOException("Empty response to " + query));
+        }
+        try (InputStream inputStream = new ByteBufInputStream(body.getByteBuf())) {
+            return decoder.decode(query, inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Execute a query through the circuit breaker, hedging it if it is slow.
+     */
+    private CompletableFuture<HttpResponse<Buffer>> executeQuery(RouteQuery query) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            rejectedQueries.increment();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Digitransit API circuit breaker is open"));
+        }
+
+        CompletableFuture<HttpResponse<Buffer>> result = hedgingPolicy != null ? executeHedged(query) : executeAttempt(query);
+        if (circuitBreaker != null) {
+            // outcome is recorded before the caller sees it
+            return result.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    circuitBreaker.recordFailure();
+                } else {
+                    circuitBreaker.recordSuccess();
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Send the query, and a duplicate if no response has been received within the hedging delay. The hedged query
+     * does not take another slot from the request limiter. Result is the first successful response, and fails only if
+     * every request that was sent failed.
+     */
+    private CompletableFuture<HttpResponse<Buffer>> executeHedged(RouteQuery query) {
+        CompletableFuture<HttpResponse<Buffer>> result = new CompletableFuture<>();
+        // requests sent and not failed yet
+        AtomicInteger remaining = new AtomicInteger(1);
+        BiConsumer<HttpResponse<Buffer>, Throwable> onComplete = (response, throwable) -> {
+            if (throwable == null) {
+                result.complete(response);
+            } else if (remaining.decrementAndGet() == 0) {
+                result.completeExceptionally(throwable);
+            }
+        };
+
+        executeAttempt(query).whenComplete(onComplete);
+        long delayMs = hedgingPolicy.getDelayMs();
+        // the duplicate is sent from a Vert.x event loop, and the timer is cancelled when the query completes
+        long timerId = vertx.setTimer(delayMs, id -> {
+            // not hedged if the query has already completed or failed
+            if (!result.isDone() && remaining.getAndIncrement() > 0) {
+                log.debug("No response in {} ms, sending a duplicate query", delayMs);
+                hedgedRequests.increment();
+                executeAttempt(query).whenComplete(onComplete);
+            }
+        });
+        result.whenComplete((response, throwable) -> vertx.cancelTimer(timerId));
+        return result;
+    }
+
+    private CompletableFuture<HttpResponse<Buffer>> executeAttempt(RouteQuery query) {
+        long startTime = System.currentTimeMillis();
+        Timer.Sample sample = Timer.start();
+        return executeAsync(query.getDocument(), query.getVariables()).whenComplete((response, throwable) -> {
+            recordResponse(sample, response, throwable);
+            if (throwable == null && hedgingPolicy != null) {
+                hedgingPolicy.recordLatency(System.currentTimeMillis() - startTime);
+            }
+        });
+    }
+
+    private void recordResponse(Timer.Sample sample, HttpResponse<Buffer> response, Throwable throwable) {
+        if (throwable != null || response == null) {
+            sample.stop(failedRequests);
+            return;
+        }
+        sample.stop(successfulRequests);
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength != null) {
+            try {
+                responseBytes.record(Long.parseLong(contentLength));
+            } catch (NumberFormatException e) {
+                log.debug("Invalid Content-Length {}", contentLength);
+            }
+        }
+    }
+
+    private static Timer requestTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("cancellation.digitransit.requests")
+                .description("Routes queries to Digitransit API")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static int countTrips(Collection<List<InternalMessages.TripInfo>> tripInfos) {
+        int numberOfTrips = 0;
+        for (List<InternalMessages.TripInfo> tripsOfRoute : tripInfos) {
+            numberOfTrips += tripsOfRoute.size();
+        }
+        return numberOfTrips;
+    }
+
+    public String getApiUri() {
+        return apiUri;
+    }
+
+    public RouteQueryPlanner getQueryPlanner() {
+        return queryPlanner;
+    }
+
+    @Override
+    public void close() {
+        log.info("Closing Digitransit client");
+        client.close();
+        decoderExecutor.close();
+        vertx.close();
+    }
+}
@@ -0,0 +1,61 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Decides how long to wait for a response before sending a duplicate of the query. The delay is the given percentile
+ * of recently observed latencies, so that only the slowest queries are duplicated, bounded by the minimum and maximum
+ * delay. Until enough latencies have been observed the maximum delay is used.
+ */
+class HedgingPolicy {
+
+    static final int WINDOW = 200;
+    static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+
+    // ring buffer of latest latencies, guarded by this
+    private final long[] latenciesMs = new long[WINDOW];
+    private int count;
+    private int next;
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.95
+     */
+    HedgingPolicy(double percentile, Duration minDelay, Duration maxDelay) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+        }
+        if (minDelay.compareTo(maxDelay) > 0) {
+            throw new IllegalArgumentException("minDelay must not be longer than maxDelay: " + minDelay + ", " + maxDelay);
+        }
+        this.percentile = percentile;
+        this.minDelayMs = minDelay.toMillis();
+        this.maxDelayMs = maxDelay.toMillis();
+    }
+
+    /**
+     * @param latencyMs latency of a successful request
+     */
+    synchronized void recordLatency(long latencyMs) {
+        latenciesMs[next] = latencyMs;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+    }
+
+    /**
+     * @return milliseconds to wait for a response before sending a duplicate query
+     */
+    synchronized long getDelayMs() {
+        if (count < MIN_SAMPLES) {
+            return maxDelayMs;
+        }
+        long[] sorted = Arrays.copyOf(latenciesMs, count);
+        Arrays.sort(sorted);
+        int index = Math.max((int) Math.ceil(percentile * count) - 1, 0);
+        return Math.max(minDelayMs, Math.min(maxDelayMs, sorted[index]));
+    }
+}
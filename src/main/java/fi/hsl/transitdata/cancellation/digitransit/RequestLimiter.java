@@ -0,0 +1,100 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous requests in flight. Requests exceeding the limit are queued and started in
+ * submission order as soon as earlier requests complete. No thread is blocked while waiting.
+ */
+class RequestLimiter {
+
+    private final int maxInFlight;
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+    private int inFlight;
+    // true while a thread is starting pending requests, requests that complete immediately do not start more of them
+    // recursively
+    private boolean draining;
+
+    RequestLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Submit a request. The supplier is called when there is room for one more request in flight.
+     *
+     * @param request starts the request
+     * @return future that is completed with the result of the request
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (Throwable t) {
+                future = CompletableFuture.failedFuture(t);
+            }
+            future.whenComplete((value, throwable) -> {
+                release();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        boolean startNow;
+        synchronized (this) {
+            // pending requests are started first, in submission order
+            startNow = inFlight < maxInFlight && pending.isEmpty();
+            if (startNow) {
+                inFlight++;
+            } else {
+                pending.add(start);
+            }
+        }
+
+        if (startNow) {
+            start.run();
+        }
+        return result;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || pending.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                next = pending.poll();
+                inFlight++;
+            }
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import io.smallrye.graphql.client.core.Document;
+import io.smallrye.graphql.client.core.FieldOrFragment;
+import io.smallrye.graphql.client.core.ScalarType;
+import io.smallrye.graphql.client.core.Variable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.smallrye.graphql.client.core.Argument.arg;
+import static io.smallrye.graphql.client.core.Argument.args;
+import static io.smallrye.graphql.client.core.Document.document;
+import static io.smallrye.graphql.client.core.Field.field;
+import static io.smallrye.graphql.client.core.Operation.operation;
+import static io.smallrye.graphql.client.core.Variable.var;
+import static io.smallrye.graphql.client.core.VariableType.list;
+
+/**
+ * Prebuilt GraphQL documents. Route identifiers and service dates are passed as variables, so a document is built
+ * only once per number of service dates instead of once per lookup.
+ */
+public final class RouteQueries {
+
+    private static final Variable ROUTE_IDS = var("ids", list(ScalarType.GQL_STRING));
+
+    // KEY: number of service dates, VALUE: document
+    private static final Map<Integer, Document> ROUTE_TRIPS_DOCUMENTS = new ConcurrentHashMap<>();
+    // KEY: number of service dates, VALUE: document
+    private static final Map<Integer, Document> LEAN_ROUTE_TRIPS_DOCUMENTS = new ConcurrentHashMap<>();
+
+    private RouteQueries() {
+    }
+
+    /**
+     * Trips of the given routes, with the first departure of each trip on each of the given service dates. Routes of
+     * the i:th service date are returned under field alias {@link #dateAlias(int)}, and the service date itself is
+     * passed in variable with the same name.
+     *
+     * @param numberOfDates number of service dates in one query
+     * @return document
+     */
+    public static Document routeTrips(int numberOfDates) {
+        return ROUTE_TRIPS_DOCUMENTS.computeIfAbsent(numberOfDates, dates -> buildRouteTrips(dates, false));
+    }
+
+    /**
+     * Like {@link #routeTrips(int)}, but only trips that run on the service date are requested, through the patterns
+     * of the route, and only the fields needed for cancellations. Trips of all patterns of a route are returned under
+     * field alias 'trips' of each pattern.
+     *
+     * @param numberOfDates number of service dates in one query
+     * @return document
+     */
+    public static Document leanRouteTrips(int numberOfDates) {
+        return LEAN_ROUTE_TRIPS_DOCUMENTS.computeIfAbsent(numberOfDates, dates -> buildRouteTrips(dates, true));
+    }
+
+    /**
+     * Returns field alias and variable name of the i:th service date, for example 'd0'.
+     */
+    public static String dateAlias(int index) {
+        return "d" + index;
+    }
+
+    private static Document buildRouteTrips(int numberOfDates, boolean lean) {
+        List<Variable> variables = new ArrayList<>();
+        variables.add(ROUTE_IDS);
+        List<FieldOrFragment> fields = new ArrayList<>();
+
+        for (int i = 0; i < numberOfDates; i++) {
+            Variable serviceDate = var(dateAlias(i), ScalarType.GQL_STRING);
+            variables.add(serviceDate);
+            FieldOrFragment departureStoptime = field(
+                    "departureStoptime",
+                    args(arg("serviceDate", serviceDate)),
+                    field("serviceDay"),
+                    field("scheduledDeparture")
+            );
+            if (lean) {
+                fields.add(field(
+                        dateAlias(i) + ":routes",
+                        args(arg("ids", ROUTE_IDS)),
+                        field("gtfsId"),
+                        field(
+                                "patterns",
+                                field(
+                                        "trips:tripsForDate",
+                                        args(arg("serviceDate", serviceDate)),
+                                        field("gtfsId"),
+                                        field("directionId"),
+                                        departureStoptime
+                                )
+                        )
+                ));
+            } else {
+                fields.add(field(
+                        dateAlias(i) + ":routes",
+                        args(arg("ids", ROUTE_IDS)),
+                        field("id"),
+                        field("gtfsId"),
+                        field(
+                                "trips",
+                                field("gtfsId"),
+                                field("directionId"),
+                                field("activeDates"),
+                                departureStoptime
+                        )
+                ));
+            }
+        }
+
+        return document(operation(variables, fields.toArray(new FieldOrFragment[0])));
+    }
+
+    /**
+     * Variables for {@link #routeTrips(int)} and {@link #leanRouteTrips(int)}.
+     *
+     * @param routeIds route identifiers with 'HSL:' prefix
+     * @param dates    dates as string, with format 'YYYYMMDD' (e.g. '20240131')
+     * @return variables
+     */
+    public static Map<String, Object> routeTripsVariables(List<String> routeIds, List<String> dates) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put(ROUTE_IDS.getName(), routeIds);
+        for (int i = 0; i < dates.size(); i++) {
+            variables.put(dateAlias(i), dates.get(i));
+        }
+        return variables;
+    }
+}
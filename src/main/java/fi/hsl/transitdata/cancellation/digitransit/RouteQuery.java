@@ -0,0 +1,61 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import io.smallrye.graphql.client.core.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One batched request: trips of several routes on several service dates. A lean query requests only the trips that run
+ * on each service date, see {@link RouteQueries#leanRouteTrips(int)}.
+ */
+public class RouteQuery {
+
+    private final List<String> routeIds;
+    private final List<String> dates;
+    private final boolean lean;
+
+    public RouteQuery(List<String> routeIds, List<String> dates) {
+        this(routeIds, dates, false);
+    }
+
+    public RouteQuery(List<String> routeIds, List<String> dates, boolean lean) {
+        this.routeIds = Collections.unmodifiableList(new ArrayList<>(routeIds));
+        this.dates = Collections.unmodifiableList(new ArrayList<>(dates));
+        this.lean = lean;
+    }
+
+    public List<String> getRouteIds() {
+        return routeIds;
+    }
+
+    public List<String> getDates() {
+        return dates;
+    }
+
+    /**
+     * Number of (route, service date) combinations covered by this query.
+     */
+    public int getNumberOfRouteDays() {
+        return routeIds.size() * dates.size();
+    }
+
+    public boolean isLean() {
+        return lean;
+    }
+
+    public Document getDocument() {
+        return lean ? RouteQueries.leanRouteTrips(dates.size()) : RouteQueries.routeTrips(dates.size());
+    }
+
+    public Map<String, Object> getVariables() {
+        return RouteQueries.routeTripsVariables(routeIds, dates);
+    }
+
+    @Override
+    public String toString() {
+        return "RouteQuery{routeIds=" + routeIds + ", dates=" + dates + ", lean=" + lean + "}";
+    }
+}
@@ -0,0 +1,128 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits route identifiers and service dates into batched {@link RouteQuery} objects. Number of routes per query
+ * adapts to the observed response size (number of trips) and latency, so that one query stays below the configured
+ * targets.
+ */
+public class RouteQueryPlanner {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteQueryPlanner.class);
+
+    // weight of the latest observation in the moving averages
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private final int maxRoutesPerQuery;
+    private final int maxDatesPerQuery;
+    private final int initialRoutesPerQuery;
+    private final int targetTripsPerQuery;
+    private final long targetLatencyMs;
+    private final boolean leanQueries;
+
+    // moving averages per (route, service date), negative if nothing has been observed yet
+    private double tripsPerRouteDay = -1;
+    private double latencyMsPerRouteDay = -1;
+
+    public RouteQueryPlanner(int maxRoutesPerQuery, int maxDatesPerQuery, int initialRoutesPerQuery,
+                             int targetTripsPerQuery, long targetLatencyMs) {
+        this(maxRoutesPerQuery, maxDatesPerQuery, initialRoutesPerQuery, targetTripsPerQuery, targetLatencyMs, false);
+    }
+
+    /**
+     * @param leanQueries if true, planned queries request only trips that run on each service date
+     */
+    public RouteQueryPlanner(int maxRoutesPerQuery, int maxDatesPerQuery, int initialRoutesPerQuery,
+                             int targetTripsPerQuery, long targetLatencyMs, boolean leanQueries) {
+        if (maxRoutesPerQuery < 1 || maxDatesPerQuery < 1 || initialRoutesPerQuery < 1) {
+            throw new IllegalArgumentException("Query sizes must be positive");
+        }
+        this.maxRoutesPerQuery = maxRoutesPerQuery;
+        this.maxDatesPerQuery = maxDatesPerQuery;
+        this.initialRoutesPerQuery = Math.min(initialRoutesPerQuery, maxRoutesPerQuery);
+        this.targetTripsPerQuery = targetTripsPerQuery;
+        this.targetLatencyMs = targetLatencyMs;
+        this.leanQueries = leanQueries;
+    }
+
+    public static RouteQueryPlanner newInstance(Config config) {
+        return new RouteQueryPlanner(
+                config.getInt("digitransit.batching.maxRoutesPerQuery"),
+                config.getInt("digitransit.batching.maxDatesPerQuery"),
+                config.getInt("digitransit.batching.initialRoutesPerQuery"),
+                config.getInt("digitransit.batching.targetTripsPerQuery"),
+                config.getDuration("digitransit.batching.targetLatency").toMillis(),
+                config.getBoolean("digitransit.leanQuery.enabled"));
+    }
+
+    /**
+     * Plan queries that together cover every combination of the given routes and dates.
+     *
+     * @param routeIds route identifiers with 'HSL:' prefix
+     * @param dates    dates as string, with format 'YYYYMMDD' (e.g. '20240131')
+     * @return queries
+     */
+    public synchronized List<RouteQuery> plan(List<String> routeIds, List<String> dates) {
+        List<RouteQuery> queries = new ArrayList<>();
+
+        for (int dateIndex = 0; dateIndex < dates.size(); dateIndex += maxDatesPerQuery) {
+            List<String> datesOfQuery = dates.subList(dateIndex, Math.min(dateIndex + maxDatesPerQuery, dates.size()));
+            int routesPerQuery = getRoutesPerQuery(datesOfQuery.size());
+
+            for (int routeIndex = 0; routeIndex < routeIds.size(); routeIndex += routesPerQuery) {
+                List<String> routesOfQuery = routeIds.subList(routeIndex, Math.min(routeIndex + routesPerQuery, routeIds.size()));
+                queries.add(new RouteQuery(routesOfQuery, datesOfQuery, leanQueries));
+            }
+        }
+
+        return queries;
+    }
+
+    /**
+     * Update the moving averages that are used for sizing the following queries.
+     *
+     * @param query         executed query
+     * @param numberOfTrips number of trips in the response
+     * @param latencyMs     time to execute the query
+     */
+    public synchronized void recordResponse(RouteQuery query, int numberOfTrips, long latencyMs) {
+        int routeDays = query.getNumberOfRouteDays();
+        if (routeDays == 0) {
+            return;
+        }
+
+        tripsPerRouteDay = smooth(tripsPerRouteDay, (double) numberOfTrips / routeDays);
+        latencyMsPerRouteDay = smooth(latencyMsPerRouteDay, (double) latencyMs / routeDays);
+
+        log.debug("Query of {} route-days returned {} trips in {} ms. Routes per query is now {} (one date)",
+                routeDays, numberOfTrips, latencyMs, getRoutesPerQuery(1));
+    }
+
+    /**
+     * Returns the number of routes that fit into one query of the given number of dates.
+     */
+    synchronized int getRoutesPerQuery(int numberOfDates) {
+        if (tripsPerRouteDay < 0 || latencyMsPerRouteDay < 0) {
+            return initialRoutesPerQuery;
+        }
+
+        double routesBySize = targetTripsPerQuery / (Math.max(tripsPerRouteDay, 1.0) * numberOfDates);
+        double routesByLatency = targetLatencyMs / (Math.max(latencyMsPerRouteDay, 1.0) * numberOfDates);
+        int routesPerQuery = (int) Math.floor(Math.min(routesBySize, routesByLatency));
+
+        return Math.max(1, Math.min(routesPerQuery, maxRoutesPerQuery));
+    }
+
+    private static double smooth(double average, double observation) {
+        if (average < 0) {
+            return observation;
+        }
+        return SMOOTHING_FACTOR * observation + (1 - SMOOTHING_FACTOR) * average;
+    }
+}
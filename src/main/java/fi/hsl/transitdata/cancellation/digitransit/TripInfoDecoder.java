@@ -0,0 +1,258 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes responses to {@link RouteQuery} token by token directly into trips, without building a tree or objects of
+ * the whole response. Fields that are not needed, such as 'activeDates' of a full query, are skipped. Both full
+ * queries (trips of the route) and lean queries (trips of the patterns of the route) are understood.
+ */
+public class TripInfoDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(TripInfoDecoder.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ZoneId zone;
+
+    public TripInfoDecoder(String timezone) {
+        this.zone = ServiceTime.zone(timezone);
+    }
+
+    /**
+     * @param query query that the response is for
+     * @param body  response body
+     * @return trips by route and service date, routes that were not found are missing
+     * @throws IOException if the response is not valid JSON or it has GraphQL errors
+     */
+    public Map<RouteDay, List<InternalMessages.TripInfo>> decode(RouteQuery query, InputStream body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return decode(query, parser);
+        }
+    }
+
+    /**
+     * @see #decode(RouteQuery, InputStream)
+     */
+    public Map<RouteDay, List<InternalMessages.TripInfo>> decode(RouteQuery query, byte[] body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return decode(query, parser);
+        }
+    }
+
+    private Map<RouteDay, List<InternalMessages.TripInfo>> decode(RouteQuery query, JsonParser parser)
+            throws IOException {
+        // KEY: field alias, VALUE: service date
+        Map<String, String> datesByAlias = new HashMap<>();
+        for (int i = 0; i < query.getDates().size(); i++) {
+            datesByAlias.put(RouteQueries.dateAlias(i), query.getDates().get(i));
+        }
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                readData(parser, datesByAlias, tripInfos);
+            } else if ("errors".equals(field) && value == JsonToken.START_ARRAY) {
+                List<String> errors = readErrors(parser);
+                if (!errors.isEmpty()) {
+                    throw new IOException("GraphQL errors in response to " + query + ": " + errors);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return tripInfos;
+    }
+
+    private void readData(JsonParser parser, Map<String, String> datesByAlias,
+                          Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String date = datesByAlias.get(parser.getCurrentName());
+            JsonToken value = parser.nextToken();
+            if (date == null || value != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (value == JsonToken.START_OBJECT) {
+                    readRoute(parser, date, tripInfos);
+                }
+                // routes that were not found are null
+            }
+        }
+    }
+
+    private void readRoute(JsonParser parser, String date, Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos)
+            throws IOException {
+        String routeId = null;
+        List<InternalMessages.TripInfo.Builder> trips = new ArrayList<>();
+        ServiceDayCache serviceDays = new ServiceDayCache();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("gtfsId".equals(field) && value == JsonToken.VALUE_STRING) {
+                routeId = parser.getText();
+            } else if ("trips".equals(field) && value == JsonToken.START_ARRAY) {
+                readTrips(parser, trips, serviceDays);
+            } else if ("patterns".equals(field) && value == JsonToken.START_ARRAY) {
+                while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (value == JsonToken.START_OBJECT) {
+                        readPattern(parser, trips, serviceDays);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (routeId == null) {
+            throw new IOException("Route without gtfsId on " + date);
+        }
+        // trips are read before their route identifier if the fields are in a different order than in the query
+        List<InternalMessages.TripInfo> tripsOfRoute = new ArrayList<>(trips.size());
+        for (InternalMessages.TripInfo.Builder trip : trips) {
+            tripsOfRoute.add(trip.setRouteId(routeId).build());
+        }
+        tripInfos.put(new RouteDay(routeId, date), tripsOfRoute);
+    }
+
+    private void readPattern(JsonParser parser, List<InternalMessages.TripInfo.Builder> trips,
+                             ServiceDayCache serviceDays) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("trips".equals(field) && value == JsonToken.START_ARRAY) {
+                readTrips(parser, trips, serviceDays);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readTrips(JsonParser parser, List<InternalMessages.TripInfo.Builder> trips,
+                           ServiceDayCache serviceDays) throws IOException {
+        JsonToken value;
+        while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (value == JsonToken.START_OBJECT) {
+                InternalMessages.TripInfo.Builder trip = readTrip(parser, serviceDays);
+                if (trip != null) {
+                    trips.add(trip);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return trip without route identifier, or null if it has no departure on the service date
+     */
+    private InternalMessages.TripInfo.Builder readTrip(JsonParser parser, ServiceDayCache serviceDays)
+            throws IOException {
+        String tripId = null;
+        String directionId = null;
+        long serviceDay = -1;
+        int scheduledDeparture = -1;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("gtfsId".equals(field) && value == JsonToken.VALUE_STRING) {
+                tripId = parser.getText();
+            } else if ("directionId".equals(field) && value != JsonToken.VALUE_NULL) {
+                // String in the schema, but accepted as a number too
+                directionId = parser.getText();
+            } else if ("departureStoptime".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String stoptimeField = parser.getCurrentName();
+                    JsonToken stoptimeValue = parser.nextToken();
+                    if ("serviceDay".equals(stoptimeField) && stoptimeValue == JsonToken.VALUE_NUMBER_INT) {
+                        serviceDay = parser.getLongValue();
+                    } else if ("scheduledDeparture".equals(stoptimeField)
+                            && stoptimeValue == JsonToken.VALUE_NUMBER_INT) {
+                        scheduledDeparture = parser.getIntValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (tripId == null || directionId == null || serviceDay < 0 || scheduledDeparture < 0) {
+            log.debug("Skipping trip {} without direction or departure", tripId);
+            return null;
+        }
+        return InternalMessages.TripInfo.newBuilder()
+                .setTripId(tripId)
+                .setOperatingDay(serviceDays.getDate(serviceDay))
+                .setStartTime(ServiceTime.formatTime(scheduledDeparture / 60))
+                .setDirectionId(Integer.parseInt(directionId));
+    }
+
+    private static List<String> readErrors(JsonParser parser) throws IOException {
+        List<String> errors = new ArrayList<>();
+        JsonToken value;
+        while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (value != JsonToken.START_OBJECT) {
+                continue;
+            }
+            String message = "(no message)";
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken fieldValue = parser.nextToken();
+                if ("message".equals(field) && fieldValue == JsonToken.VALUE_STRING) {
+                    message = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            errors.add(message);
+        }
+        return errors;
+    }
+
+    private static void expect(JsonToken token, JsonToken expected, JsonParser parser) throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but was " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Trips of one route on one date share the same service day, so its date is formatted once.
+     */
+    private class ServiceDayCache {
+        private long serviceDay = -1;
+        private String date;
+
+        String getDate(long serviceDay) {
+            if (serviceDay != this.serviceDay) {
+                LocalDate localDate = LocalDate.ofInstant(Instant.ofEpochSecond(serviceDay), zone);
+                this.date = Integer.toString(ServiceTime.toServiceDay(localDate));
+                this.serviceDay = serviceDay;
+            }
+            return date;
+        }
+    }
+}
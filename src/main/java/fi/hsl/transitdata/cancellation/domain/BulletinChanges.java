@@ -0,0 +1,63 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellations of a bulletin version compared to the previous version of the same bulletin.
+ */
+public class BulletinChanges {
+    private final List<CancellationData> newCancellations;
+    private final List<CancellationData> unchangedCancellations;
+    private final List<CancellationData> cancelledCancellations;
+
+    public BulletinChanges(List<CancellationData> newCancellations, List<CancellationData> unchangedCancellations,
+                           List<CancellationData> cancelledCancellations) {
+        this.newCancellations = newCancellations;
+        this.unchangedCancellations = unchangedCancellations;
+        this.cancelledCancellations = cancelledCancellations;
+    }
+
+    /**
+     * @return cancellations of trips that were not in the previous version
+     */
+    public List<CancellationData> getNewCancellations() {
+        return newCancellations;
+    }
+
+    /**
+     * @return cancellations of trips that were already in the previous version
+     */
+    public List<CancellationData> getUnchangedCancellations() {
+        return unchangedCancellations;
+    }
+
+    /**
+     * @return cancellations-of-cancellations (status RUNNING) for trips that were removed from the bulletin
+     */
+    public List<CancellationData> getCancelledCancellations() {
+        return cancelledCancellations;
+    }
+
+    /**
+     * @return new, unchanged and cancelled cancellations, in this order
+     */
+    public List<CancellationData> getAll() {
+        return getChanges(true);
+    }
+
+    /**
+     * @param includeUnchanged whether unchanged cancellations are included
+     * @return new, unchanged (if included) and cancelled cancellations, in this order
+     */
+    public List<CancellationData> getChanges(boolean includeUnchanged) {
+        List<CancellationData> all = new ArrayList<>(newCancellations.size()
+                + (includeUnchanged ? unchangedCancellations.size() : 0) + cancelledCancellations.size());
+        all.addAll(newCancellations);
+        if (includeUnchanged) {
+            all.addAll(unchangedCancellations);
+        }
+        all.addAll(cancelledCancellations);
+        return all;
+    }
+}
@@ -0,0 +1,115 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.util.TimeUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Routes, service dates and validity period of one version of a mass cancellation bulletin, i.e. which (route, date)
+ * timetables its cancellations were created from. Comparing the scopes of two versions tells which timetables have to
+ * be fetched for the new version and which trips can be taken from the previous one.
+ */
+public final class BulletinScope {
+
+    private static final int LAST_MINUTE_OF_SERVICE_DAY = 0xFFFF;
+
+    private final long lastModifiedUtcMs;
+    private final LocalDateTime validFrom;
+    private final LocalDateTime validTo;
+    // with 'HSL:' prefix
+    private final Set<String> routeIds;
+    // 'YYYYMMDD'
+    private final Set<String> dates;
+    private final long validFromServiceTime;
+    private final long validToServiceTime;
+
+    private BulletinScope(long lastModifiedUtcMs, LocalDateTime validFrom, LocalDateTime validTo, Set<String> routeIds,
+                          Set<String> dates) {
+        this.lastModifiedUtcMs = lastModifiedUtcMs;
+        this.validFrom = validFrom;
+        this.validTo = validTo;
+        this.routeIds = routeIds;
+        this.dates = dates;
+        this.validFromServiceTime = ServiceTime.of(validFrom).toPacked();
+        this.validToServiceTime = ServiceTime.of(validTo).toPacked();
+    }
+
+    public static BulletinScope of(InternalMessages.Bulletin bulletin, ZoneId zone) {
+        LocalDateTime validFrom = LocalDateTime.ofInstant(Instant.ofEpochMilli(bulletin.getValidFromUtcMs()), zone);
+        LocalDateTime validTo = LocalDateTime.ofInstant(Instant.ofEpochMilli(bulletin.getValidToUtcMs()), zone);
+        Set<String> routeIds = new LinkedHashSet<>();
+        for (InternalMessages.Bulletin.AffectedEntity route : bulletin.getAffectedRoutesList()) {
+            String routeId = route.getEntityId().trim();
+            routeIds.add(routeId.startsWith("HSL:") ? routeId : "HSL:" + routeId);
+        }
+        return new BulletinScope(bulletin.getLastModifiedUtcMs(), validFrom, validTo, routeIds,
+                new LinkedHashSet<>(TimeUtils.getDatesAsList(validFrom, validTo)));
+    }
+
+    public long getLastModifiedUtcMs() {
+        return lastModifiedUtcMs;
+    }
+
+    public LocalDateTime getValidFrom() {
+        return validFrom;
+    }
+
+    public LocalDateTime getValidTo() {
+        return validTo;
+    }
+
+    /**
+     * @return packed start of the validity period, see {@link ServiceTime#toPacked()}
+     */
+    public long getValidFromServiceTime() {
+        return validFromServiceTime;
+    }
+
+    /**
+     * @return packed end of the validity period, see {@link ServiceTime#toPacked()}
+     */
+    public long getValidToServiceTime() {
+        return validToServiceTime;
+    }
+
+    /**
+     * @return timetables of every route on every date, dates first
+     */
+    public List<RouteDay> getRouteDays() {
+        List<RouteDay> routeDays = new ArrayList<>(routeIds.size() * dates.size());
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                routeDays.add(new RouteDay(routeId, date));
+            }
+        }
+        return routeDays;
+    }
+
+    /**
+     * Trips of a timetable that are within the given scope can be taken from this scope, if this scope was created
+     * from the same timetable and its validity period covers the part of the timetable that is in the given scope.
+     *
+     * @param routeDay timetable in the given scope
+     * @param scope    scope of a newer version of the bulletin
+     * @return true if every trip of the timetable in the given scope is also in this scope
+     */
+    public boolean covers(RouteDay routeDay, BulletinScope scope) {
+        if (!routeIds.contains(routeDay.getRouteId()) || !dates.contains(routeDay.getDate())) {
+            return false;
+        }
+        int serviceDay = ServiceTime.parseServiceDay(routeDay.getDate());
+        if (serviceDay < 0) {
+            return false;
+        }
+        long from = Math.max(scope.validFromServiceTime, ServiceTime.of(serviceDay, 0).toPacked());
+        long to = Math.min(scope.validToServiceTime, ServiceTime.of(serviceDay, LAST_MINUTE_OF_SERVICE_DAY).toPacked());
+        return from > to || from >= validFromServiceTime && to <= validToServiceTime;
+    }
+}
@@ -0,0 +1,50 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import java.util.Objects;
+
+/**
+ * Timetable of one route on one service date.
+ */
+public class RouteDay {
+    private final String routeId;
+    private final String date;
+
+    /**
+     * @param routeId GTFS route identifier with 'HSL:' prefix (e.g. 'HSL:1030')
+     * @param date    service date as string, with format 'YYYYMMDD' (e.g. '20240131')
+     */
+    public RouteDay(String routeId, String date) {
+        this.routeId = routeId;
+        this.date = date;
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RouteDay routeDay = (RouteDay) o;
+        return routeId.equals(routeDay.routeId) && date.equals(routeDay.date);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(routeId, date);
+    }
+
+    @Override
+    public String toString() {
+        return routeId + "/" + date;
+    }
+}
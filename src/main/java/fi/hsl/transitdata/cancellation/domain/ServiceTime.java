@@ -0,0 +1,196 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Point in time on the 30-hour clock used in timetables. Times before 06:00 belong to the previous service day, e.g.
+ * 2024-01-30 00:29 is 24:29 on service day 2024-01-29.
+ *
+ * Service day is kept as an integer YYYYMMDD and time as minutes from the start of the service day, so that times are
+ * compared as integers. {@link #pack(String, String)} gives the same ordering for trips without creating objects.
+ */
+public final class ServiceTime implements Comparable<ServiceTime> {
+
+    private static final int SERVICE_DAY_START_HOUR = 6;
+    private static final int MINUTE_BITS = 16;
+
+    // KEY: timezone, e.g. 'Europe/Helsinki'
+    private static final Map<String, ZoneId> zones = new ConcurrentHashMap<>();
+
+    private final int serviceDay;
+    private final int minuteOfServiceDay;
+
+    private ServiceTime(int serviceDay, int minuteOfServiceDay) {
+        this.serviceDay = serviceDay;
+        this.minuteOfServiceDay = minuteOfServiceDay;
+    }
+
+    /**
+     * @param serviceDay         service day as YYYYMMDD
+     * @param minuteOfServiceDay minutes from the start of the service day, may be 24 hours or more
+     */
+    public static ServiceTime of(int serviceDay, int minuteOfServiceDay) {
+        if (serviceDay < 0 || minuteOfServiceDay < 0 || minuteOfServiceDay >= 1 << MINUTE_BITS) {
+            throw new IllegalArgumentException("Invalid service time " + serviceDay + " " + minuteOfServiceDay);
+        }
+        return new ServiceTime(serviceDay, minuteOfServiceDay);
+    }
+
+    /**
+     * @param dateTime local date and time, seconds are ignored
+     */
+    public static ServiceTime of(LocalDateTime dateTime) {
+        int minute = dateTime.getHour() * 60 + dateTime.getMinute();
+        LocalDate date = dateTime.toLocalDate();
+        if (dateTime.getHour() < SERVICE_DAY_START_HOUR) {
+            date = date.minusDays(1);
+            minute += 24 * 60;
+        }
+        return new ServiceTime(toServiceDay(date), minute);
+    }
+
+    public static ServiceTime ofEpochMilli(long epochMilli, ZoneId zone) {
+        return of(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), zone));
+    }
+
+    /**
+     * @return zone with the given identifier, resolved only once
+     */
+    public static ZoneId zone(String timezone) {
+        return zones.computeIfAbsent(timezone, ZoneId::of);
+    }
+
+    /**
+     * Pack service day and start time of a trip into a long, ordered in the same way as service times.
+     *
+     * @param serviceDay service day in 'YYYYMMDD' format
+     * @param startTime  start time in 'HHMM' format, hours may be 24 or more
+     * @return packed service time, or -1 if the strings are not in the expected format
+     */
+    public static long pack(String serviceDay, String startTime) {
+        int day = parseServiceDay(serviceDay);
+        int minute = parseTime(startTime);
+        if (day < 0 || minute < 0) {
+            return -1;
+        }
+        return (long) day << MINUTE_BITS | minute;
+    }
+
+    /**
+     * @return service day as YYYYMMDD, or -1 if the string is not in 'YYYYMMDD' format
+     */
+    public static int parseServiceDay(String serviceDay) {
+        return parseDigits(serviceDay, 8);
+    }
+
+    /**
+     * @return minutes from the start of the service day, or -1 if the string is not in 'HHMM' format
+     */
+    public static int parseTime(String time) {
+        int hoursAndMinutes = parseDigits(time, 4);
+        if (hoursAndMinutes < 0 || hoursAndMinutes % 100 >= 60) {
+            return -1;
+        }
+        return hoursAndMinutes / 100 * 60 + hoursAndMinutes % 100;
+    }
+
+    /**
+     * @return time in 'HHMM' format, hours may be 24 or more
+     */
+    public static String formatTime(int minuteOfServiceDay) {
+        int hours = minuteOfServiceDay / 60;
+        int minutes = minuteOfServiceDay % 60;
+        char[] chars = hours < 100 ? new char[4] : new char[Integer.toString(hours).length() + 2];
+        int index = chars.length;
+        chars[--index] = (char) ('0' + minutes % 10);
+        chars[--index] = (char) ('0' + minutes / 10);
+        do {
+            chars[--index] = (char) ('0' + hours % 10);
+            hours /= 10;
+        } while (index > 0);
+        return new String(chars);
+    }
+
+    public static int toServiceDay(LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    public int getServiceDay() {
+        return serviceDay;
+    }
+
+    public int getMinuteOfServiceDay() {
+        return minuteOfServiceDay;
+    }
+
+    /**
+     * @return same as {@link #pack(String, String)} for the formatted service day and time
+     */
+    public long toPacked() {
+        return (long) serviceDay << MINUTE_BITS | minuteOfServiceDay;
+    }
+
+    /**
+     * @return service day in 'YYYYMMDD' format
+     */
+    public String formatServiceDay() {
+        return Integer.toString(serviceDay);
+    }
+
+    /**
+     * @return time in 'HHMM' format, e.g. '2429'
+     */
+    public String formatTime() {
+        return formatTime(minuteOfServiceDay);
+    }
+
+    @Override
+    public int compareTo(ServiceTime other) {
+        return Long.compare(toPacked(), other.toPacked());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ServiceTime)) {
+            return false;
+        }
+        ServiceTime that = (ServiceTime) o;
+        return serviceDay == that.serviceDay && minuteOfServiceDay == that.minuteOfServiceDay;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * serviceDay + minuteOfServiceDay;
+    }
+
+    @Override
+    public String toString() {
+        return formatServiceDay() + " " + formatTime();
+    }
+
+    /**
+     * @return value of the digits, or -1 if the string is not exactly the given number of digits
+     */
+    static int parseDigits(String digits, int length) {
+        if (digits.length() != length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,69 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+/**
+ * Departure of a route on one operating day, packed into a long: route index (20 bits), operating day as YYYYMMDD
+ * (26 bits), start minute of the operating day (13 bits) and direction (5 bits).
+ *
+ * Route indexes are assigned by the caller, e.g. in the order the routes are seen in one batch of trips, so keys are
+ * comparable only within the scope that assigned the indexes. Two trips with the same key are the same departure,
+ * even if they have different GTFS trip identifiers.
+ */
+public final class TripKey {
+
+    /**
+     * Returned when a trip cannot be packed, e.g. its start time is not in 'HHMM' format.
+     */
+    public static final long INVALID = -1;
+
+    private static final int DIRECTION_BITS = 5;
+    private static final int MINUTE_BITS = 13;
+    private static final int DAY_BITS = 26;
+    private static final int ROUTE_BITS = 20;
+
+    private static final int MINUTE_SHIFT = DIRECTION_BITS;
+    private static final int DAY_SHIFT = MINUTE_SHIFT + MINUTE_BITS;
+    private static final int ROUTE_SHIFT = DAY_SHIFT + DAY_BITS;
+
+    private TripKey() {
+    }
+
+    /**
+     * @param routeIndex   index of the route, assigned by the caller
+     * @param operatingDay operating day in 'YYYYMMDD' format
+     * @param startTime    start time in 'HHMM' format, hours may be 24 or more
+     * @param directionId  direction identifier
+     * @return trip key, or {@link #INVALID}
+     */
+    public static long of(int routeIndex, String operatingDay, String startTime, int directionId) {
+        int day = ServiceTime.parseServiceDay(operatingDay);
+        int minute = ServiceTime.parseTime(startTime);
+        if (day < 0 || minute < 0 || directionId < 0 || directionId >= 1 << DIRECTION_BITS
+                || routeIndex < 0 || routeIndex >= 1 << ROUTE_BITS
+                || day >= 1 << DAY_BITS || minute >= 1 << MINUTE_BITS) {
+            return INVALID;
+        }
+        return (long) routeIndex << ROUTE_SHIFT | (long) day << DAY_SHIFT | (long) minute << MINUTE_SHIFT | directionId;
+    }
+
+    public static int getRouteIndex(long tripKey) {
+        return (int) (tripKey >>> ROUTE_SHIFT);
+    }
+
+    /**
+     * @return operating day as YYYYMMDD
+     */
+    public static int getOperatingDay(long tripKey) {
+        return (int) (tripKey >>> DAY_SHIFT & (1L << DAY_BITS) - 1);
+    }
+
+    /**
+     * @return minutes from the start of the operating day
+     */
+    public static int getStartMinute(long tripKey) {
+        return (int) (tripKey >>> MINUTE_SHIFT & (1L << MINUTE_BITS) - 1);
+    }
+
+    public static int getDirectionId(long tripKey) {
+        return (int) (tripKey & (1L << DIRECTION_BITS) - 1);
+    }
+}
@@ -0,0 +1,68 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+/**
+ * Set of trip keys without boxing, used to de-duplicate trips. Not thread-safe.
+ */
+public final class TripKeySet {
+
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private int size;
+    private boolean containsEmpty;
+
+    public TripKeySet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+    }
+
+    /**
+     * @return true if the key was not in the set yet
+     */
+    public boolean add(long tripKey) {
+        if (tripKey == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(tripKey) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == tripKey) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = tripKey;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public int size() {
+        return containsEmpty ? size + 1 : size;
+    }
+
+    private void grow() {
+        long[] previous = keys;
+        keys = new long[previous.length * 2];
+        int mask = keys.length - 1;
+        for (long key : previous) {
+            if (key != EMPTY) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
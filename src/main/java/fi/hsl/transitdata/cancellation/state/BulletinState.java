@@ -0,0 +1,426 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import fi.hsl.transitdata.cancellation.util.TimeUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Cancelled trips of one version of a mass cancellation bulletin in a compact form.
+ *
+ * Each trip is a primitive key that packs the trip identifier of its interned {@link TripTemplate} and its start date.
+ * Keys are kept in a sorted array, so that two versions of a bulletin are compared with a linear merge. All
+ * cancellations of a bulletin version share the same timestamp and deviation case, so they are kept only once.
+ * Instances are immutable.
+ *
+ * Trips are compared by trip identifier and start date, like the cancellations of a bulletin were compared before the
+ * state was made compact. A trip whose other fields, e.g. start time, have changed is still the same trip: it is not
+ * cancelled with status RUNNING, but it is returned as a new cancellation, so that the changed cancellation is sent.
+ */
+public final class BulletinState {
+
+    private static final int DATE_BITS = 26;
+    private static final long DATE_MASK = (1L << DATE_BITS) - 1;
+
+    private static final BulletinState EMPTY = new BulletinState(0, 0, 0, new long[0], new TripTemplate[0]);
+
+    private final long timestamp;
+    private final long deviationCaseId;
+    // fingerprint of the bulletin version that the state was created from, 0 if unknown
+    private final long fingerprint;
+    // sorted and unique
+    private final long[] tripKeys;
+    // template of each trip key
+    private final TripTemplate[] templates;
+
+    private BulletinState(long timestamp, long deviationCaseId, long fingerprint, long[] tripKeys,
+                          TripTemplate[] templates) {
+        this.timestamp = timestamp;
+        this.deviationCaseId = deviationCaseId;
+        this.fingerprint = fingerprint;
+        this.tripKeys = tripKeys;
+        this.templates = templates;
+    }
+
+    /**
+     * Result of comparing a new bulletin version to the previous one.
+     */
+    public static final class Diff {
+        private final BulletinState state;
+        private final BulletinChanges changes;
+
+        private Diff(BulletinState state, BulletinChanges changes) {
+            this.state = state;
+            this.changes = changes;
+        }
+
+        /**
+         * @return state of the new bulletin version
+         */
+        public BulletinState getState() {
+            return state;
+        }
+
+        public BulletinChanges getChanges() {
+            return changes;
+        }
+    }
+
+    /**
+     * @param cancellations cancellations of a bulletin version, timestamp and deviation case are taken from the first
+     *                      one
+     */
+    public static BulletinState of(List<CancellationData> cancellations) {
+        return diff(null, cancellations).state;
+    }
+
+    /**
+     * Compare cancellations of a new bulletin version to the previous version. Trips of the new version are interned
+     * with the templates of the previous version, see {@link BulletinStateStore#diff} for interning them per store.
+     *
+     * @param previous      state of the previous version, or null if there is none
+     * @param cancellations cancellations of the new version
+     * @return state of the new version, and new, unchanged and cancelled cancellations. New and unchanged
+     * cancellations are in the same order as in the given list, cancelled ones are in trip key order. A trip that is
+     * in both versions but whose other fields have changed is new.
+     */
+    public static Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        TripTemplates tripTemplates = previous != null && !previous.isEmpty()
+                ? previous.templates[0].owner
+                : new TripTemplates();
+        return diff(previous, cancellations, tripTemplates);
+    }
+
+    /**
+     * @param tripTemplates templates that trips of the new version are interned with, the previous version is interned
+     *                      with them too if it is not already
+     * @see #diff(BulletinState, List)
+     */
+    static Diff diff(BulletinState previous, List<CancellationData> cancellations, TripTemplates tripTemplates) {
+        previous = previous == null ? EMPTY : previous.internedWith(tripTemplates);
+        int size = cancellations.size();
+        long[] inputKeys = new long[size];
+        TripTemplate[] inputTemplates = new TripTemplate[size];
+        for (int i = 0; i < size; i++) {
+            InternalMessages.TripCancellation payload = cancellations.get(i).getPayload();
+            int date = packDate(payload.getStartDate());
+            inputTemplates[i] = createTemplate(tripTemplates, payload.getRouteId(), payload.getDirectionId(),
+                    payload.getStartTime(), cancellations.get(i).getTripId(), cancellations.get(i).getDvjId(),
+                    payload.getStartDate(), date);
+            inputKeys[i] = inputTemplates[i].trip.id << DATE_BITS | date;
+        }
+        int[] order = sortedOrder(inputKeys);
+
+        long[] tripKeys = new long[size];
+        TripTemplate[] templates = new TripTemplate[size];
+        int unique = 0;
+        boolean[] unchanged = new boolean[size];
+        boolean[] kept = new boolean[previous.tripKeys.length];
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            long key = inputKeys[index];
+            if (unique == 0 || tripKeys[unique - 1] != key) {
+                tripKeys[unique] = key;
+                templates[unique] = inputTemplates[index];
+                unique++;
+            }
+            while (j < previous.tripKeys.length && previous.tripKeys[j] < key) {
+                j++;
+            }
+            if (j < previous.tripKeys.length && previous.tripKeys[j] == key) {
+                // templates are interned, so a trip is unchanged only if it has the same template
+                unchanged[index] = previous.templates[j] == inputTemplates[index];
+                kept[j] = true;
+            }
+        }
+
+        List<CancellationData> newCancellations = new ArrayList<>();
+        List<CancellationData> unchangedCancellations = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            (unchanged[i] ? unchangedCancellations : newCancellations).add(cancellations.get(i));
+        }
+        List<CancellationData> cancelledCancellations = new ArrayList<>();
+        for (int k = 0; k < kept.length; k++) {
+            if (!kept[k]) {
+                cancelledCancellations.add(
+                        previous.getCancellation(k, InternalMessages.TripCancellation.Status.RUNNING));
+            }
+        }
+
+        BulletinState state = size == 0 ? EMPTY : new BulletinState(
+                cancellations.get(0).getTimestamp(),
+                cancellations.get(0).deviationCaseId,
+                0,
+                unique == size ? tripKeys : Arrays.copyOf(tripKeys, unique),
+                unique == size ? templates : Arrays.copyOf(templates, unique));
+        return new Diff(state, new BulletinChanges(newCancellations, unchangedCancellations, cancelledCancellations));
+    }
+
+    /**
+     * Record which bulletin version the state was created from, also when the version has no trips.
+     *
+     * @param timestamp   lastModifiedUtcMs of the bulletin version
+     * @param fingerprint fingerprint of the bulletin version, see
+     *                    {@link fi.hsl.transitdata.cancellation.util.BulletinUtils#getFingerprint}
+     * @return state with the same trips
+     */
+    public BulletinState withVersion(long timestamp, long fingerprint) {
+        return new BulletinState(timestamp, deviationCaseId, fingerprint, tripKeys, templates);
+    }
+
+    public int size() {
+        return tripKeys.length;
+    }
+
+    public boolean isEmpty() {
+        return tripKeys.length == 0;
+    }
+
+    /**
+     * @return estimated heap use of this state in bytes, excluding trip templates that are shared with other states
+     */
+    public long getEstimatedSizeBytes() {
+        // object header and fields, and the two arrays with compressed references
+        return 40 + 16 + 8L * tripKeys.length + 16 + 4L * templates.length;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getDeviationCaseId() {
+        return deviationCaseId;
+    }
+
+    /**
+     * @return fingerprint of the bulletin version that the state was created from, 0 if unknown
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public boolean containsTrip(String tripId) {
+        for (int i = 0; i < tripKeys.length; i++) {
+            if (getTripId(i).equals(tripId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create cancellation messages of all trips. Only needed when the whole state is inspected, e.g. in tests.
+     *
+     * @return map with KEY: tripId, VALUE: cancellationData with status CANCELED
+     */
+    public Map<String, CancellationData> toCancellationMap() {
+        if (tripKeys.length == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, CancellationData> tripCancellations = new HashMap<>();
+        for (int i = 0; i < tripKeys.length; i++) {
+            CancellationData cancellationData = getCancellation(i, InternalMessages.TripCancellation.Status.CANCELED);
+            tripCancellations.put(cancellationData.getTripId(), cancellationData);
+        }
+        return tripCancellations;
+    }
+
+    /**
+     * Create cancellations of the trips whose route and start date are accepted and whose start is within the given
+     * period, with the timestamp and title of a newer bulletin version. The newer version then does not need to fetch
+     * timetables that the previous version already covered.
+     *
+     * @param routeAndDate route identifier without 'HSL:' prefix and start date in 'YYYYMMDD' format
+     * @param validFrom    packed start of the period, see {@link ServiceTime#pack(String, String)}
+     * @param validTo      packed end of the period
+     * @return cancellations with status CANCELED, in trip key order
+     */
+    public List<CancellationData> getCancellations(BiPredicate<String, String> routeAndDate, long validFrom,
+                                                   long validTo, long timestamp, String title) {
+        List<CancellationData> cancellations = new ArrayList<>();
+        for (int i = 0; i < tripKeys.length; i++) {
+            TripTemplate template = templates[i];
+            String startDate = getStartDate(i);
+            if (!routeAndDate.test(template.getRouteId(), startDate)) {
+                continue;
+            }
+            // start time is 'HH:MM:SS' in cancellations
+            String startTime = template.startTime.length() >= 5
+                    ? template.startTime.substring(0, 2) + template.startTime.substring(3, 5)
+                    : template.startTime;
+            if (TimeUtils.isBetween(ServiceTime.pack(startDate, startTime), validFrom, validTo)) {
+                cancellations.add(getCancellation(i, InternalMessages.TripCancellation.Status.CANCELED, timestamp, title));
+            }
+        }
+        return cancellations;
+    }
+
+    /**
+     * Create state from decoded trips.
+     *
+     * @param dates start date of each trip as returned by {@link #getPackedDate(int)}
+     */
+    static BulletinState of(long timestamp, long deviationCaseId, long fingerprint, TripTemplate[] templates,
+                            int[] dates) {
+        long[] keys = new long[templates.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = templates[i].trip.id << DATE_BITS | dates[i];
+        }
+        int[] order = sortedOrder(keys);
+        long[] tripKeys = new long[keys.length];
+        TripTemplate[] tripTemplates = new TripTemplate[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            tripKeys[i] = keys[order[i]];
+            tripTemplates[i] = templates[order[i]];
+        }
+        return new BulletinState(timestamp, deviationCaseId, fingerprint, tripKeys, tripTemplates);
+    }
+
+    /**
+     * @return this state if its trips are interned with the given templates, otherwise an equal state whose trips are
+     */
+    BulletinState internedWith(TripTemplates tripTemplates) {
+        boolean interned = true;
+        for (TripTemplate template : templates) {
+            if (template.owner != tripTemplates) {
+                interned = false;
+                break;
+            }
+        }
+        if (interned) {
+            return this;
+        }
+        TripTemplate[] internedTemplates = new TripTemplate[templates.length];
+        int[] dates = new int[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            internedTemplates[i] = tripTemplates.intern(templates[i]);
+            dates[i] = getPackedDate(i);
+        }
+        return of(timestamp, deviationCaseId, fingerprint, internedTemplates, dates);
+    }
+
+    TripTemplate getTemplate(int index) {
+        return templates[index];
+    }
+
+    /**
+     * @return start date of the trip packed into an integer, 0 if the date is kept in the template
+     */
+    int getPackedDate(int index) {
+        return (int) (tripKeys[index] & DATE_MASK);
+    }
+
+    /**
+     * @return start date of the trip in 'YYYYMMDD' format
+     */
+    String getStartDate(int index) {
+        TripTemplate template = templates[index];
+        return template.startDate != null ? template.startDate : Long.toString(tripKeys[index] & DATE_MASK);
+    }
+
+    String getTripId(int index) {
+        return templates[index].getTripId(getStartDate(index));
+    }
+
+    private CancellationData getCancellation(int index, InternalMessages.TripCancellation.Status status) {
+        return getCancellation(index, status, timestamp, null);
+    }
+
+    private CancellationData getCancellation(int index, InternalMessages.TripCancellation.Status status,
+                                             long timestamp, String title) {
+        TripTemplate template = templates[index];
+        String startDate = getStartDate(index);
+
+        InternalMessages.TripCancellation.Builder builder = InternalMessages.TripCancellation.newBuilder();
+        builder.setRouteId(template.getRouteId());
+        builder.setDirectionId(template.directionId);
+        builder.setStartDate(startDate);
+        builder.setStartTime(template.startTime);
+        builder.setStatus(status);
+        builder.setSchemaVersion(builder.getSchemaVersion());
+        builder.setTripId(template.getTripId(startDate));
+        if (title != null) {
+            builder.setTitle(title);
+        }
+
+        return new CancellationData(builder.build(), timestamp, template.getDvjId(startDate), deviationCaseId);
+    }
+
+    private static TripTemplate createTemplate(TripTemplates tripTemplates, String routeId, int directionId,
+                                               String startTime, String tripId, String dvjId, String startDate,
+                                               int date) {
+        boolean tripIdDated = date != 0 && isDated(tripId, startDate);
+        String tripIdPrefix = tripIdDated ? tripId.substring(0, tripId.length() - 9) : tripId;
+        boolean dvjIdDated = dvjId != null && date != 0 && isDated(dvjId, startDate);
+        String dvjIdPrefix;
+        if (dvjId == null) {
+            dvjIdPrefix = null;
+        } else if (dvjId.equals(tripId)) {
+            dvjIdPrefix = tripIdPrefix;
+        } else {
+            dvjIdPrefix = dvjIdDated ? dvjId.substring(0, dvjId.length() - 9) : dvjId;
+        }
+        return tripTemplates.intern(routeId, directionId, startTime, tripIdPrefix, tripIdDated, dvjIdPrefix, dvjIdDated,
+                date == 0 ? startDate : null);
+    }
+
+    /**
+     * @return true if the identifier ends with '_' + start date
+     */
+    private static boolean isDated(String identifier, String startDate) {
+        int length = identifier.length();
+        return length > 9 && identifier.charAt(length - 9) == '_' && identifier.regionMatches(length - 8, startDate, 0, 8);
+    }
+
+    /**
+     * @return date in 'YYYYMMDD' format as an integer, or 0 if it cannot be packed into a trip key
+     */
+    private static int packDate(String startDate) {
+        int date = ServiceTime.parseServiceDay(startDate);
+        return date >= 10000000 && date <= DATE_MASK ? date : 0;
+    }
+
+    /**
+     * @return indexes of the keys in ascending key order
+     */
+    private static int[] sortedOrder(long[] keys) {
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        mergeSort(keys, order, new int[order.length], 0, order.length);
+        return order;
+    }
+
+    private static void mergeSort(long[] keys, int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(keys, order, buffer, from, middle);
+        mergeSort(keys, order, buffer, middle, to);
+        if (keys[order[middle - 1]] <= keys[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && keys[buffer[left]] <= keys[buffer[right]]) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+}
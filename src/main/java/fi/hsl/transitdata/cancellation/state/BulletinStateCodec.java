@@ -0,0 +1,233 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of bulletin state records, shared by the snapshot and the append-only log of
+ * {@link FileBulletinStateStore}.
+ *
+ * Each record is framed as (int length, int CRC32 of content, content), so that a partially written record at the end
+ * of the log is detected on recovery. Content is (byte version, UTF bulletinId, long updatedAt, long timestamp,
+ * long deviationCaseId, long fingerprint, int templateCount) followed by templateCount * (UTF routeId, int directionId, UTF startTime,
+ * UTF tripId, boolean tripIdDated, boolean hasDvjId, [UTF dvjId, boolean dvjIdDated], boolean hasStartDate,
+ * [UTF startDate], int dateCount, dateCount * int date). Trips of the same template are usually next to each other in
+ * a {@link BulletinState}, so each template is written once for each run of its trips.
+ *
+ * Records of version 1, which contained the whole TripCancellation payload of each trip, and of version 2, which had
+ * no fingerprint, are still read.
+ */
+class BulletinStateCodec {
+
+    private static final byte VERSION_PAYLOADS = 1;
+    private static final byte VERSION_NO_FINGERPRINT = 2;
+    private static final byte VERSION = 3;
+
+    static class Record {
+        final String bulletinId;
+        final long updatedAt;
+        final BulletinState state;
+
+        Record(String bulletinId, long updatedAt, BulletinState state) {
+            this.bulletinId = bulletinId;
+            this.updatedAt = updatedAt;
+            this.state = state;
+        }
+    }
+
+    private BulletinStateCodec() {
+    }
+
+    static byte[] encode(String bulletinId, long updatedAt, BulletinState state) throws IOException {
+        ByteArrayOutputStream contentBytes = new ByteArrayOutputStream();
+        DataOutputStream content = new DataOutputStream(contentBytes);
+        content.writeByte(VERSION);
+        content.writeUTF(bulletinId);
+        content.writeLong(updatedAt);
+        content.writeLong(state.getTimestamp());
+        content.writeLong(state.getDeviationCaseId());
+        content.writeLong(state.getFingerprint());
+        content.writeInt(countTemplates(state));
+        int i = 0;
+        while (i < state.size()) {
+            TripTemplate template = state.getTemplate(i);
+            content.writeUTF(template.getRouteId());
+            content.writeInt(template.directionId);
+            content.writeUTF(template.startTime);
+            content.writeUTF(template.tripId);
+            content.writeBoolean(template.tripIdDated);
+            content.writeBoolean(template.dvjId != null);
+            if (template.dvjId != null) {
+                content.writeUTF(template.dvjId);
+                content.writeBoolean(template.dvjIdDated);
+            }
+            content.writeBoolean(template.startDate != null);
+            if (template.startDate != null) {
+                content.writeUTF(template.startDate);
+            }
+            int end = i;
+            while (end < state.size() && state.getTemplate(end) == template) {
+                end++;
+            }
+            content.writeInt(end - i);
+            for (; i < end; i++) {
+                content.writeInt(state.getPackedDate(i));
+            }
+        }
+        content.flush();
+
+        byte[] contentArray = contentBytes.toByteArray();
+        ByteArrayOutputStream frameBytes = new ByteArrayOutputStream(contentArray.length + 8);
+        DataOutputStream frame = new DataOutputStream(frameBytes);
+        frame.writeInt(contentArray.length);
+        frame.writeInt(crc(contentArray));
+        frame.write(contentArray);
+        frame.flush();
+        return frameBytes.toByteArray();
+    }
+
+    static void write(OutputStream output, Record record) throws IOException {
+        output.write(encode(record.bulletinId, record.updatedAt, record.state));
+    }
+
+    /**
+     * Read next record, trips are interned with new templates.
+     *
+     * @see #read(InputStream, TripTemplates)
+     */
+    static Record read(InputStream input) throws IOException {
+        return read(input, new TripTemplates());
+    }
+
+    /**
+     * Read next record.
+     *
+     * @param tripTemplates templates that trips of the record are interned with
+     * @return record, or null at the end of input
+     * @throws IOException if the record is truncated or corrupted
+     */
+    static Record read(InputStream input, TripTemplates tripTemplates) throws IOException {
+        DataInputStream frame = new DataInputStream(input);
+        int length;
+        try {
+            length = frame.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int expectedCrc = frame.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid bulletin state record length " + length);
+        }
+        byte[] contentArray = frame.readNBytes(length);
+        if (contentArray.length < length) {
+            throw new EOFException("Bulletin state record is truncated");
+        }
+        if (crc(contentArray) != expectedCrc) {
+            throw new IOException("Bulletin state record checksum mismatch");
+        }
+
+        DataInputStream content = new DataInputStream(new ByteArrayInputStream(contentArray));
+        byte version = content.readByte();
+        if (version == VERSION_PAYLOADS) {
+            return readPayloads(content, tripTemplates);
+        }
+        if (version != VERSION && version != VERSION_NO_FINGERPRINT) {
+            throw new IOException("Unsupported bulletin state record version " + version);
+        }
+        String bulletinId = content.readUTF();
+        long updatedAt = content.readLong();
+        long timestamp = content.readLong();
+        long deviationCaseId = content.readLong();
+        long fingerprint = version == VERSION ? content.readLong() : 0;
+        int templateCount = content.readInt();
+        List<TripTemplate> templates = new ArrayList<>();
+        IntArrayBuilder dates = new IntArrayBuilder();
+        for (int i = 0; i < templateCount; i++) {
+            String routeId = content.readUTF();
+            int directionId = content.readInt();
+            String startTime = content.readUTF();
+            String tripId = content.readUTF();
+            boolean tripIdDated = content.readBoolean();
+            String dvjId = null;
+            boolean dvjIdDated = false;
+            if (content.readBoolean()) {
+                dvjId = content.readUTF();
+                dvjIdDated = content.readBoolean();
+            }
+            String startDate = content.readBoolean() ? content.readUTF() : null;
+            TripTemplate template = tripTemplates.intern(routeId, directionId, startTime, tripId, tripIdDated, dvjId,
+                    dvjIdDated, startDate);
+            int dateCount = content.readInt();
+            for (int j = 0; j < dateCount; j++) {
+                templates.add(template);
+                dates.add(content.readInt());
+            }
+        }
+        BulletinState state = BulletinState.of(
+                timestamp, deviationCaseId, fingerprint, templates.toArray(new TripTemplate[0]), dates.toArray());
+        return new Record(bulletinId, updatedAt, state);
+    }
+
+    private static Record readPayloads(DataInputStream content, TripTemplates tripTemplates) throws IOException {
+        String bulletinId = content.readUTF();
+        long updatedAt = content.readLong();
+        int count = content.readInt();
+        List<CancellationData> tripCancellations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] payload = new byte[content.readInt()];
+            content.readFully(payload);
+            long timestamp = content.readLong();
+            String dvjId = content.readBoolean() ? content.readUTF() : null;
+            long deviationCaseId = content.readLong();
+            tripCancellations.add(new CancellationData(
+                    InternalMessages.TripCancellation.parseFrom(payload), timestamp, dvjId, deviationCaseId));
+        }
+        return new Record(bulletinId, updatedAt,
+                BulletinState.diff(null, tripCancellations, tripTemplates).getState());
+    }
+
+    private static int countTemplates(BulletinState state) {
+        int count = 0;
+        for (int i = 0; i < state.size(); i++) {
+            if (i == 0 || state.getTemplate(i) != state.getTemplate(i - 1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class IntArrayBuilder {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return (int) crc32.getValue();
+    }
+}
@@ -0,0 +1,72 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cancelled trips of each mass cancellation bulletin, as they were when the bulletin was last handled. Used to find
+ * out which cancellations have been added or removed when a new version of a bulletin arrives. Implementation is
+ * selected with 'state.store' in environment.conf.
+ */
+public interface BulletinStateStore extends AutoCloseable {
+
+    /**
+     * @param bulletinId bulletin identifier
+     * @return cancelled trips of the bulletin (or null if the bulletin is not in the store)
+     */
+    BulletinState get(String bulletinId);
+
+    /**
+     * Replace cancelled trips of the bulletin.
+     *
+     * @param bulletinId bulletin identifier
+     * @param state      cancelled trips of the bulletin
+     */
+    void put(String bulletinId, BulletinState state);
+
+    /**
+     * Atomically replace cancelled trips of the bulletin with trips computed from the current ones. Default
+     * implementation holds the lock of the store while computing.
+     *
+     * @param bulletinId        bulletin identifier
+     * @param remappingFunction gets the current state (or null if the bulletin is not in the store) and returns the
+     *                          new state
+     * @return the new state
+     */
+    default BulletinState compute(String bulletinId, UnaryOperator<BulletinState> remappingFunction) {
+        synchronized (this) {
+            BulletinState state = remappingFunction.apply(get(bulletinId));
+            put(bulletinId, state);
+            return state;
+        }
+    }
+
+    /**
+     * Compare cancellations of a new bulletin version to a state of this store, without modifying the store. Stores
+     * intern trips of their states with their own templates. Default implementation interns them with the templates
+     * of the given state.
+     *
+     * @param previous      state of the previous version, or null if there is none
+     * @param cancellations cancellations of the new version
+     * @return state of the new version and changes compared to the previous version
+     * @see BulletinState#diff(BulletinState, List)
+     */
+    default BulletinState.Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        return BulletinState.diff(previous, cancellations);
+    }
+
+    /**
+     * @return states of all bulletins in the store, bulletins that have expired may be included
+     */
+    Collection<BulletinState> values();
+
+    /**
+     * Release resources used by the store, e.g. open files.
+     */
+    @Override
+    default void close() {
+    }
+}
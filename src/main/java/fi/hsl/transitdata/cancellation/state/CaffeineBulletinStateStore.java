@@ -0,0 +1,57 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bulletin state kept only in memory. State is lost when the processor is restarted.
+ */
+public class CaffeineBulletinStateStore implements BulletinStateStore {
+
+    // KEY: bulletinId, VALUE: cancelled trips of the bulletin
+    private final Cache<String, BulletinState> bulletinsCache;
+    private final TripTemplates tripTemplates = new TripTemplates();
+
+    public CaffeineBulletinStateStore(Cache<String, BulletinState> bulletinsCache) {
+        this.bulletinsCache = bulletinsCache;
+    }
+
+    public static CaffeineBulletinStateStore newInstance(Duration expireAfterAccess) {
+        return new CaffeineBulletinStateStore(Caffeine.newBuilder().expireAfterAccess(expireAfterAccess).build());
+    }
+
+    @Override
+    public BulletinState get(String bulletinId) {
+        return bulletinsCache.asMap().get(bulletinId);
+    }
+
+    @Override
+    public void put(String bulletinId, BulletinState state) {
+        bulletinsCache.put(bulletinId, state);
+    }
+
+    /**
+     * Only the bulletin is locked while computing, other bulletins can be read and updated at the same time.
+     */
+    @Override
+    public BulletinState compute(String bulletinId, UnaryOperator<BulletinState> remappingFunction) {
+        return bulletinsCache.asMap().compute(bulletinId, (key, state) -> remappingFunction.apply(state));
+    }
+
+    @Override
+    public BulletinState.Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        return BulletinState.diff(previous, cancellations, tripTemplates);
+    }
+
+    @Override
+    public Collection<BulletinState> values() {
+        return new ArrayList<>(bulletinsCache.asMap().values());
+    }
+}
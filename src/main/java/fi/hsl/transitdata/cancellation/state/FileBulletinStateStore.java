@@ -0,0 +1,447 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import com.typesafe.config.Config;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bulletin state that survives restarts. State is kept in memory and every change is appended to a log file in the
+ * state directory. When the log grows larger than the compaction threshold, it is moved aside and a new log is started,
+ * and the whole state is written to a snapshot file in the background. The moved log is deleted once the snapshot has
+ * been written, so writes never wait for compaction.
+ *
+ * On startup the snapshot is read and the moved log (if compaction did not finish) and the log are replayed on top of
+ * it. A partially written record at the end of the log, e.g. after a crash, is dropped. Log is fsynced at the
+ * configured interval, or after every change if the interval is zero. A change that cannot be written fails with
+ * {@link UncheckedIOException} and is not applied.
+ *
+ * Bulletins that have been neither read nor updated within the expiration time are dropped. Reads are not written to
+ * the log, so after a restart the expiration time counts from the last update or the last compaction.
+ */
+public class FileBulletinStateStore implements BulletinStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileBulletinStateStore.class);
+
+    static final String SNAPSHOT_FILE = "bulletins.snapshot";
+    static final String LOG_FILE = "bulletins.log";
+    static final String PREVIOUS_LOG_FILE = "bulletins.log.previous";
+
+    private final Path directory;
+    private final long expireAfterMillis;
+    private final long compactAfterBytes;
+    private final boolean fsyncEveryWrite;
+    private final Clock clock;
+    // fsyncs the log at the configured interval and compacts the state
+    private final ScheduledExecutorService executor;
+
+    // KEY: bulletinId
+    private final Map<String, Entry> bulletins = new HashMap<>();
+    private final TripTemplates tripTemplates = new TripTemplates();
+    private FileChannel logChannel;
+    private boolean unsynced;
+    private boolean compacting;
+
+    public FileBulletinStateStore(Path directory, Duration expireAfter, Duration fsyncInterval, long compactAfterBytes,
+                                  Clock clock) throws IOException {
+        this.directory = directory;
+        this.expireAfterMillis = expireAfter.toMillis();
+        this.compactAfterBytes = compactAfterBytes;
+        this.fsyncEveryWrite = fsyncInterval.isZero();
+        this.clock = clock;
+
+        recover();
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulletin-state-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!fsyncEveryWrite) {
+            long intervalMillis = fsyncInterval.toMillis();
+            executor.scheduleWithFixedDelay(this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static FileBulletinStateStore newInstance(Config config) throws IOException {
+        return new FileBulletinStateStore(
+                Paths.get(config.getString("state.file.directory")),
+                config.getDuration("state.expireAfter"),
+                config.getDuration("state.file.fsyncInterval"),
+                config.getBytes("state.file.compactAfter"),
+                Clock.systemUTC());
+    }
+
+    @Override
+    public synchronized BulletinState get(String bulletinId) {
+        Entry entry = bulletins.get(bulletinId);
+        if (entry == null) {
+            return null;
+        }
+        long now = clock.millis();
+        if (isExpired(entry, now)) {
+            bulletins.remove(bulletinId);
+            return null;
+        }
+        entry.accessedAt = now;
+        return entry.record.state;
+    }
+
+    /**
+     * @throws UncheckedIOException if the state cannot be written to the log, the state is then not changed
+     */
+    @Override
+    public void put(String bulletinId, BulletinState state) {
+        write(new BulletinStateCodec.Record(bulletinId, clock.millis(), state), false, null);
+    }
+
+    /**
+     * The new state is computed without holding the lock of the store, and computed again if the bulletin was
+     * changed meanwhile.
+     *
+     * @throws UncheckedIOException if the state cannot be written to the log, the state is then not changed
+     */
+    @Override
+    public BulletinState compute(String bulletinId, UnaryOperator<BulletinState> remappingFunction) {
+        while (true) {
+            BulletinState current = get(bulletinId);
+            BulletinState state = remappingFunction.apply(current);
+            if (write(new BulletinStateCodec.Record(bulletinId, clock.millis(), state), true, current)) {
+                return state;
+            }
+        }
+    }
+
+    @Override
+    public BulletinState.Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        return BulletinState.diff(previous, cancellations, tripTemplates);
+    }
+
+    @Override
+    public synchronized Collection<BulletinState> values() {
+        List<BulletinState> values = new ArrayList<>(bulletins.size());
+        for (Entry entry : bulletins.values()) {
+            values.add(entry.record.state);
+        }
+        return values;
+    }
+
+    public synchronized int size() {
+        return bulletins.size();
+    }
+
+    /**
+     * Append the record to the log and apply it. Encoding and fsync are done without holding the lock of the store.
+     *
+     * @param conditional true to write only if the bulletin still has the expected state
+     * @param expected    state that the bulletin must have, or null if it must not be in the store
+     * @return false if the bulletin did not have the expected state and nothing was written
+     */
+    private boolean write(BulletinStateCodec.Record record, boolean conditional, BulletinState expected) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(BulletinStateCodec.encode(record.bulletinId, record.updatedAt, record.state));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode state of bulletin " + record.bulletinId, e);
+        }
+
+        FileChannel channel;
+        synchronized (this) {
+            if (conditional && currentState(record.bulletinId, record.updatedAt) != expected) {
+                return false;
+            }
+            channel = logChannel;
+            long position = -1;
+            try {
+                position = channel.position();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                if (position >= 0) {
+                    discardFrom(channel, position);
+                }
+                throw new UncheckedIOException("Failed to write state of bulletin " + record.bulletinId + " to "
+                        + directory, e);
+            }
+            bulletins.put(record.bulletinId, new Entry(record));
+            unsynced = !fsyncEveryWrite;
+            if (!compacting && position + buffer.capacity() > compactAfterBytes) {
+                compacting = true;
+                executor.execute(this::compactInBackground);
+            }
+        }
+
+        if (fsyncEveryWrite) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // the log was moved aside by compaction, which fsynced it before closing
+            } catch (IOException e) {
+                // the change is in memory and it may reach the disk later, but it is not known to be durable
+                throw new UncheckedIOException("Failed to fsync state of bulletin " + record.bulletinId + " to "
+                        + directory, e);
+            }
+        }
+        return true;
+    }
+
+    private BulletinState currentState(String bulletinId, long now) {
+        Entry entry = bulletins.get(bulletinId);
+        return entry != null && !isExpired(entry, now) ? entry.record.state : null;
+    }
+
+    /**
+     * Drop a partially written record, so that the following records can be read.
+     */
+    private void discardFrom(FileChannel channel, long position) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            log.error("Failed to drop partially written record from bulletin state log in {}", directory, e);
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException e) {
+            log.error("Failed to compact bulletin state in {}", directory, e);
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Start a new log and write all bulletins to a new snapshot. Only moving the log aside holds the lock of the
+     * store.
+     */
+    void compact() throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<BulletinStateCodec.Record> records = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.millis();
+            bulletins.values().removeIf(entry -> isExpired(entry, now));
+            for (Entry entry : bulletins.values()) {
+                // last access is written as the update time, so that recovered bulletins expire after access
+                BulletinStateCodec.Record record = entry.record;
+                records.add(entry.accessedAt > record.updatedAt
+                        ? new BulletinStateCodec.Record(record.bulletinId, entry.accessedAt, record.state)
+                        : record);
+            }
+            startLog();
+        }
+
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        Path temporaryFile = Files.createTempFile(directory, SNAPSHOT_FILE, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel));
+                for (BulletinStateCodec.Record record : records) {
+                    BulletinStateCodec.write(output, record);
+                }
+                output.flush();
+                channel.force(true);
+            }
+            Files.move(temporaryFile, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        // records in the previous log are now included in the snapshot
+        Files.deleteIfExists(directory.resolve(PREVIOUS_LOG_FILE));
+        synchronized (this) {
+            compacting = false;
+        }
+        log.info("Compacted bulletin state: {} bulletins in {} ms", records.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Move the log aside and open a new one. If a previous compaction failed, the log is appended to the previous log
+     * instead, as its records are not in the snapshot yet.
+     */
+    private void startLog() throws IOException {
+        Path logPath = directory.resolve(LOG_FILE);
+        Path previousLogPath = directory.resolve(PREVIOUS_LOG_FILE);
+        logChannel.force(true);
+        if (Files.exists(previousLogPath)) {
+            try (FileChannel previousLog = FileChannel.open(previousLogPath, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                long size = logChannel.size();
+                long transferred = 0;
+                while (transferred < size) {
+                    transferred += logChannel.transferTo(transferred, size - transferred, previousLog);
+                }
+                previousLog.force(true);
+            }
+            logChannel.truncate(0);
+            logChannel.force(true);
+        } else {
+            logChannel.close();
+            try {
+                Files.move(logPath, previousLogPath, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // the log is appended to as before if it could not be moved
+                logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                logChannel.position(logChannel.size());
+            }
+        }
+        unsynced = false;
+    }
+
+    void sync() {
+        FileChannel channel;
+        synchronized (this) {
+            if (!unsynced || logChannel == null || !logChannel.isOpen()) {
+                return;
+            }
+            channel = logChannel;
+            unsynced = false;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the log was moved aside by compaction, which fsynced it before closing
+        } catch (IOException e) {
+            log.error("Failed to fsync bulletin state log in {}", directory, e);
+            synchronized (this) {
+                unsynced = true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // a compaction that is in progress is finished
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Bulletin state compaction did not finish in time, it continues after restart");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        synchronized (this) {
+            try {
+                logChannel.close();
+            } catch (IOException e) {
+                log.error("Failed to close bulletin state log in {}", directory, e);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        long startTime = System.currentTimeMillis();
+        Files.createDirectories(directory);
+
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        int snapshotRecords = 0;
+        if (Files.exists(snapshotPath)) {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(snapshotPath))) {
+                BulletinStateCodec.Record record;
+                while ((record = BulletinStateCodec.read(input, tripTemplates)) != null) {
+                    bulletins.put(record.bulletinId, new Entry(record));
+                    snapshotRecords++;
+                }
+            } catch (IOException e) {
+                log.error("Failed to read bulletin state snapshot {}, continuing with {} bulletins",
+                        snapshotPath, bulletins.size(), e);
+            }
+        }
+
+        // moved aside by a compaction that did not finish, new records were not written to it after that
+        Path previousLogPath = directory.resolve(PREVIOUS_LOG_FILE);
+        if (Files.exists(previousLogPath)) {
+            replayLog(previousLogPath, Files.size(previousLogPath));
+        }
+
+        Path logPath = directory.resolve(LOG_FILE);
+        logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long logSize = logChannel.size();
+        long validLength = replayLog(logPath, logSize);
+        if (validLength < logSize) {
+            log.warn("Dropping {} bytes of incomplete records at the end of bulletin state log {}",
+                    logSize - validLength, logPath);
+            logChannel.truncate(validLength);
+            logChannel.force(true);
+        }
+        logChannel.position(validLength);
+
+        long now = clock.millis();
+        bulletins.values().removeIf(entry -> isExpired(entry, now));
+        log.info("Recovered {} bulletins from {} ({} snapshot records, {} log bytes) in {} ms", bulletins.size(),
+                directory, snapshotRecords, validLength, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return length of the log up to the end of the last complete record
+     */
+    private long replayLog(Path logPath, long logSize) throws IOException {
+        if (logSize == 0) {
+            return 0;
+        }
+        // log is kept small by compaction, so it is read into memory at once
+        byte[] logBytes = Files.readAllBytes(logPath);
+        ByteArrayInputStream input = new ByteArrayInputStream(logBytes);
+        long validLength = 0;
+        try {
+            BulletinStateCodec.Record record;
+            while ((record = BulletinStateCodec.read(input, tripTemplates)) != null) {
+                bulletins.put(record.bulletinId, new Entry(record));
+                validLength = logBytes.length - input.available();
+            }
+        } catch (IOException e) {
+            log.warn("Bulletin state log {} ends with an invalid record: {}", logPath, e.getMessage());
+        }
+        return validLength;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - Math.max(entry.record.updatedAt, entry.accessedAt) > expireAfterMillis;
+    }
+
+    /**
+     * State of a bulletin and when it was last read. Guarded by the lock of the store.
+     */
+    private static class Entry {
+        final BulletinStateCodec.Record record;
+        long accessedAt;
+
+        Entry(BulletinStateCodec.Record record) {
+            this.record = record;
+            this.accessedAt = record.updatedAt;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Records hits and misses of another store, and reports the number of bulletins, their trips and estimated heap use
+ * of their states. Sizes are computed from the stored states when metrics are scraped.
+ */
+public class MeteredBulletinStateStore implements BulletinStateStore {
+
+    private final BulletinStateStore store;
+    private final Counter hits;
+    private final Counter misses;
+
+    public MeteredBulletinStateStore(BulletinStateStore store, MeterRegistry registry) {
+        this.store = store;
+        this.hits = Counter.builder("cancellation.state.requests")
+                .description("Previous versions of bulletins looked up from the state store")
+                .tag("result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("cancellation.state.requests")
+                .description("Previous versions of bulletins looked up from the state store")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("cancellation.state.bulletins", this, metered -> metered.values().size())
+                .description("Bulletins in the state store")
+                .register(registry);
+        Gauge.builder("cancellation.state.trips", this, metered -> sum(metered.values(), false))
+                .description("Cancelled trips of all bulletins in the state store")
+                .register(registry);
+        Gauge.builder("cancellation.state.heap", this, metered -> sum(metered.values(), true))
+                .description("Estimated heap use of bulletin states, excluding shared trip templates")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @Override
+    public BulletinState get(String bulletinId) {
+        BulletinState state = store.get(bulletinId);
+        if (state != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return state;
+    }
+
+    @Override
+    public void put(String bulletinId, BulletinState state) {
+        store.put(bulletinId, state);
+    }
+
+    @Override
+    public BulletinState compute(String bulletinId, UnaryOperator<BulletinState> remappingFunction) {
+        return store.compute(bulletinId, state -> {
+            if (state != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+            }
+            return remappingFunction.apply(state);
+        });
+    }
+
+    @Override
+    public BulletinState.Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        return store.diff(previous, cancellations);
+    }
+
+    @Override
+    public Collection<BulletinState> values() {
+        return store.values();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private static double sum(Collection<BulletinState> states, boolean bytes) {
+        long sum = 0;
+        for (BulletinState state : states) {
+            sum += bytes ? state.getEstimatedSizeBytes() : state.size();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,143 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import com.typesafe.config.Config;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.SubscriptionInitialPosition;
+import org.apache.pulsar.client.api.SubscriptionMode;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.apache.pulsar.client.impl.ConsumerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State topic on Pulsar. Records are written with the bulletin id as message key, so that topic compaction keeps
+ * only the latest state of each bulletin, and removed bulletins are written as null values that compaction drops.
+ *
+ * Records are read from the earliest message in a background thread, on a non-durable exclusive subscription of each
+ * instance that reads the compacted topic. Compacted reads require an exclusive or failover subscription, and each
+ * instance must receive every record, so the subscription type is exclusive. The topic must not be partitioned.
+ */
+public class PulsarStateTopic implements StateTopic {
+
+    private static final Logger log = LoggerFactory.getLogger(PulsarStateTopic.class);
+
+    static final String KEY_WRITER_ID = "state-writer-id";
+    private static final String SUBSCRIPTION_PREFIX = "cancellation-processor-state-";
+    private static final int READ_TIMEOUT_MS = 100;
+
+    private final String writerId;
+    private final Producer<byte[]> producer;
+    private final Consumer<byte[]> consumer;
+    private final Queue<CompletableFuture<Void>> pendingCatchUps = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private Thread readerThread;
+
+    public PulsarStateTopic(PulsarClient client, String topic, String writerId) throws PulsarClientException {
+        this.writerId = writerId;
+        this.producer = client.newProducer()
+                .topic(topic)
+                .blockIfQueueFull(true)
+                .create();
+        this.consumer = client.newConsumer()
+                .topic(topic)
+                .subscriptionName(SUBSCRIPTION_PREFIX + writerId)
+                .subscriptionType(SubscriptionType.Exclusive)
+                .subscriptionMode(SubscriptionMode.NonDurable)
+                .subscriptionInitialPosition(SubscriptionInitialPosition.Earliest)
+                .readCompacted(true)
+                .subscribe();
+        if (!(consumer instanceof ConsumerImpl)) {
+            consumer.close();
+            producer.close();
+            throw new IllegalArgumentException("Bulletin state topic " + topic + " must not be partitioned");
+        }
+    }
+
+    public static PulsarStateTopic newInstance(Config config, PulsarClient client) throws PulsarClientException {
+        return new PulsarStateTopic(client, config.getString("state.replication.topic"), UUID.randomUUID().toString());
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        readerThread = new Thread(() -> read(listener), "bulletin-state-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String key, byte[] value) {
+        return producer.newMessage()
+                .key(key)
+                .value(value)
+                .property(KEY_WRITER_ID, writerId)
+                .sendAsync()
+                .thenApply(messageId -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> catchUp() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingCatchUps.add(future);
+        return future;
+    }
+
+    private void read(Listener listener) {
+        while (running) {
+            try {
+                Message<byte[]> message = consumer.receive(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (message != null) {
+                    if (!writerId.equals(message.getProperty(KEY_WRITER_ID))) {
+                        // value is null for a removed bulletin
+                        listener.onRecord(message.getKey(), message.getValue());
+                    }
+                    consumer.acknowledgeAsync(message);
+                } else if (!pendingCatchUps.isEmpty() && !hasMessageAvailable()) {
+                    CompletableFuture<Void> future;
+                    while ((future = pendingCatchUps.poll()) != null) {
+                        future.complete(null);
+                    }
+                }
+            } catch (PulsarClientException e) {
+                if (running) {
+                    log.error("Failed to read bulletin state topic", e);
+                }
+            } catch (Exception e) {
+                log.error("Failed to apply bulletin state record", e);
+            }
+        }
+    }
+
+    /**
+     * Consumer interface does not have the check that readers use, which takes topic compaction into account, e.g.
+     * a removed bulletin that was the last message and has been dropped by compaction.
+     */
+    private boolean hasMessageAvailable() throws PulsarClientException {
+        return ((ConsumerImpl<byte[]>) consumer).hasMessageAvailable();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (readerThread != null) {
+                readerThread.join(READ_TIMEOUT_MS * 10);
+            }
+            producer.close();
+            consumer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to close bulletin state topic", e);
+        }
+    }
+}
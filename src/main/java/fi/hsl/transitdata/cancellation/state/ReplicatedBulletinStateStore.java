@@ -0,0 +1,207 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bulletin state store that replicates every change through a {@link StateTopic}, so that a standby instance keeps a
+ * warm copy of the state of the active instance.
+ *
+ * Instances consume the input topics with a failover subscription, so only one of them handles messages at a time.
+ * The instance that handles messages writes its changes to the state topic. Other instances apply those changes to
+ * their local store. When a standby instance starts to handle messages, it first reads the state topic to the end,
+ * and then continues from the state that the previous active instance left behind.
+ *
+ * Bulletins that have been neither read nor updated within the expiration time expire from the local store. The
+ * instance that handles messages then removes them from the state topic too, so that compaction drops them.
+ */
+public class ReplicatedBulletinStateStore implements BulletinStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicatedBulletinStateStore.class);
+
+    private static final Duration EXPIRATION_INTERVAL = Duration.ofMinutes(1);
+
+    private final BulletinStateStore local;
+    private final StateTopic stateTopic;
+    private final long expireAfterMillis;
+    private final Duration catchUpTimeout;
+    private final Clock clock;
+    // replicated states and states of this instance share the templates
+    private final TripTemplates tripTemplates = new TripTemplates();
+    // KEY: bulletinId, VALUE: when the bulletin was last read or updated, for removing expired bulletins from the topic
+    private final ConcurrentMap<String, Long> lastUsed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService expirationExecutor;
+
+    // true when the latest change seen was written by this instance
+    private volatile boolean writer;
+
+    public ReplicatedBulletinStateStore(BulletinStateStore local, StateTopic stateTopic, Duration expireAfter,
+                                        Duration catchUpTimeout, Clock clock) {
+        this.local = local;
+        this.stateTopic = stateTopic;
+        this.expireAfterMillis = expireAfter.toMillis();
+        this.catchUpTimeout = catchUpTimeout;
+        this.clock = clock;
+
+        stateTopic.subscribe(this::apply);
+        catchUp();
+
+        this.expirationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulletin-state-expiration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.min(expireAfterMillis, EXPIRATION_INTERVAL.toMillis());
+        expirationExecutor.scheduleWithFixedDelay(this::removeExpired, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public BulletinState get(String bulletinId) {
+        if (!writer) {
+            // taking over from another instance, changes it made just before stopping may still be on the way
+            catchUp();
+        }
+        BulletinState state = local.get(bulletinId);
+        if (state != null) {
+            lastUsed.put(bulletinId, clock.millis());
+        }
+        return state;
+    }
+
+    @Override
+    public void put(String bulletinId, BulletinState state) {
+        writer = true;
+        local.put(bulletinId, state);
+        publish(bulletinId, state);
+    }
+
+    /**
+     * Catches up with the state topic before computing, instead of while holding the lock of the store. Otherwise
+     * the default implementation would call {@link #get} with the lock held, and other threads would wait for the
+     * catch-up too.
+     */
+    @Override
+    public BulletinState compute(String bulletinId, UnaryOperator<BulletinState> remappingFunction) {
+        if (!writer) {
+            catchUp();
+        }
+        writer = true;
+        BulletinState state = local.compute(bulletinId, remappingFunction);
+        publish(bulletinId, state);
+        return state;
+    }
+
+    @Override
+    public BulletinState.Diff diff(BulletinState previous, List<CancellationData> cancellations) {
+        return BulletinState.diff(previous, cancellations, tripTemplates);
+    }
+
+    @Override
+    public Collection<BulletinState> values() {
+        return local.values();
+    }
+
+    boolean isWriter() {
+        return writer;
+    }
+
+    private void publish(String bulletinId, BulletinState state) {
+        long now = clock.millis();
+        byte[] record;
+        try {
+            record = BulletinStateCodec.encode(bulletinId, now, state);
+        } catch (IOException e) {
+            log.error("Failed to encode state of bulletin {}", bulletinId, e);
+            lastUsed.put(bulletinId, now);
+            return;
+        }
+        // published while holding the entry, so that a removal of the same bulletin is not published after it
+        lastUsed.compute(bulletinId, (id, previous) -> {
+            stateTopic.publish(bulletinId, record).exceptionally(throwable -> {
+                log.error("Failed to replicate state of bulletin {}", bulletinId, throwable);
+                return null;
+            });
+            return now;
+        });
+    }
+
+    /**
+     * Remove bulletins that have expired from the state topic. Only the instance that handles messages removes them,
+     * other instances forget them when the removal is replicated or when they expire locally.
+     */
+    void removeExpired() {
+        if (!writer) {
+            return;
+        }
+        long now = clock.millis();
+        for (String bulletinId : lastUsed.keySet()) {
+            lastUsed.computeIfPresent(bulletinId, (id, usedAt) -> {
+                if (now - usedAt <= expireAfterMillis) {
+                    return usedAt;
+                }
+                stateTopic.publish(bulletinId, null).exceptionally(throwable -> {
+                    log.error("Failed to remove expired bulletin {} from state topic", bulletinId, throwable);
+                    return null;
+                });
+                return null;
+            });
+        }
+    }
+
+    private void apply(String bulletinId, byte[] value) {
+        writer = false;
+        if (value == null) {
+            // local store expires the bulletin by itself, as it has not been used for as long
+            lastUsed.remove(bulletinId);
+            return;
+        }
+        try {
+            BulletinStateCodec.Record record = BulletinStateCodec.read(new ByteArrayInputStream(value), tripTemplates);
+            if (record == null || clock.millis() - record.updatedAt > expireAfterMillis) {
+                return;
+            }
+            local.put(record.bulletinId, record.state);
+            lastUsed.put(record.bulletinId, record.updatedAt);
+        } catch (IOException e) {
+            log.error("Failed to decode replicated state of bulletin {}", bulletinId, e);
+        }
+    }
+
+    private void catchUp() {
+        long startTime = System.currentTimeMillis();
+        try {
+            stateTopic.catchUp().get(catchUpTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            log.info("Caught up with bulletin state topic in {} ms", System.currentTimeMillis() - startTime);
+        } catch (TimeoutException e) {
+            log.warn("Bulletin state topic was not read to the end within {}, continuing with local state",
+                    catchUpTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to catch up with bulletin state topic", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        expirationExecutor.shutdownNow();
+        stateTopic.close();
+        local.close();
+    }
+}
@@ -0,0 +1,37 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keyed, compacted topic that bulletin state is replicated through. Each instance writes with its own writer id, and
+ * records written by the instance itself are not delivered back to it.
+ */
+public interface StateTopic extends AutoCloseable {
+
+    interface Listener {
+        /**
+         * Called for each record written by other instances, in topic order, starting from the beginning of the
+         * compacted topic. Value is null when the key has been removed.
+         */
+        void onRecord(String key, byte[] value);
+    }
+
+    /**
+     * Start delivering records to the listener.
+     */
+    void subscribe(Listener listener);
+
+    /**
+     * @param value record, or null to remove the key from the compacted topic
+     */
+    CompletableFuture<Void> publish(String key, byte[] value);
+
+    /**
+     * @return future that completes when every record written to the topic before this call has been delivered to the
+     * listener
+     */
+    CompletableFuture<Void> catchUp();
+
+    @Override
+    void close();
+}
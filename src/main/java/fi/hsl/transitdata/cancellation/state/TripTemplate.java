@@ -0,0 +1,86 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import java.util.Objects;
+
+/**
+ * Everything of a cancelled trip except its start date. The same departure of a route is cancelled on many days and
+ * in many bulletins, so templates are interned with {@link TripTemplates} and each cancellation refers to its template.
+ *
+ * Trip identifiers of mass cancellations end with '_' + start date. In that case only the part before it is kept in
+ * the template. Start dates that are not in 'YYYYMMDD' format are kept in the template as they are.
+ */
+final class TripTemplate {
+
+    // templates that this template is interned with, null if it is not interned
+    final TripTemplates owner;
+    // trip of the template, null if it is not interned
+    final TripTemplates.Trip trip;
+    final String routeId;
+    final int directionId;
+    final String startTime;
+    final String tripId;
+    final boolean tripIdDated;
+    final String dvjId;
+    final boolean dvjIdDated;
+    // null if the start date is packed into the trip key
+    final String startDate;
+
+    TripTemplate(TripTemplates owner, TripTemplates.Trip trip, String routeId, int directionId, String startTime,
+                 String tripId, boolean tripIdDated, String dvjId, boolean dvjIdDated, String startDate) {
+        this.owner = owner;
+        this.trip = trip;
+        this.routeId = routeId;
+        this.directionId = directionId;
+        this.startTime = startTime;
+        this.tripId = tripId;
+        this.tripIdDated = tripIdDated;
+        this.dvjId = dvjId;
+        this.dvjIdDated = dvjIdDated;
+        this.startDate = startDate;
+    }
+
+    String getRouteId() {
+        return routeId;
+    }
+
+    String getTripId(String date) {
+        return tripIdDated ? tripId + "_" + date : tripId;
+    }
+
+    String getDvjId(String date) {
+        if (dvjId == null) {
+            return null;
+        }
+        return dvjIdDated ? dvjId + "_" + date : dvjId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TripTemplate)) {
+            return false;
+        }
+        TripTemplate that = (TripTemplate) o;
+        return directionId == that.directionId
+                && tripIdDated == that.tripIdDated
+                && dvjIdDated == that.dvjIdDated
+                && routeId.equals(that.routeId)
+                && startTime.equals(that.startTime)
+                && tripId.equals(that.tripId)
+                && Objects.equals(dvjId, that.dvjId)
+                && Objects.equals(startDate, that.startDate);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = routeId.hashCode();
+        result = 31 * result + directionId;
+        result = 31 * result + startTime.hashCode();
+        result = 31 * result + tripId.hashCode();
+        result = 31 * result + Objects.hashCode(dvjId);
+        result = 31 * result + Objects.hashCode(startDate);
+        return result;
+    }
+}
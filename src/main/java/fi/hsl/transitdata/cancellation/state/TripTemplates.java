@@ -0,0 +1,90 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interned trip templates of one state store, so that states of the same store share the templates of their trips.
+ * Templates that are no longer referred to by any state are released. Each store has its own instance, and instances
+ * can be used from several threads.
+ *
+ * Each distinct trip gets an identifier that orders trips in {@link BulletinState}. Templates of the same trip that
+ * differ in other fields, e.g. start time, share the identifier, so that a changed trip is still the same trip when
+ * versions of a bulletin are compared.
+ */
+final class TripTemplates {
+
+    private final Cache<TripTemplate, TripTemplate> templates = Caffeine.newBuilder().weakValues().build();
+    private final Cache<Trip, Trip> trips = Caffeine.newBuilder().weakValues().build();
+    // the number of routes is small, so route identifiers are never released
+    private final ConcurrentMap<String, String> routeIds = new ConcurrentHashMap<>();
+    private final AtomicLong nextTripId = new AtomicLong();
+
+    /**
+     * @return interned template with the given fields
+     */
+    TripTemplate intern(String routeId, int directionId, String startTime, String tripId, boolean tripIdDated,
+                        String dvjId, boolean dvjIdDated, String startDate) {
+        TripTemplate template = new TripTemplate(null, null, routeId, directionId, startTime, tripId, tripIdDated,
+                dvjId, dvjIdDated, startDate);
+        return templates.get(template, key -> new TripTemplate(this, internTrip(key),
+                routeIds.computeIfAbsent(key.routeId, id -> id), key.directionId, key.startTime, key.tripId,
+                key.tripIdDated, key.dvjId, key.dvjIdDated, key.startDate));
+    }
+
+    /**
+     * @return template equal to the given one, interned with these templates
+     */
+    TripTemplate intern(TripTemplate template) {
+        if (template.owner == this) {
+            return template;
+        }
+        return intern(template.routeId, template.directionId, template.startTime, template.tripId,
+                template.tripIdDated, template.dvjId, template.dvjIdDated, template.startDate);
+    }
+
+    private Trip internTrip(TripTemplate template) {
+        Trip trip = new Trip(-1, template.tripId, template.tripIdDated, template.startDate);
+        return trips.get(trip, key -> new Trip(nextTripId.getAndIncrement(), key.tripId, key.dated, key.startDate));
+    }
+
+    /**
+     * Trip identifier without the start date that is packed into the trip key.
+     */
+    static final class Trip {
+        // unique while the trip is in use, orders trips in BulletinState
+        final long id;
+        private final String tripId;
+        private final boolean dated;
+        private final String startDate;
+
+        private Trip(long id, String tripId, boolean dated, String startDate) {
+            this.id = id;
+            this.tripId = tripId;
+            this.dated = dated;
+            this.startDate = startDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Trip)) {
+                return false;
+            }
+            Trip that = (Trip) o;
+            return dated == that.dated && tripId.equals(that.tripId) && Objects.equals(startDate, that.startDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * tripId.hashCode() + Boolean.hashCode(dated)) + Objects.hashCode(startDate);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory cache of trips by (route, service date) in front of another {@link TripInfoProvider}.
+ *
+ * Routes without trips are cached too, with a shorter expiration time. Entries are refreshed in the background once
+ * they are older than the refresh interval, while the previous value is still returned. Entries that are due for
+ * refresh at about the same time, e.g. those of one lookup, are reloaded with one call to the delegate. Concurrent
+ * requests for the same route and date share one load. Cache statistics are published as 'cache' metrics with
+ * cache=timetable.
+ *
+ * The last loaded trips of each route and date are also kept for a longer fallback period. If trips can not be loaded,
+ * e.g. while Digitransit API is down, the last loaded trips are returned instead, provided that they are known for
+ * every requested route and date.
+ */
+public class CachingTripInfoProvider implements TripInfoProvider, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingTripInfoProvider.class);
+
+    // how long refreshes are collected before reloading them together
+    private static final long RELOAD_BATCH_DELAY_MS = 50;
+
+    private final TripInfoProvider delegate;
+    private final ExecutorService loaderExecutor;
+    private final AsyncLoadingCache<RouteDay, List<InternalMessages.TripInfo>> cache;
+    // null if fallback is disabled
+    private final Cache<RouteDay, List<InternalMessages.TripInfo>> lastLoaded;
+
+    public CachingTripInfoProvider(TripInfoProvider delegate, Duration expireAfterWrite, Duration negativeExpireAfterWrite,
+                                   Duration refreshAfterWrite, long maximumSize) {
+        this(delegate, expireAfterWrite, negativeExpireAfterWrite, refreshAfterWrite, maximumSize, Duration.ZERO);
+    }
+
+    /**
+     * @param fallbackMaxAge last loaded trips are used for this long after loading them when new ones can not be
+     *                       loaded, zero disables fallback
+     */
+    public CachingTripInfoProvider(TripInfoProvider delegate, Duration expireAfterWrite, Duration negativeExpireAfterWrite,
+                                   Duration refreshAfterWrite, long maximumSize, Duration fallbackMaxAge) {
+        this.delegate = delegate;
+        this.lastLoaded = fallbackMaxAge.isZero()
+                ? null
+                : Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(fallbackMaxAge).build();
+        this.loaderExecutor = Executors.newCachedThreadPool(new LoaderThreadFactory());
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new TripInfoExpiry(expireAfterWrite, negativeExpireAfterWrite))
+                .refreshAfterWrite(refreshAfterWrite)
+                .executor(loaderExecutor)
+                .recordStats()
+                .buildAsync(new TripInfoLoader());
+    }
+
+    public static CachingTripInfoProvider newInstance(Config config, TripInfoProvider delegate,
+                                                      MeterRegistry registry) {
+        CachingTripInfoProvider provider = new CachingTripInfoProvider(
+                delegate,
+                config.getDuration("timetable.cache.expireAfterWrite"),
+                config.getDuration("timetable.cache.negativeExpireAfterWrite"),
+                config.getDuration("timetable.cache.refreshAfterWrite"),
+                config.getLong("timetable.cache.maximumSize"),
+                config.getDuration("timetable.cache.fallbackMaxAge"));
+        provider.bindTo(registry);
+        return provider;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "timetable");
+    }
+
+    @Override
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+        Set<RouteDay> keys = new LinkedHashSet<>();
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                keys.add(new RouteDay(routeId, date));
+            }
+        }
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> cached;
+        try {
+            cached = cache.getAll(keys).join();
+        } catch (CompletionException e) {
+            cached = getLastLoaded(keys);
+            if (cached == null) {
+                throw new RuntimeException("Failed to get trip data", e.getCause());
+            }
+            log.warn("Failed to get trip data, using last loaded trips of {} route-days", keys.size(), e.getCause());
+        }
+
+        // keep the order of requested keys
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        for (RouteDay key : keys) {
+            tripInfos.put(key, cached.get(key));
+        }
+
+        CacheStats stats = getStats();
+        log.info("Timetable cache: {} route-days requested. Total hits {}, misses {}, hit rate {}",
+                keys.size(), stats.hitCount(), stats.missCount(), String.format("%.2f", stats.hitRate()));
+        return tripInfos;
+    }
+
+    /**
+     * Trips are loaded from the delegate even if they are already cached, and replace the cached ones, so that they
+     * stay in the cache for the whole expiration time from now.
+     */
+    @Override
+    public void preload(List<String> routeIds, List<String> dates) {
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = delegate.getTripInfos(routeIds, dates);
+        cache.synchronous().putAll(tripInfos);
+        putLastLoaded(tripInfos);
+    }
+
+    /**
+     * @return last loaded trips, or null if they are not known for every key
+     */
+    private Map<RouteDay, List<InternalMessages.TripInfo>> getLastLoaded(Set<RouteDay> keys) {
+        if (lastLoaded == null) {
+            return null;
+        }
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = lastLoaded.getAllPresent(keys);
+        return tripInfos.size() == keys.size() ? tripInfos : null;
+    }
+
+    private void putLastLoaded(Map<? extends RouteDay, ? extends List<InternalMessages.TripInfo>> tripInfos) {
+        if (lastLoaded != null && tripInfos != null) {
+            lastLoaded.putAll(tripInfos);
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.synchronous().stats();
+    }
+
+    public long getSize() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    @Override
+    public void close() {
+        loaderExecutor.shutdownNow();
+        delegate.close();
+    }
+
+    private class TripInfoLoader implements AsyncCacheLoader<RouteDay, List<InternalMessages.TripInfo>> {
+
+        private final Object reloadLock = new Object();
+        // guarded by reloadLock
+        private Map<RouteDay, CompletableFuture<List<InternalMessages.TripInfo>>> pendingReloads = new LinkedHashMap<>();
+
+        @Override
+        public CompletableFuture<? extends List<InternalMessages.TripInfo>> asyncLoad(RouteDay key, Executor executor) {
+            return CompletableFuture.supplyAsync(() -> {
+                List<InternalMessages.TripInfo> tripInfos = delegate.getTripInfos(
+                        List.of(key.getRouteId()), List.of(key.getDate())).get(key);
+                if (lastLoaded != null && tripInfos != null) {
+                    lastLoaded.put(key, tripInfos);
+                }
+                return tripInfos;
+            }, executor);
+        }
+
+        /**
+         * Missing keys are loaded with one call to the delegate. Routes and dates of the keys are combined, and any
+         * extra combinations loaded are cached as well.
+         */
+        @Override
+        public CompletableFuture<? extends Map<? extends RouteDay, ? extends List<InternalMessages.TripInfo>>> asyncLoadAll(
+                Set<? extends RouteDay> keys, Executor executor) {
+            return CompletableFuture.supplyAsync(() -> loadAll(keys), executor);
+        }
+
+        /**
+         * Caffeine reloads each key separately, so keys are collected for a moment and then reloaded with one call to
+         * the delegate. Only the collected keys are replaced, other combinations of their routes and dates are
+         * discarded.
+         */
+        @Override
+        public CompletableFuture<? extends List<InternalMessages.TripInfo>> asyncReload(
+                RouteDay key, List<InternalMessages.TripInfo> oldValue, Executor executor) {
+            CompletableFuture<List<InternalMessages.TripInfo>> future = new CompletableFuture<>();
+            boolean first;
+            synchronized (reloadLock) {
+                first = pendingReloads.isEmpty();
+                CompletableFuture<List<InternalMessages.TripInfo>> pending = pendingReloads.putIfAbsent(key, future);
+                if (pending != null) {
+                    return pending;
+                }
+            }
+            if (first) {
+                CompletableFuture.delayedExecutor(RELOAD_BATCH_DELAY_MS, TimeUnit.MILLISECONDS, executor)
+                        .execute(this::reloadPending);
+            }
+            return future;
+        }
+
+        private void reloadPending() {
+            Map<RouteDay, CompletableFuture<List<InternalMessages.TripInfo>>> reloads;
+            synchronized (reloadLock) {
+                reloads = pendingReloads;
+                pendingReloads = new LinkedHashMap<>();
+            }
+            try {
+                Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = loadAll(reloads.keySet());
+                // route that is no longer found is removed from the cache
+                reloads.forEach((key, future) -> future.complete(tripInfos.get(key)));
+            } catch (RuntimeException e) {
+                // cached trips are kept
+                reloads.values().forEach(future -> future.completeExceptionally(e));
+            }
+        }
+
+        private Map<RouteDay, List<InternalMessages.TripInfo>> loadAll(Set<? extends RouteDay> keys) {
+            Set<String> routeIds = new LinkedHashSet<>();
+            Set<String> dates = new LinkedHashSet<>();
+            for (RouteDay key : keys) {
+                routeIds.add(key.getRouteId());
+                dates.add(key.getDate());
+            }
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos =
+                    delegate.getTripInfos(new ArrayList<>(routeIds), new ArrayList<>(dates));
+            putLastLoaded(tripInfos);
+            return tripInfos;
+        }
+    }
+
+    private static class TripInfoExpiry implements Expiry<RouteDay, List<InternalMessages.TripInfo>> {
+        private final long expireAfterWriteNanos;
+        private final long negativeExpireAfterWriteNanos;
+
+        TripInfoExpiry(Duration expireAfterWrite, Duration negativeExpireAfterWrite) {
+            this.expireAfterWriteNanos = expireAfterWrite.toNanos();
+            this.negativeExpireAfterWriteNanos = negativeExpireAfterWrite.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(RouteDay key, List<InternalMessages.TripInfo> value, long currentTime) {
+            return value.isEmpty() ? negativeExpireAfterWriteNanos : expireAfterWriteNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(RouteDay key, List<InternalMessages.TripInfo> value, long currentTime,
+                                      long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(RouteDay key, List<InternalMessages.TripInfo> value, long currentTime,
+                                    long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "timetable-loader-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
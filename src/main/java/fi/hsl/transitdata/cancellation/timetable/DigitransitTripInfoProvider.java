@@ -0,0 +1,45 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.digitransit.DigitransitClient;
+import fi.hsl.transitdata.cancellation.digitransit.TripInfoDecoder;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gets trips from Digitransit API.
+ */
+public class DigitransitTripInfoProvider implements TripInfoProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(DigitransitTripInfoProvider.class);
+
+    private final DigitransitClient client;
+    private final TripInfoDecoder decoder;
+
+    public DigitransitTripInfoProvider(DigitransitClient client, String timezone) {
+        this.client = client;
+        this.decoder = new TripInfoDecoder(timezone);
+    }
+
+    @Override
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+        Map<RouteDay, List<InternalMessages.TripInfo>> routes = client.getTripInfos(routeIds, dates, decoder);
+        log.info("Found {} routes (dates={}, routeIds={}, digitransitDeveloperApiUri={})",
+                routes.size(), dates, routeIds, client.getApiUri().startsWith("https://dev-api.digitransit.fi"));
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                RouteDay routeDay = new RouteDay(routeId, date);
+                tripInfos.put(routeDay, routes.getOrDefault(routeDay, Collections.emptyList()));
+            }
+        }
+        return tripInfos;
+    }
+}
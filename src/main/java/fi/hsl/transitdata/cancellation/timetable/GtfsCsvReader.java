@@ -0,0 +1,126 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal reader for GTFS text files (RFC 4180 CSV with a header row). Rows are read one at a time, so that large
+ * files such as stop_times.txt are never held in memory.
+ */
+class GtfsCsvReader implements Closeable {
+
+    private final BufferedReader reader;
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    GtfsCsvReader(InputStream inputStream) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 1 << 16);
+        String header = reader.readLine();
+        if (header == null) {
+            return;
+        }
+        if (header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+        List<String> names = new ArrayList<>();
+        parseLine(header, names);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+    }
+
+    boolean hasColumn(String name) {
+        return columns.containsKey(name);
+    }
+
+    /**
+     * Read the next row.
+     *
+     * @return false if there are no more rows
+     */
+    boolean next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+        } while (line.isEmpty());
+
+        // quoted values may contain line breaks
+        while (countQuotes(line) % 2 != 0) {
+            String continuation = reader.readLine();
+            if (continuation == null) {
+                break;
+            }
+            line = line + "\n" + continuation;
+        }
+
+        parseLine(line, values);
+        return true;
+    }
+
+    /**
+     * Value of the given column in the current row, or empty string if the column or value is missing.
+     */
+    String get(String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= values.size()) {
+            return "";
+        }
+        return values.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static int countQuotes(String line) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void parseLine(String line, List<String> output) {
+        output.clear();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                output.add(value.toString());
+                value.setLength(0);
+            } else if (c != '\r') {
+                value.append(c);
+            }
+        }
+        output.add(value.toString());
+    }
+}
@@ -0,0 +1,382 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.util.TimeUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Immutable in-memory index of a GTFS static feed, used to find trips of a route on a service date without calling
+ * Digitransit API.
+ *
+ * Trips of each route are stored in parallel arrays sorted by first departure time, so that trips within a time window
+ * are found with a binary search. Service calendars are resolved per trip when the index is queried.
+ */
+public class GtfsTimetableIndex {
+
+    private static final DateTimeFormatter GTFS_DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final Map<String, RouteTrips> routes;
+    private final ServiceCalendar calendar;
+    private final int numberOfTrips;
+
+    private GtfsTimetableIndex(Map<String, RouteTrips> routes, ServiceCalendar calendar, int numberOfTrips) {
+        this.routes = routes;
+        this.calendar = calendar;
+        this.numberOfTrips = numberOfTrips;
+    }
+
+    /**
+     * Load index from a GTFS zip file.
+     *
+     * @param gtfsZip path to GTFS zip containing routes.txt, trips.txt, stop_times.txt and calendar.txt and/or
+     *                calendar_dates.txt
+     * @param feedId  feed identifier that is added as prefix to route and trip identifiers (e.g. 'HSL')
+     */
+    public static GtfsTimetableIndex load(Path gtfsZip, String feedId) throws IOException {
+        try (ZipFile zipFile = new ZipFile(gtfsZip.toFile())) {
+            return new Loader(zipFile, feedId + ":").load();
+        }
+    }
+
+    /**
+     * Get trips of the route on the service date.
+     *
+     * @param routeId     route identifier with feed prefix (e.g. 'HSL:1001')
+     * @param serviceDate date as string, with format 'YYYYMMDD'
+     */
+    public List<InternalMessages.TripInfo> getTripInfos(String routeId, String serviceDate) {
+        return getTripInfos(routeId, serviceDate, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get trips of the route on the service date whose first departure is within [fromSecond, toSecond]. Times are
+     * seconds since the start of the service date and may exceed 24 hours.
+     *
+     * @param routeId     route identifier with feed prefix (e.g. 'HSL:1001')
+     * @param serviceDate date as string, with format 'YYYYMMDD'
+     * @return trip infos ordered by first departure time
+     */
+    public List<InternalMessages.TripInfo> getTripInfos(String routeId, String serviceDate, int fromSecond, int toSecond) {
+        RouteTrips routeTrips = routes.get(routeId);
+        if (routeTrips == null || fromSecond > toSecond) {
+            return Collections.emptyList();
+        }
+
+        LocalDate date = LocalDate.parse(serviceDate, GTFS_DATE_FORMATTER);
+        int epochDay = (int) date.toEpochDay();
+        int dayOfWeek = date.getDayOfWeek().getValue() - 1;
+
+        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>();
+        for (int i = routeTrips.firstIndexAtOrAfter(fromSecond);
+             i < routeTrips.size() && routeTrips.firstDepartures[i] <= toSecond; i++) {
+            if (calendar.isActive(routeTrips.serviceIndices[i], epochDay, dayOfWeek)) {
+                tripInfos.add(routeTrips.toTripInfo(i, serviceDate));
+            }
+        }
+        return tripInfos;
+    }
+
+    public int getNumberOfRoutes() {
+        return routes.size();
+    }
+
+    public int getNumberOfTrips() {
+        return numberOfTrips;
+    }
+
+    private static class RouteTrips {
+        final String routeId;
+        final int[] firstDepartures;
+        final int[] serviceIndices;
+        final byte[] directionIds;
+        final String[] tripIds;
+
+        RouteTrips(String routeId, int[] firstDepartures, int[] serviceIndices, byte[] directionIds, String[] tripIds) {
+            this.routeId = routeId;
+            this.firstDepartures = firstDepartures;
+            this.serviceIndices = serviceIndices;
+            this.directionIds = directionIds;
+            this.tripIds = tripIds;
+        }
+
+        int size() {
+            return firstDepartures.length;
+        }
+
+        int firstIndexAtOrAfter(int second) {
+            int low = 0;
+            int high = firstDepartures.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (firstDepartures[middle] < second) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        InternalMessages.TripInfo toTripInfo(int index, String serviceDate) {
+            InternalMessages.TripInfo.Builder builder = InternalMessages.TripInfo.newBuilder();
+            builder.setRouteId(routeId);
+            builder.setTripId(tripIds[index]);
+            builder.setOperatingDay(serviceDate);
+            builder.setStartTime(TimeUtils.getTimeAsString(firstDepartures[index]));
+            builder.setDirectionId(directionIds[index]);
+            return builder.build();
+        }
+    }
+
+    /**
+     * Weekly patterns from calendar.txt and exceptions from calendar_dates.txt, by service index.
+     */
+    private static class ServiceCalendar {
+        final int[] weekdayMasks;
+        final int[] startDays;
+        final int[] endDays;
+        final int[][] addedDays;
+        final int[][] removedDays;
+
+        ServiceCalendar(int[] weekdayMasks, int[] startDays, int[] endDays, int[][] addedDays, int[][] removedDays) {
+            this.weekdayMasks = weekdayMasks;
+            this.startDays = startDays;
+            this.endDays = endDays;
+            this.addedDays = addedDays;
+            this.removedDays = removedDays;
+        }
+
+        boolean isActive(int serviceIndex, int epochDay, int dayOfWeek) {
+            if (Arrays.binarySearch(removedDays[serviceIndex], epochDay) >= 0) {
+                return false;
+            }
+            if (Arrays.binarySearch(addedDays[serviceIndex], epochDay) >= 0) {
+                return true;
+            }
+            return epochDay >= startDays[serviceIndex] && epochDay <= endDays[serviceIndex]
+                    && (weekdayMasks[serviceIndex] & (1 << dayOfWeek)) != 0;
+        }
+    }
+
+    private static class Loader {
+        private static final String[] WEEKDAY_COLUMNS = {
+                "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday" };
+
+        private final ZipFile zipFile;
+        private final String prefix;
+
+        private final Map<String, Integer> serviceIndices = new HashMap<>();
+        private final List<int[]> servicePatterns = new ArrayList<>();
+        private final List<TreeSet<Integer>> addedDays = new ArrayList<>();
+        private final List<TreeSet<Integer>> removedDays = new ArrayList<>();
+
+        private final Map<String, Integer> tripIndices = new HashMap<>();
+        private final List<String> tripIds = new ArrayList<>();
+        private final List<String> tripRouteIds = new ArrayList<>();
+        private int[] tripServices = new int[1024];
+        private byte[] tripDirections = new byte[1024];
+
+        Loader(ZipFile zipFile, String prefix) {
+            this.zipFile = zipFile;
+            this.prefix = prefix;
+        }
+
+        GtfsTimetableIndex load() throws IOException {
+            loadCalendar();
+            loadCalendarDates();
+            loadTrips();
+            int[] firstDepartures = loadFirstDepartures();
+            return build(firstDepartures);
+        }
+
+        private void loadCalendar() throws IOException {
+            try (GtfsCsvReader reader = open("calendar.txt", false)) {
+                while (reader != null && reader.next()) {
+                    int serviceIndex = getServiceIndex(reader.get("service_id"));
+                    int weekdayMask = 0;
+                    for (int day = 0; day < WEEKDAY_COLUMNS.length; day++) {
+                        if ("1".equals(reader.get(WEEKDAY_COLUMNS[day]))) {
+                            weekdayMask |= 1 << day;
+                        }
+                    }
+                    servicePatterns.set(serviceIndex, new int[] {
+                            weekdayMask, parseEpochDay(reader.get("start_date")), parseEpochDay(reader.get("end_date")) });
+                }
+            }
+        }
+
+        private void loadCalendarDates() throws IOException {
+            try (GtfsCsvReader reader = open("calendar_dates.txt", false)) {
+                while (reader != null && reader.next()) {
+                    int serviceIndex = getServiceIndex(reader.get("service_id"));
+                    int epochDay = parseEpochDay(reader.get("date"));
+                    // exception_type 1 = service added, 2 = service removed
+                    if ("2".equals(reader.get("exception_type"))) {
+                        removedDays.get(serviceIndex).add(epochDay);
+                    } else {
+                        addedDays.get(serviceIndex).add(epochDay);
+                    }
+                }
+            }
+        }
+
+        private void loadTrips() throws IOException {
+            try (GtfsCsvReader reader = open("trips.txt", true)) {
+                while (reader.next()) {
+                    String tripId = reader.get("trip_id");
+                    if (tripIndices.containsKey(tripId)) {
+                        continue;
+                    }
+                    int tripIndex = tripIds.size();
+                    if (tripIndex == tripServices.length) {
+                        tripServices = Arrays.copyOf(tripServices, tripIndex * 2);
+                        tripDirections = Arrays.copyOf(tripDirections, tripIndex * 2);
+                    }
+                    tripIndices.put(tripId, tripIndex);
+                    tripIds.add(tripId);
+                    tripRouteIds.add(reader.get("route_id"));
+                    tripServices[tripIndex] = getServiceIndex(reader.get("service_id"));
+                    String directionId = reader.get("direction_id");
+                    tripDirections[tripIndex] = StringUtils.isEmpty(directionId) ? 0 : Byte.parseByte(directionId);
+                }
+            }
+        }
+
+        /**
+         * Departure time of the stop with the lowest stop_sequence, for each trip. -1 if trip has no stop times.
+         */
+        private int[] loadFirstDepartures() throws IOException {
+            int[] firstDepartures = new int[tripIds.size()];
+            int[] firstSequences = new int[tripIds.size()];
+            Arrays.fill(firstDepartures, -1);
+            Arrays.fill(firstSequences, Integer.MAX_VALUE);
+
+            try (GtfsCsvReader reader = open("stop_times.txt", true)) {
+                while (reader.next()) {
+                    Integer tripIndex = tripIndices.get(reader.get("trip_id"));
+                    if (tripIndex == null) {
+                        continue;
+                    }
+                    int stopSequence = Integer.parseInt(reader.get("stop_sequence"));
+                    if (stopSequence >= firstSequences[tripIndex]) {
+                        continue;
+                    }
+                    String departureTime = reader.get("departure_time");
+                    if (departureTime.isEmpty()) {
+                        departureTime = reader.get("arrival_time");
+                    }
+                    if (departureTime.isEmpty()) {
+                        continue;
+                    }
+                    firstSequences[tripIndex] = stopSequence;
+                    firstDepartures[tripIndex] = parseSeconds(departureTime);
+                }
+            }
+            return firstDepartures;
+        }
+
+        private GtfsTimetableIndex build(int[] firstDepartures) {
+            Map<String, List<Integer>> tripsByRoute = new HashMap<>();
+            int numberOfTrips = 0;
+            for (int tripIndex = 0; tripIndex < tripIds.size(); tripIndex++) {
+                if (firstDepartures[tripIndex] < 0) {
+                    continue;
+                }
+                tripsByRoute.computeIfAbsent(tripRouteIds.get(tripIndex), routeId -> new ArrayList<>()).add(tripIndex);
+                numberOfTrips++;
+            }
+
+            Map<String, RouteTrips> routes = new HashMap<>(tripsByRoute.size() * 2);
+            for (Map.Entry<String, List<Integer>> entry : tripsByRoute.entrySet()) {
+                // stable sort keeps the feed order of trips departing at the same time
+                List<Integer> tripIndicesOfRoute = entry.getValue();
+                tripIndicesOfRoute.sort((a, b) -> Integer.compare(firstDepartures[a], firstDepartures[b]));
+
+                int size = tripIndicesOfRoute.size();
+                int[] routeFirstDepartures = new int[size];
+                int[] routeServices = new int[size];
+                byte[] routeDirections = new byte[size];
+                String[] routeTripIds = new String[size];
+                for (int i = 0; i < size; i++) {
+                    int tripIndex = tripIndicesOfRoute.get(i);
+                    routeFirstDepartures[i] = firstDepartures[tripIndex];
+                    routeServices[i] = tripServices[tripIndex];
+                    routeDirections[i] = tripDirections[tripIndex];
+                    routeTripIds[i] = prefix + tripIds.get(tripIndex);
+                }
+                String routeId = prefix + entry.getKey();
+                routes.put(routeId, new RouteTrips(
+                        routeId, routeFirstDepartures, routeServices, routeDirections, routeTripIds));
+            }
+
+            return new GtfsTimetableIndex(routes, buildCalendar(), numberOfTrips);
+        }
+
+        private ServiceCalendar buildCalendar() {
+            int size = servicePatterns.size();
+            int[] weekdayMasks = new int[size];
+            int[] startDays = new int[size];
+            int[] endDays = new int[size];
+            int[][] added = new int[size][];
+            int[][] removed = new int[size][];
+            for (int i = 0; i < size; i++) {
+                int[] pattern = servicePatterns.get(i);
+                weekdayMasks[i] = pattern[0];
+                startDays[i] = pattern[1];
+                endDays[i] = pattern[2];
+                added[i] = addedDays.get(i).stream().mapToInt(Integer::intValue).toArray();
+                removed[i] = removedDays.get(i).stream().mapToInt(Integer::intValue).toArray();
+            }
+            return new ServiceCalendar(weekdayMasks, startDays, endDays, added, removed);
+        }
+
+        private int getServiceIndex(String serviceId) {
+            return serviceIndices.computeIfAbsent(serviceId, id -> {
+                // services only defined in calendar_dates.txt have no weekly pattern
+                servicePatterns.add(new int[] { 0, Integer.MAX_VALUE, Integer.MIN_VALUE });
+                addedDays.add(new TreeSet<>());
+                removedDays.add(new TreeSet<>());
+                return servicePatterns.size() - 1;
+            });
+        }
+
+        private GtfsCsvReader open(String fileName, boolean required) throws IOException {
+            ZipEntry entry = zipFile.getEntry(fileName);
+            if (entry == null) {
+                if (required) {
+                    throw new IOException("GTFS file " + fileName + " is missing from " + zipFile.getName());
+                }
+                return null;
+            }
+            InputStream inputStream = zipFile.getInputStream(entry);
+            return new GtfsCsvReader(inputStream);
+        }
+
+        private static int parseEpochDay(String date) {
+            return (int) LocalDate.parse(date.trim(), GTFS_DATE_FORMATTER).toEpochDay();
+        }
+
+        /**
+         * Parse GTFS time (e.g. '25:10:00') as seconds since the start of the service date.
+         */
+        static int parseSeconds(String time) {
+            String[] parts = time.trim().split(":");
+            return Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 + Integer.parseInt(parts[2]);
+        }
+    }
+}
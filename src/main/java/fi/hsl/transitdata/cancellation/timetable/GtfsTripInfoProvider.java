@@ -0,0 +1,114 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets trips from a local GTFS static feed instead of Digitransit API.
+ *
+ * The feed is loaded into a {@link GtfsTimetableIndex} at startup. The file is checked periodically in the background
+ * and the index is replaced when the file has been modified. If loading the new feed fails, the previous index is
+ * kept.
+ */
+public class GtfsTripInfoProvider implements TripInfoProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(GtfsTripInfoProvider.class);
+
+    private final Path gtfsPath;
+    private final String feedId;
+    private final ScheduledExecutorService reloadExecutor;
+
+    private volatile GtfsTimetableIndex index;
+    private volatile FileTime loadedModifiedTime;
+
+    public GtfsTripInfoProvider(Path gtfsPath, String feedId, Duration reloadInterval) throws IOException {
+        this.gtfsPath = gtfsPath;
+        this.feedId = feedId;
+        load();
+
+        this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gtfs-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!reloadInterval.isZero()) {
+            long intervalMillis = reloadInterval.toMillis();
+            reloadExecutor.scheduleWithFixedDelay(this::reloadIfModified, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static GtfsTripInfoProvider newInstance(Config config) throws IOException {
+        return new GtfsTripInfoProvider(
+                Paths.get(config.getString("timetable.gtfs.path")),
+                config.getString("timetable.gtfs.feedId"),
+                config.getDuration("timetable.gtfs.reloadInterval"));
+    }
+
+    @Override
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+        GtfsTimetableIndex currentIndex = index;
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                tripInfos.put(new RouteDay(routeId, date), currentIndex.getTripInfos(routeId, date));
+            }
+        }
+        return tripInfos;
+    }
+
+    public GtfsTimetableIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Load the feed again if the file has been modified since it was last loaded.
+     *
+     * @return true if a new index was loaded
+     */
+    boolean reloadIfModified() {
+        try {
+            if (Files.getLastModifiedTime(gtfsPath).equals(loadedModifiedTime)) {
+                return false;
+            }
+            load();
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to reload GTFS feed from {}, keeping the previous timetable", gtfsPath, e);
+            return false;
+        }
+    }
+
+    private void load() throws IOException {
+        long startTime = System.currentTimeMillis();
+        FileTime modifiedTime = Files.getLastModifiedTime(gtfsPath);
+        GtfsTimetableIndex newIndex = GtfsTimetableIndex.load(gtfsPath, feedId);
+        index = newIndex;
+        loadedModifiedTime = modifiedTime;
+        log.info("Loaded GTFS feed from {} in {} ms: {} routes, {} trips (modified {})", gtfsPath,
+                System.currentTimeMillis() - startTime, newIndex.getNumberOfRoutes(), newIndex.getNumberOfTrips(),
+                modifiedTime);
+    }
+
+    @Override
+    public void close() {
+        reloadExecutor.shutdownNow();
+    }
+}
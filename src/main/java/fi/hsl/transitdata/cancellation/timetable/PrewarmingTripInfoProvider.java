@@ -0,0 +1,196 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Loads timetables of upcoming service dates into another {@link TripInfoProvider} once a day at a quiet hour, so that
+ * mass cancellations arriving e.g. in the morning rush do not have to wait for Digitransit.
+ *
+ * Timetables are loaded for the configured routes, and for the routes that have been looked up most often, i.e. the
+ * routes that appear most often in mass cancellation bulletins.
+ */
+public class PrewarmingTripInfoProvider implements TripInfoProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(PrewarmingTripInfoProvider.class);
+
+    // routes are loaded in parts, so that one failed request does not prevent loading the others
+    static final int ROUTES_PER_LOAD = 50;
+
+    private final TripInfoProvider delegate;
+    private final LocalTime at;
+    private final int days;
+    private final int maxRoutes;
+    private final List<String> routeIds;
+    private final ZoneId timezone;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+
+    // KEY: routeId, VALUE: number of lookups that included the route
+    private final Map<String, Long> lookupsByRoute = new ConcurrentHashMap<>();
+
+    /**
+     * @param at        local time of day when timetables are loaded
+     * @param days      number of service dates to load, starting from the current date
+     * @param maxRoutes maximum number of most often looked up routes to load
+     * @param routeIds  routes that are always loaded, with 'HSL:' prefix
+     */
+    public PrewarmingTripInfoProvider(TripInfoProvider delegate, LocalTime at, int days, int maxRoutes,
+                                      List<String> routeIds, String timezone, Clock clock) {
+        this.delegate = delegate;
+        this.at = at;
+        this.days = days;
+        this.maxRoutes = maxRoutes;
+        this.routeIds = routeIds;
+        this.timezone = ServiceTime.zone(timezone);
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timetable-prewarmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PrewarmingTripInfoProvider newInstance(Config config, TripInfoProvider delegate, String timezone) {
+        List<String> routeIds = Arrays.stream(config.getString("timetable.prewarm.routes").split(","))
+                .map(String::trim)
+                .filter(routeId -> !routeId.isEmpty())
+                .map(routeId -> routeId.startsWith("HSL:") ? routeId : "HSL:" + routeId)
+                .collect(Collectors.toList());
+        PrewarmingTripInfoProvider provider = new PrewarmingTripInfoProvider(
+                delegate,
+                LocalTime.parse(config.getString("timetable.prewarm.at")),
+                config.getInt("timetable.prewarm.days"),
+                config.getInt("timetable.prewarm.maxRoutes"),
+                routeIds,
+                timezone,
+                Clock.systemUTC());
+        provider.start();
+        return provider;
+    }
+
+    /**
+     * Schedule daily loading.
+     */
+    public void start() {
+        Duration delay = getDelayToNextRun();
+        log.info("Loading timetables of {} upcoming service dates daily at {}, next run in {}", days, at, delay);
+        scheduler.schedule(this::run, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+        for (String routeId : new LinkedHashSet<>(routeIds)) {
+            lookupsByRoute.merge(routeId, 1L, Long::sum);
+        }
+        return delegate.getTripInfos(routeIds, dates);
+    }
+
+    @Override
+    public void preload(List<String> routeIds, List<String> dates) {
+        delegate.preload(routeIds, dates);
+    }
+
+    private void run() {
+        try {
+            prewarm();
+        } catch (Exception e) {
+            log.error("Failed to load timetables of upcoming service dates", e);
+        } finally {
+            // rescheduled every time, so that the local time stays the same over daylight saving time changes
+            if (!scheduler.isShutdown()) {
+                scheduler.schedule(this::run, getDelayToNextRun().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Load timetables of upcoming service dates of the configured and most often looked up routes.
+     *
+     * @return number of route-days loaded
+     */
+    int prewarm() {
+        List<String> routes = getRoutesToLoad();
+        List<String> dates = getDatesToLoad();
+        if (routes.isEmpty()) {
+            log.info("No routes to load timetables for");
+            return 0;
+        }
+
+        long startTime = System.currentTimeMillis();
+        int loaded = 0;
+        for (int from = 0; from < routes.size(); from += ROUTES_PER_LOAD) {
+            List<String> part = routes.subList(from, Math.min(from + ROUTES_PER_LOAD, routes.size()));
+            try {
+                delegate.preload(part, dates);
+                loaded += part.size() * dates.size();
+            } catch (Exception e) {
+                log.warn("Failed to load timetables of routes {} on {}", part, dates, e);
+            }
+        }
+        log.info("Loaded timetables of {} routes on {}: {} route-days in {} ms", routes.size(), dates, loaded,
+                System.currentTimeMillis() - startTime);
+        return loaded;
+    }
+
+    /**
+     * @return configured routes followed by the most often looked up routes
+     */
+    List<String> getRoutesToLoad() {
+        Set<String> routes = new LinkedHashSet<>(routeIds);
+        lookupsByRoute.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(maxRoutes)
+                .forEach(entry -> routes.add(entry.getKey()));
+        return new ArrayList<>(routes);
+    }
+
+    /**
+     * @return current date and the following dates in 'YYYYMMDD' format
+     */
+    List<String> getDatesToLoad() {
+        LocalDate today = LocalDate.now(clock.withZone(timezone));
+        List<String> dates = new ArrayList<>(days);
+        for (int i = 0; i < days; i++) {
+            dates.add(Integer.toString(ServiceTime.toServiceDay(today.plusDays(i))));
+        }
+        return dates;
+    }
+
+    Duration getDelayToNextRun() {
+        ZonedDateTime now = ZonedDateTime.now(clock.withZone(timezone));
+        ZonedDateTime next = now.toLocalDate().atTime(at).atZone(timezone);
+        if (!next.isAfter(now)) {
+            next = now.toLocalDate().plusDays(1).atTime(at).atZone(timezone);
+        }
+        return Duration.between(now, next);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        delegate.close();
+    }
+}
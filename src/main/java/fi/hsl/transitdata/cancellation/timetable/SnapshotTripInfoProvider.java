@@ -0,0 +1,186 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link TimetableSnapshot} of trips loaded from another {@link TripInfoProvider}, so that a restarted
+ * processor does not have to load the whole timetable again before it can handle a mass cancellation.
+ *
+ * Each (route, service date) is served from the snapshot only the first time it is requested after startup. Later
+ * requests, e.g. cache refreshes, go to the delegate. Newly loaded trips are written to a new snapshot periodically in
+ * the background and when the provider is closed. Service dates before yesterday are dropped from the snapshot.
+ */
+public class SnapshotTripInfoProvider implements TripInfoProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotTripInfoProvider.class);
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final TripInfoProvider delegate;
+    private final Path snapshotPath;
+    private final ZoneId timezone;
+    private final Clock clock;
+    private final ScheduledExecutorService writerExecutor;
+
+    private final Set<RouteDay> servedFromSnapshot = ConcurrentHashMap.newKeySet();
+    private final Map<RouteDay, List<InternalMessages.TripInfo>> loaded = new ConcurrentHashMap<>();
+    private volatile TimetableSnapshot snapshot;
+
+    public SnapshotTripInfoProvider(TripInfoProvider delegate, Path snapshotPath, Duration maxAge,
+                                    Duration writeInterval, String timezone, Clock clock) {
+        this.delegate = delegate;
+        this.snapshotPath = snapshotPath;
+        this.timezone = ServiceTime.zone(timezone);
+        this.clock = clock;
+        this.snapshot = openSnapshot(maxAge);
+
+        this.writerExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timetable-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!writeInterval.isZero()) {
+            long intervalMillis = writeInterval.toMillis();
+            writerExecutor.scheduleWithFixedDelay(this::writeSnapshot, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static SnapshotTripInfoProvider newInstance(Config config, TripInfoProvider delegate, String timezone) {
+        return new SnapshotTripInfoProvider(
+                delegate,
+                Paths.get(config.getString("timetable.snapshot.path")),
+                config.getDuration("timetable.snapshot.maxAge"),
+                config.getDuration("timetable.snapshot.writeInterval"),
+                timezone,
+                Clock.systemUTC());
+    }
+
+    @Override
+    public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+        TimetableSnapshot currentSnapshot = snapshot;
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> fromSnapshot = new HashMap<>();
+        Set<String> missingRouteIds = new LinkedHashSet<>();
+        Set<String> missingDates = new LinkedHashSet<>();
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                RouteDay routeDay = new RouteDay(routeId, date);
+                List<InternalMessages.TripInfo> tripInfos = currentSnapshot == null || servedFromSnapshot.contains(routeDay)
+                        ? null : currentSnapshot.get(routeDay);
+                if (tripInfos != null) {
+                    fromSnapshot.put(routeDay, tripInfos);
+                    servedFromSnapshot.add(routeDay);
+                } else {
+                    missingRouteIds.add(routeId);
+                    missingDates.add(date);
+                }
+            }
+        }
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> fromDelegate = missingRouteIds.isEmpty()
+                ? Map.of()
+                : delegate.getTripInfos(new ArrayList<>(missingRouteIds), new ArrayList<>(missingDates));
+        loaded.putAll(fromDelegate);
+        if (!fromSnapshot.isEmpty()) {
+            log.info("Timetable snapshot: {} route-days served from snapshot, {} loaded", fromSnapshot.size(),
+                    fromDelegate.size());
+        }
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+        for (String date : dates) {
+            for (String routeId : routeIds) {
+                RouteDay routeDay = new RouteDay(routeId, date);
+                List<InternalMessages.TripInfo> tripInfosOfRouteDay = fromDelegate.get(routeDay);
+                tripInfos.put(routeDay, tripInfosOfRouteDay != null ? tripInfosOfRouteDay : fromSnapshot.get(routeDay));
+            }
+        }
+        return tripInfos;
+    }
+
+    /**
+     * Write trips loaded since the previous snapshot, together with the still relevant entries of the previous
+     * snapshot, into a new snapshot.
+     */
+    synchronized void writeSnapshot() {
+        if (loaded.isEmpty()) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            int oldestDate = Integer.parseInt(LocalDate.now(clock.withZone(timezone)).minusDays(1).format(DATE_FORMATTER));
+
+            Map<RouteDay, List<InternalMessages.TripInfo>> newLoaded = new HashMap<>(loaded);
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new HashMap<>();
+            TimetableSnapshot currentSnapshot = snapshot;
+            if (currentSnapshot != null) {
+                currentSnapshot.forEach(tripInfos::put);
+            }
+            tripInfos.putAll(newLoaded);
+            tripInfos.keySet().removeIf(routeDay -> Integer.parseInt(routeDay.getDate()) < oldestDate);
+
+            TimetableSnapshot.write(snapshotPath, tripInfos, clock.millis());
+            snapshot = TimetableSnapshot.open(snapshotPath);
+            newLoaded.forEach(loaded::remove);
+            log.info("Wrote timetable snapshot with {} route-days to {} in {} ms", tripInfos.size(), snapshotPath,
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("Failed to write timetable snapshot to {}", snapshotPath, e);
+        }
+    }
+
+    TimetableSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private TimetableSnapshot openSnapshot(Duration maxAge) {
+        if (!Files.exists(snapshotPath)) {
+            log.info("Timetable snapshot {} does not exist", snapshotPath);
+            return null;
+        }
+        try {
+            TimetableSnapshot openedSnapshot = TimetableSnapshot.open(snapshotPath);
+            Duration age = Duration.ofMillis(clock.millis() - openedSnapshot.getCreatedAt());
+            if (age.compareTo(maxAge) > 0) {
+                log.info("Timetable snapshot {} is too old ({}), not using it", snapshotPath, age);
+                return null;
+            }
+            log.info("Opened timetable snapshot {} with {} route-days (age {})", snapshotPath, openedSnapshot.size(), age);
+            return openedSnapshot;
+        } catch (Exception e) {
+            log.warn("Failed to open timetable snapshot {}, not using it", snapshotPath, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        writerExecutor.shutdownNow();
+        writeSnapshot();
+        delegate.close();
+    }
+}
@@ -0,0 +1,305 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only binary snapshot of trips by (route, service date), opened with memory-mapped I/O.
+ *
+ * Lookups are binary searches directly on the mapped file, so opening a snapshot does not parse it. TripInfo objects
+ * are only created for the requested (route, service date).
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header:  int magic, int version, long createdAt (epoch millis), int routeCount, int entryCount
+ * routes:  routeCount * int offset of route id, sorted by route id
+ * entries: entryCount * (int routeIndex, int date as yyyyMMdd, int offset of first trip, int tripCount),
+ *          sorted by route index and date
+ * data:    route ids as (short length, UTF-8 bytes)
+ *          trips as (short tripId length, UTF-8 bytes, short start time as HHmm, byte directionId)
+ * </pre>
+ */
+public class TimetableSnapshot {
+
+    private static final int MAGIC = 0x54545331; // "TTS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int ROUTE_SIZE = 4;
+    private static final int ENTRY_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final long createdAt;
+    private final int routeCount;
+    private final int entryCount;
+    private final int entriesStart;
+
+    private TimetableSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a timetable snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported timetable snapshot version " + buffer.getInt(4));
+        }
+        this.createdAt = buffer.getLong(8);
+        this.routeCount = buffer.getInt(16);
+        this.entryCount = buffer.getInt(20);
+        this.entriesStart = HEADER_SIZE + routeCount * ROUTE_SIZE;
+        if (routeCount < 0 || entryCount < 0
+                || (long) entriesStart + (long) entryCount * ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Timetable snapshot is truncated");
+        }
+    }
+
+    /**
+     * Open snapshot file with memory-mapped I/O.
+     */
+    public static TimetableSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TimetableSnapshot(buffer);
+        }
+    }
+
+    /**
+     * Write snapshot of the given trips. The file is first written to a temporary file in the same directory and
+     * then moved over the previous snapshot, so that readers never see a partially written file.
+     */
+    public static void write(Path path, Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos, long createdAt)
+            throws IOException {
+        byte[] content = serialize(tripInfos, createdAt);
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporaryFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                ByteBuffer source = ByteBuffer.wrap(content);
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+                channel.force(true);
+            }
+            Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Get trips of the route on the service date.
+     *
+     * @return trip infos, or null if the snapshot does not contain the route and date
+     */
+    public List<InternalMessages.TripInfo> get(RouteDay routeDay) {
+        int routeIndex = findRoute(routeDay.getRouteId().getBytes(StandardCharsets.UTF_8));
+        if (routeIndex < 0) {
+            return null;
+        }
+        int entry = findEntry(routeIndex, Integer.parseInt(routeDay.getDate()));
+        if (entry < 0) {
+            return null;
+        }
+        return readTrips(routeDay, entry);
+    }
+
+    /**
+     * Read every (route, service date) of the snapshot, in route and date order.
+     */
+    public void forEach(BiConsumer<RouteDay, List<InternalMessages.TripInfo>> consumer) {
+        for (int entry = 0; entry < entryCount; entry++) {
+            int position = entriesStart + entry * ENTRY_SIZE;
+            String routeId = readString(buffer.getInt(HEADER_SIZE + buffer.getInt(position) * ROUTE_SIZE));
+            RouteDay routeDay = new RouteDay(routeId, String.valueOf(buffer.getInt(position + 4)));
+            consumer.accept(routeDay, readTrips(routeDay, entry));
+        }
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    private int findRoute(byte[] routeId) {
+        int low = 0;
+        int high = routeCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareString(buffer.getInt(HEADER_SIZE + middle * ROUTE_SIZE), routeId);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int findEntry(int routeIndex, int date) {
+        long key = entryKey(routeIndex, date);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = entriesStart + middle * ENTRY_SIZE;
+            long middleKey = entryKey(buffer.getInt(position), buffer.getInt(position + 4));
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private List<InternalMessages.TripInfo> readTrips(RouteDay routeDay, int entry) {
+        int position = entriesStart + entry * ENTRY_SIZE;
+        int offset = buffer.getInt(position + 8);
+        int tripCount = buffer.getInt(position + 12);
+        if (tripCount == 0) {
+            return Collections.emptyList();
+        }
+
+        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>(tripCount);
+        for (int i = 0; i < tripCount; i++) {
+            int length = Short.toUnsignedInt(buffer.getShort(offset));
+            String tripId = readString(offset);
+            offset += 2 + length;
+            int startTime = buffer.getShort(offset);
+            int directionId = buffer.get(offset + 2);
+            offset += 3;
+
+            InternalMessages.TripInfo.Builder builder = InternalMessages.TripInfo.newBuilder();
+            builder.setRouteId(routeDay.getRouteId());
+            builder.setTripId(tripId);
+            builder.setOperatingDay(routeDay.getDate());
+            builder.setStartTime(formatStartTime(startTime));
+            builder.setDirectionId(directionId);
+            tripInfos.add(builder.build());
+        }
+        return tripInfos;
+    }
+
+    private String readString(int offset) {
+        int length = Short.toUnsignedInt(buffer.getShort(offset));
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compareString(int offset, byte[] other) {
+        int length = Short.toUnsignedInt(buffer.getShort(offset));
+        int common = Math.min(length, other.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(Byte.toUnsignedInt(buffer.get(offset + 2 + i)), Byte.toUnsignedInt(other[i]));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    private static long entryKey(int routeIndex, int date) {
+        return ((long) routeIndex << 32) | (date & 0xFFFFFFFFL);
+    }
+
+    private static String formatStartTime(int startTime) {
+        char[] chars = new char[4];
+        for (int i = 3; i >= 0; i--) {
+            chars[i] = (char) ('0' + startTime % 10);
+            startTime /= 10;
+        }
+        return new String(chars);
+    }
+
+    private static byte[] serialize(Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos, long createdAt)
+            throws IOException {
+        // routes sorted by UTF-8 bytes, the same order that is used in lookups
+        TreeMap<byte[], TreeMap<Integer, List<InternalMessages.TripInfo>>> routes = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map.Entry<RouteDay, List<InternalMessages.TripInfo>> entry : tripInfos.entrySet()) {
+            byte[] routeId = entry.getKey().getRouteId().getBytes(StandardCharsets.UTF_8);
+            routes.computeIfAbsent(routeId, key -> new TreeMap<>())
+                    .put(Integer.parseInt(entry.getKey().getDate()), entry.getValue());
+        }
+
+        int routeCount = routes.size();
+        int entryCount = tripInfos.size();
+        int dataStart = HEADER_SIZE + routeCount * ROUTE_SIZE + entryCount * ENTRY_SIZE;
+
+        ByteArrayOutputStream tablesBytes = new ByteArrayOutputStream(dataStart);
+        DataOutputStream tables = new DataOutputStream(tablesBytes);
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(dataBytes);
+
+        tables.writeInt(MAGIC);
+        tables.writeInt(VERSION);
+        tables.writeLong(createdAt);
+        tables.writeInt(routeCount);
+        tables.writeInt(entryCount);
+
+        for (byte[] routeId : routes.keySet()) {
+            tables.writeInt(dataStart + data.size());
+            writeBytes(data, routeId);
+        }
+
+        int routeIndex = 0;
+        for (TreeMap<Integer, List<InternalMessages.TripInfo>> dates : routes.values()) {
+            for (Map.Entry<Integer, List<InternalMessages.TripInfo>> entry : dates.entrySet()) {
+                tables.writeInt(routeIndex);
+                tables.writeInt(entry.getKey());
+                tables.writeInt(dataStart + data.size());
+                tables.writeInt(entry.getValue().size());
+                for (InternalMessages.TripInfo tripInfo : entry.getValue()) {
+                    writeBytes(data, tripInfo.getTripId().getBytes(StandardCharsets.UTF_8));
+                    data.writeShort(Integer.parseInt(tripInfo.getStartTime()));
+                    data.writeByte(tripInfo.getDirectionId());
+                }
+                if ((long) dataStart + data.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Timetable snapshot is too large");
+                }
+            }
+            routeIndex++;
+        }
+
+        tables.flush();
+        data.flush();
+        dataBytes.writeTo(tablesBytes);
+        return tablesBytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Identifier is too long for timetable snapshot");
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+}
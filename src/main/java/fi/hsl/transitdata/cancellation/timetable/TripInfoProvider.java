@@ -0,0 +1,42 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source of scheduled trips of routes. Implementation is selected with 'timetable.provider' in environment.conf.
+ */
+public interface TripInfoProvider extends AutoCloseable {
+
+    /**
+     * Get trip infos of the given routes on the given service dates. Trip infos are neither filtered by time nor
+     * deduplicated, see {@link fi.hsl.transitdata.cancellation.util.TripUtils}. Order of trip infos within one route
+     * and date is stable between calls.
+     *
+     * @param routeIds route identifiers with 'HSL:' prefix
+     * @param dates    dates as string, with format 'YYYYMMDD' (e.g. '20240131')
+     * @return trip infos for every combination of the given routes and dates, empty list if route has no trips
+     */
+    Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates);
+
+    /**
+     * Load trips of the given routes and dates ahead of time, so that later lookups of them are served locally. By
+     * default they are simply looked up, which is enough for providers that keep everything in memory.
+     *
+     * @param routeIds route identifiers with 'HSL:' prefix
+     * @param dates    dates as string, with format 'YYYYMMDD' (e.g. '20240131')
+     */
+    default void preload(List<String> routeIds, List<String> dates) {
+        getTripInfos(routeIds, dates);
+    }
+
+    /**
+     * Release resources used by the provider, e.g. background threads.
+     */
+    @Override
+    default void close() {
+    }
+}
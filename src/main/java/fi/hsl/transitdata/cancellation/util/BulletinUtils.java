@@ -1,7 +1,12 @@
 package fi.hsl.transitdata.cancellation.util;
 
 import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinScope;
 import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,11 +17,16 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 public class BulletinUtils {
     
     private static final Logger log = LoggerFactory.getLogger(BulletinUtils.class);
+    
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
 
     public static List<InternalMessages.Bulletin> filterMassCancellationsFromBulletins(List<InternalMessages.Bulletin> bulletins) {
         return bulletins.stream().filter(
@@ -29,39 +39,22 @@ public class BulletinUtils {
     // One cancellation contains one trip
     // A route consists of many trips
     public static List<CancellationData> createTripCancellations(
-            InternalMessages.Bulletin massCancellation, String timezone, String digitransitDeveloperApiUri) {
+            InternalMessages.Bulletin massCancellation, String timezone, TripInfoProvider tripInfoProvider) {
         List<CancellationData> tripCancellations = new ArrayList<>();
         
-        LocalDateTime validFrom = Instant.ofEpochMilli(
-                massCancellation.getValidFromUtcMs()).atZone(ZoneId.of(timezone)).toLocalDateTime();
-        
-        LocalDateTime validTo = Instant.ofEpochMilli(
-                massCancellation.getValidToUtcMs()).atZone(ZoneId.of(timezone)).toLocalDateTime();
+        ZoneId zone = ServiceTime.zone(timezone);
+        LocalDateTime validFrom = LocalDateTime.ofInstant(Instant.ofEpochMilli(massCancellation.getValidFromUtcMs()), zone);
+        LocalDateTime validTo = LocalDateTime.ofInstant(Instant.ofEpochMilli(massCancellation.getValidToUtcMs()), zone);
         
         List<String> routeIds = massCancellation.getAffectedRoutesList().stream().
                 map(InternalMessages.Bulletin.AffectedEntity::getEntityId).collect(Collectors.toList());
         
-        for (InternalMessages.TripInfo trip : TripUtils.getTripInfos(routeIds, validFrom, validTo, timezone, digitransitDeveloperApiUri)) {
-            InternalMessages.TripCancellation.Builder builder = InternalMessages.TripCancellation.newBuilder();
-            long deviationCaseId = InternalMessages.TripCancellation.DeviationCasesType.CANCEL_DEPARTURE.getNumber();
-            builder.setRouteId(removeHSLPrefixFromRouteId(trip.getRouteId()));
-            builder.setDirectionId(trip.getDirectionId() + 1);
-            builder.setStartDate(trip.getOperatingDay());
-            builder.setStartTime(formatTime(trip.getStartTime()));
-            builder.setStatus(InternalMessages.TripCancellation.Status.CANCELED);
-            builder.setSchemaVersion(builder.getSchemaVersion());
-            String dvjId = trip.getTripId();
-            builder.setTripId(dvjId);
-            builder.setTitle(massCancellation.getBulletinId());
-            
-            final InternalMessages.TripCancellation cancellation = builder.build();
-            
-            CancellationData data = new CancellationData(cancellation, massCancellation.getLastModifiedUtcMs(), dvjId, deviationCaseId);
-            tripCancellations.add(data);
+        for (InternalMessages.TripInfo trip : TripUtils.getTripInfos(routeIds, validFrom, validTo, tripInfoProvider)) {
+            tripCancellations.add(createTripCancellation(trip, massCancellation));
         }
         
         log.info("Added {} cancellations from mass cancellation bulletin.{}",
-                tripCancellations.size(), getBulletinLog(massCancellation, timezone));
+                tripCancellations.size(), getBulletinLog(massCancellation, validFrom, validTo));
         
         Set<String> originalRouteIdsSet = new HashSet<>(routeIds);
         java.util.Set<String> tripRouteIdsSet = tripCancellations.stream().map(x -> x.getPayload().getRouteId()).collect(Collectors.toSet());
@@ -74,6 +67,98 @@ public class BulletinUtils {
         return tripCancellations;
     }
     
+    /**
+     * Same as createTripCancellations method, except that trips of timetables that the previous version of the bulletin
+     * already covered are taken from its state, and only the timetables added to the bulletin are fetched. Trips of
+     * removed timetables are not needed, they are cancelled when the new version is compared to the state.
+     * @param previousScope scope of the previous version, or null to fetch every timetable
+     * @param previousState state of the previous version, it must have been created from the previous scope
+     */
+    public static List<CancellationData> createTripCancellations(
+            InternalMessages.Bulletin massCancellation, String timezone, TripInfoProvider tripInfoProvider,
+            BulletinScope previousScope, BulletinState previousState) {
+        if (previousScope == null || previousState == null) {
+            return createTripCancellations(massCancellation, timezone, tripInfoProvider);
+        }
+        BulletinScope scope = BulletinScope.of(massCancellation, ServiceTime.zone(timezone));
+        
+        Set<RouteDay> reused = new HashSet<>();
+        List<RouteDay> fetched = new ArrayList<>();
+        for (RouteDay routeDay : scope.getRouteDays()) {
+            (previousScope.covers(routeDay, scope) ? reused : fetched).add(routeDay);
+        }
+        
+        List<CancellationData> tripCancellations = new ArrayList<>(previousState.getCancellations(
+                (routeId, date) -> reused.contains(new RouteDay(TripUtils.addHSLPrefix(routeId), date)),
+                scope.getValidFromServiceTime(), scope.getValidToServiceTime(),
+                massCancellation.getLastModifiedUtcMs(), massCancellation.getBulletinId()));
+        int reusedCancellations = tripCancellations.size();
+        if (!fetched.isEmpty()) {
+            for (InternalMessages.TripInfo trip : TripUtils.getTripInfosOfRouteDays(
+                    fetched, scope.getValidFrom(), scope.getValidTo(), tripInfoProvider)) {
+                tripCancellations.add(createTripCancellation(trip, massCancellation));
+            }
+        }
+        
+        log.info("Bulletin {} modified: {} of {} route-days taken from the previous version ({} cancellations), "
+                        + "fetched {} route-days ({} cancellations).{}",
+                massCancellation.getBulletinId(), reused.size(), reused.size() + fetched.size(), reusedCancellations,
+                fetched.size(), tripCancellations.size() - reusedCancellations,
+                getBulletinLog(massCancellation, scope.getValidFrom(), scope.getValidTo()));
+        return tripCancellations;
+    }
+    
+    /**
+     * Fingerprint of the fields of a mass cancellation bulletin that affect its cancellations: affected routes,
+     * validity period and modification time. Order of the routes does not matter. Republished versions of the bulletin
+     * with the same fingerprint produce the same cancellations.
+     * @return 64-bit FNV-1a hash of the fields, never 0
+     */
+    public static long getFingerprint(InternalMessages.Bulletin massCancellation) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = fnv(hash, massCancellation.getLastModifiedUtcMs());
+        hash = fnv(hash, massCancellation.getValidFromUtcMs());
+        hash = fnv(hash, massCancellation.getValidToUtcMs());
+        SortedSet<String> routeIds = new TreeSet<>();
+        for (InternalMessages.Bulletin.AffectedEntity route : massCancellation.getAffectedRoutesList()) {
+            routeIds.add(TripUtils.addHSLPrefix(route.getEntityId()));
+        }
+        for (String routeId : routeIds) {
+            for (int i = 0; i < routeId.length(); i++) {
+                hash = (hash ^ routeId.charAt(i)) * FNV_PRIME;
+            }
+            // separator, so that routes cannot run together
+            hash = (hash ^ 0xFFFF) * FNV_PRIME;
+        }
+        return hash != 0 ? hash : 1;
+    }
+    
+    private static long fnv(long hash, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ (value >>> (i * 8) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+    
+    private static CancellationData createTripCancellation(
+            InternalMessages.TripInfo trip, InternalMessages.Bulletin massCancellation) {
+        InternalMessages.TripCancellation.Builder builder = InternalMessages.TripCancellation.newBuilder();
+        long deviationCaseId = InternalMessages.TripCancellation.DeviationCasesType.CANCEL_DEPARTURE.getNumber();
+        builder.setRouteId(removeHSLPrefixFromRouteId(trip.getRouteId()));
+        builder.setDirectionId(trip.getDirectionId() + 1);
+        builder.setStartDate(trip.getOperatingDay());
+        builder.setStartTime(formatTime(trip.getStartTime()));
+        builder.setStatus(InternalMessages.TripCancellation.Status.CANCELED);
+        builder.setSchemaVersion(builder.getSchemaVersion());
+        String dvjId = trip.getTripId();
+        builder.setTripId(dvjId);
+        builder.setTitle(massCancellation.getBulletinId());
+        
+        final InternalMessages.TripCancellation cancellation = builder.build();
+        
+        return new CancellationData(cancellation, massCancellation.getLastModifiedUtcMs(), dvjId, deviationCaseId);
+    }
+    
     private static Set<String> findDifference(Set<String> setA, Set<String> setB) {
         // Create a new set to store the difference
         Set<String> differenceSet = new HashSet<>();
@@ -110,15 +195,10 @@ public class BulletinUtils {
         return hours + ":" + minutes + ":00";
     }
     
-    private static String getBulletinLog(InternalMessages.Bulletin massCancellation, String timezone) {
+    private static String getBulletinLog(
+            InternalMessages.Bulletin massCancellation, LocalDateTime validFrom, LocalDateTime validTo) {
         StringBuilder bulletinLog = new StringBuilder(" BULLETIN");
         
-        LocalDateTime validFrom = Instant.ofEpochMilli(
-                massCancellation.getValidFromUtcMs()).atZone(ZoneId.of(timezone)).toLocalDateTime();
-        
-        LocalDateTime validTo = Instant.ofEpochMilli(
-                massCancellation.getValidToUtcMs()).atZone(ZoneId.of(timezone)).toLocalDateTime();
-        
         bulletinLog.append(" Id: ").
                 append(massCancellation.getBulletinId()).
                 append(", Valid from: ").append(validFrom).
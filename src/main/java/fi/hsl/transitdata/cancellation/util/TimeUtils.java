@@ -1,10 +1,10 @@
 package fi.hsl.transitdata.cancellation.util;
 
-import org.apache.commons.lang3.time.DurationFormatUtils;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
 
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.AbstractMap;
 import java.util.ArrayList;
@@ -81,8 +81,8 @@ public class TimeUtils {
      */
     public static String getDateAsString(Integer serviceDay, String timezone) {
         Instant instant = Instant.ofEpochSecond(serviceDay);
-        LocalDateTime localDateTime = LocalDateTime.ofInstant(instant, ZoneId.of(timezone));
-        return localDateTime.format(DATE_FORMATTER);
+        LocalDate localDate = LocalDate.ofInstant(instant, ServiceTime.zone(timezone));
+        return Integer.toString(ServiceTime.toServiceDay(localDate));
     }
     
     /**
@@ -91,7 +91,7 @@ public class TimeUtils {
      * @return Time as string in format 'HHMM'
      */
     public static String getTimeAsString(Integer scheduledDeparture) {
-        return DurationFormatUtils.formatDuration(scheduledDeparture * 1000, "HHmm", true);
+        return ServiceTime.formatTime(scheduledDeparture / 60);
     }
     
     /**
@@ -102,17 +102,8 @@ public class TimeUtils {
      * @return KEY: date (e.g. "2901"), VALUE: time (e.g. "1542")
      */
     public static AbstractMap.SimpleEntry<String, String> convertInto30hClockStrings(LocalDateTime someDateTime) {
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HHmm");
-        
-        if (someDateTime.getHour() < 6) {
-            LocalDateTime newDateTime = someDateTime.minusDays(1);
-            int localTime = Integer.parseInt(newDateTime.format(timeFormatter));
-            String newLocalTime = String.valueOf(2400 + localTime);
-            return new AbstractMap.SimpleEntry<>(newDateTime.format(dateFormatter), newLocalTime);
-        }
-        
-        return new AbstractMap.SimpleEntry<>(someDateTime.format(dateFormatter), someDateTime.format(timeFormatter));
+        ServiceTime serviceTime = ServiceTime.of(someDateTime);
+        return new AbstractMap.SimpleEntry<>(serviceTime.formatServiceDay(), serviceTime.formatTime());
     }
     
     /**
@@ -130,10 +121,19 @@ public class TimeUtils {
             AbstractMap.SimpleEntry<String, String> validFromAsSimpleEntry,
             AbstractMap.SimpleEntry<String, String> validToAsSimpleEntry) {
         
-        long operatingTimestamp = Long.parseLong(operatingDay + startTime);
-        long validFrom = Long.parseLong(validFromAsSimpleEntry.getKey() + validFromAsSimpleEntry.getValue());
-        long validTo = Long.parseLong(validToAsSimpleEntry.getKey() + validToAsSimpleEntry.getValue());
-        
-        return operatingTimestamp >= validFrom && operatingTimestamp <= validTo;
+        long validFrom = ServiceTime.pack(validFromAsSimpleEntry.getKey(), validFromAsSimpleEntry.getValue());
+        long validTo = ServiceTime.pack(validToAsSimpleEntry.getKey(), validToAsSimpleEntry.getValue());
+        return isBetween(ServiceTime.pack(operatingDay, startTime), validFrom, validTo);
+    }
+    
+    /**
+     * Same as isBetween method with strings, but with service times packed by {@link ServiceTime#pack}.
+     * @param operatingTimestamp packed operating day and start time of a trip, -1 if they could not be packed
+     * @param validFrom packed start of the time period
+     * @param validTo packed end of the time period
+     * @return boolean value
+     */
+    public static boolean isBetween(long operatingTimestamp, long validFrom, long validTo) {
+        return operatingTimestamp >= 0 && operatingTimestamp >= validFrom && operatingTimestamp <= validTo;
     }
 }
\ No newline at end of file
@@ -1,13 +1,11 @@
 package fi.hsl.transitdata.cancellation.util;
 
 import fi.hsl.common.transitdata.proto.InternalMessages;
-import fi.hsl.transitdata.cancellation.schema.Route;
-import fi.hsl.transitdata.cancellation.schema.Trip;
-import io.smallrye.graphql.client.Response;
-import io.smallrye.graphql.client.core.Document;
-import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
-import io.smallrye.graphql.client.vertx.dynamic.VertxDynamicGraphQLClientBuilder;
-import io.vertx.core.Vertx;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.domain.ServiceTime;
+import fi.hsl.transitdata.cancellation.domain.TripKey;
+import fi.hsl.transitdata.cancellation.domain.TripKeySet;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,131 +13,115 @@ import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static io.smallrye.graphql.client.core.Argument.arg;
-import static io.smallrye.graphql.client.core.Argument.args;
-import static io.smallrye.graphql.client.core.Document.document;
-import static io.smallrye.graphql.client.core.Field.field;
-import static io.smallrye.graphql.client.core.Operation.operation;
-
 public class TripUtils {
 
     private static final Logger log = LoggerFactory.getLogger(TripUtils.class);
-
-    /**
-     * Get routes using a GraphQL query.
-     *
-     * @param date                       date as string, with format 'YYYYMMDD' (e.g. '20240131')
-     * @param routeIds                   route identifiers
-     * @param digitransitDeveloperApiUri Digitransit API URL
-     * @return routes
-     */
-    public static List<Route> getRoutes(String date, List<String> routeIds, String digitransitDeveloperApiUri) {
-        List<Route> routes = new ArrayList<>();
-        Vertx vertx = Vertx.vertx();
-        List<String> fixedRouteIds = addHSLPrefixToRouteIds(routeIds);
-
-        DynamicGraphQLClient client = new VertxDynamicGraphQLClientBuilder()
-                .url(digitransitDeveloperApiUri)
-                .vertx(vertx)
-                .build();
-
-        List<Document> documents = new ArrayList<>();
-
-        for (String id : fixedRouteIds) {
-            List<String> singletonId = Collections.singletonList(id);
-
-            Document document = document(operation(
-                    field(
-                            "routes",
-                            args(arg("ids", singletonId)),
-                            field("id"),
-                            field("gtfsId"),
-                            field(
-                                    "trips",
-                                    field("gtfsId"),
-                                    field("directionId"),
-                                    field("activeDates"),
-                                    field(
-                                            "departureStoptime",
-                                            args(arg("serviceDate", date)),
-                                            field("serviceDay"),
-                                            field("scheduledDeparture")
-                                    )
-                            )
-                    )
-            ));
-
-            documents.add(document);
-        }
-
-        for (Document document : documents) {
-            Response response;
-            try {
-                response = client.executeSync(document);
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to get trip data", e);
-            }
-
-            if (response != null) {
-                routes.addAll(response.getList(Route.class, "routes"));
-            }
-        }
-
-        try {
-            client.close();
-            vertx.close();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to close DynamicGraphQLClient", e);
+    
+    // in priority order, the first token found in a trip identifier is replaced
+    private static final String[] WEEKDAY_TOKENS = { "Ma", "Ti", "Ke", "To", "Pe", "La", "Su" };
+    private static final String[] WEEKDAY_TOKEN_REPLACEMENTS =
+            { "MaTiKeToPe", "MaTiKeToPe", "MaTiKeToPe", "MaTiKeToPe", "MaTiKeToPe", "LaSu", "LaSu" };
+    
+    // KEY: first char * table size + second char, VALUE: priority of the weekday token
+    private static final int WEEKDAY_TOKEN_TABLE_SIZE = 128;
+    private static final byte[] WEEKDAY_TOKEN_TABLE = new byte[WEEKDAY_TOKEN_TABLE_SIZE * WEEKDAY_TOKEN_TABLE_SIZE];
+    
+    static {
+        Arrays.fill(WEEKDAY_TOKEN_TABLE, (byte) WEEKDAY_TOKENS.length);
+        for (int i = 0; i < WEEKDAY_TOKENS.length; i++) {
+            WEEKDAY_TOKEN_TABLE[WEEKDAY_TOKENS[i].charAt(0) * WEEKDAY_TOKEN_TABLE_SIZE + WEEKDAY_TOKENS[i].charAt(1)] = (byte) i;
         }
-
-        return routes;
     }
 
     /**
      * Returns routeIds in format: 'HSL:1234'
      */
     static List<String> addHSLPrefixToRouteIds(List<String> routeIds) {
-        return routeIds.stream().map(
-                routeId -> routeId.startsWith("HSL:") ? routeId.trim() : "HSL:" + routeId.trim()).collect(Collectors.toList());
+        return routeIds.stream().map(TripUtils::addHSLPrefix).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns routeId in format: 'HSL:1234'
+     */
+    static String addHSLPrefix(String routeId) {
+        return routeId.startsWith("HSL:") ? routeId.trim() : "HSL:" + routeId.trim();
     }
 
     /**
      * Get trip infos of a time period.
      */
     public static List<InternalMessages.TripInfo> getTripInfos(
-            List<String> routeIds, LocalDateTime validFrom, LocalDateTime validTo, String timezone, String digitransitDeveloperApiUri) {
+            List<String> routeIds, LocalDateTime validFrom, LocalDateTime validTo, TripInfoProvider tripInfoProvider) {
         List<String> dates = TimeUtils.getDatesAsList(validFrom, validTo);
+        List<InternalMessages.TripInfo> tripInfos = tripInfoProvider.getTripInfos(addHSLPrefixToRouteIds(routeIds), dates)
+                .values().stream().flatMap(List::stream).collect(Collectors.toList());
 
-        List<InternalMessages.TripInfo> tripInfos = dates.stream().flatMap(
-                dateAsString -> getTripInfos(dateAsString, routeIds, timezone, digitransitDeveloperApiUri).stream()
-        ).collect(Collectors.toList());
+        List<InternalMessages.TripInfo> filteredTripInfos = filterTripInfos(tripInfos, validFrom, validTo);
+        return removeDuplicates(filteredTripInfos);
+    }
+
+    /**
+     * Same as getTripInfos method with routes and dates, but only the given timetables are fetched. Routes that need
+     * the same dates are fetched together, so that e.g. a new route or a new date is one request.
+     *
+     * @param routeDays timetables to fetch, route identifiers with 'HSL:' prefix
+     */
+    public static List<InternalMessages.TripInfo> getTripInfosOfRouteDays(
+            Collection<RouteDay> routeDays, LocalDateTime validFrom, LocalDateTime validTo, TripInfoProvider tripInfoProvider) {
+        // KEY: routeId, VALUE: dates to fetch
+        Map<String, List<String>> datesByRoute = new LinkedHashMap<>();
+        for (RouteDay routeDay : routeDays) {
+            datesByRoute.computeIfAbsent(routeDay.getRouteId(), routeId -> new ArrayList<>()).add(routeDay.getDate());
+        }
+        // KEY: dates, VALUE: routes that need exactly these dates
+        Map<List<String>, List<String>> routesByDates = new LinkedHashMap<>();
+        datesByRoute.forEach((routeId, dates) -> routesByDates.computeIfAbsent(dates, key -> new ArrayList<>()).add(routeId));
+
+        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>();
+        routesByDates.forEach((dates, routeIds) -> tripInfoProvider.getTripInfos(routeIds, dates)
+                .values().forEach(tripInfos::addAll));
 
         List<InternalMessages.TripInfo> filteredTripInfos = filterTripInfos(tripInfos, validFrom, validTo);
         return removeDuplicates(filteredTripInfos);
     }
 
     static String getTripId(String originalTripId, String operatingDay) {
-        String modifiedTripId;
-
-        if (originalTripId.contains("Ma")) {
-            modifiedTripId = originalTripId.replaceFirst("Ma", "MaTiKeToPe");
-        } else if (originalTripId.contains("Ti")) {
-            modifiedTripId = originalTripId.replaceFirst("Ti", "MaTiKeToPe");
-        } else if (originalTripId.contains("Ke")) {
-            modifiedTripId = originalTripId.replaceFirst("Ke", "MaTiKeToPe");
-        } else if (originalTripId.contains("To")) {
-            modifiedTripId = originalTripId.replaceFirst("To", "MaTiKeToPe");
-        } else if (originalTripId.contains("Pe")) {
-            modifiedTripId = originalTripId.replaceFirst("Pe", "MaTiKeToPe");
-        } else if (originalTripId.contains("La")) {
-            modifiedTripId = originalTripId.replaceFirst("La", "LaSu");
-        } else if (originalTripId.contains("Su")) {
-            modifiedTripId = originalTripId.replaceFirst("Su", "LaSu");
-        } else {
-            modifiedTripId = originalTripId;
+        // weekday token with the highest priority wins, its first occurrence is replaced
+        int tokenPriority = WEEKDAY_TOKENS.length;
+        int tokenIndex = -1;
+        for (int i = 0; i < originalTripId.length() - 1; i++) {
+            int priority = getWeekdayTokenPriority(originalTripId.charAt(i), originalTripId.charAt(i + 1));
+            if (priority < tokenPriority) {
+                tokenPriority = priority;
+                tokenIndex = i;
+                if (priority == 0) {
+                    break;
+                }
+            }
         }
 
-        return modifiedTripId + "_" + operatingDay;
+        String replacement = tokenIndex >= 0 ? WEEKDAY_TOKEN_REPLACEMENTS[tokenPriority] : "";
+        StringBuilder modifiedTripId = new StringBuilder(
+                originalTripId.length() + replacement.length() + operatingDay.length() + 1);
+        if (tokenIndex >= 0) {
+            modifiedTripId.append(originalTripId, 0, tokenIndex)
+                    .append(replacement)
+                    .append(originalTripId, tokenIndex + 2, originalTripId.length());
+        } else {
+            modifiedTripId.append(originalTripId);
+        }
+        return modifiedTripId.append('_').append(operatingDay).toString();
+    }
+    
+    /**
+     * @return priority of the two characters as a weekday token (0 is the highest), or the number of tokens if they
+     * are not a weekday token
+     */
+    private static int getWeekdayTokenPriority(char first, char second) {
+        if (first >= WEEKDAY_TOKEN_TABLE_SIZE || second >= WEEKDAY_TOKEN_TABLE_SIZE) {
+            return WEEKDAY_TOKENS.length;
+        }
+        return WEEKDAY_TOKEN_TABLE[first * WEEKDAY_TOKEN_TABLE_SIZE + second];
     }
     
     /**
@@ -164,20 +146,27 @@ public class TripUtils {
      * @return list of trip info objects with duplicates removed
      */
     static List<InternalMessages.TripInfo> removeDuplicates(List<InternalMessages.TripInfo> trips) {
-        Set<String> seen = new HashSet<>();
-        List<InternalMessages.TripInfo> tripsNoDuplicates = new ArrayList<>();
+        TripKeySet seen = new TripKeySet(trips.size());
+        // route indexes of the trip keys, only valid within this call
+        Map<String, Integer> routeIndexes = new HashMap<>();
+        // only for trips that cannot be packed into a trip key
+        Set<String> seenInvalid = new HashSet<>();
+        List<InternalMessages.TripInfo> tripsNewIds = new ArrayList<>();
         for (InternalMessages.TripInfo trip : trips) {
-            String key = trip.getRouteId() + "--" + trip.getOperatingDay() + "--"
-                    + trip.getStartTime() + "--" + trip.getDirectionId();
-            if (!seen.contains(key)) {
-                seen.add(key);
-                tripsNoDuplicates.add(trip);
+            Integer routeIndex = routeIndexes.get(trip.getRouteId());
+            if (routeIndex == null) {
+                routeIndex = routeIndexes.size();
+                routeIndexes.put(trip.getRouteId(), routeIndex);
             }
-        }
-
-        List<InternalMessages.TripInfo> tripsNewIds = new ArrayList<>();
-
-        for (InternalMessages.TripInfo trip : tripsNoDuplicates) {
+            long tripKey = TripKey.of(routeIndex, trip.getOperatingDay(), trip.getStartTime(), trip.getDirectionId());
+            boolean added = tripKey != TripKey.INVALID
+                    ? seen.add(tripKey)
+                    : seenInvalid.add(trip.getRouteId() + "--" + trip.getOperatingDay() + "--"
+                            + trip.getStartTime() + "--" + trip.getDirectionId());
+            if (!added) {
+                continue;
+            }
+            
             InternalMessages.TripInfo.Builder builder = InternalMessages.TripInfo.newBuilder();
             builder.setRouteId(trip.getRouteId());
             builder.setTripId(getTripId(trip.getTripId(), trip.getOperatingDay()));
@@ -196,56 +185,20 @@ public class TripUtils {
     static List<InternalMessages.TripInfo> filterTripInfos(
             List<InternalMessages.TripInfo> inputTripInfos, LocalDateTime validFrom, LocalDateTime validTo) {
 
-        // KEY: date (e.g. "20242901"), VALUE: time (e.g. "1542")
-        AbstractMap.SimpleEntry<String, String> validFromAsSimpleEntry = TimeUtils.convertInto30hClockStrings(validFrom);
-        AbstractMap.SimpleEntry<String, String> validToAsSimpleEntry = TimeUtils.convertInto30hClockStrings(validTo);
+        long validFromServiceTime = ServiceTime.of(validFrom).toPacked();
+        long validToServiceTime = ServiceTime.of(validTo).toPacked();
 
-        List<InternalMessages.TripInfo> outputTripInfos = inputTripInfos.stream().filter(tripInfo ->
-                TimeUtils.isBetween(tripInfo.getOperatingDay(), tripInfo.getStartTime(),
-                        validFromAsSimpleEntry, validToAsSimpleEntry)).collect(Collectors.toList());
+        List<InternalMessages.TripInfo> outputTripInfos = new ArrayList<>();
+        for (InternalMessages.TripInfo tripInfo : inputTripInfos) {
+            long operatingTimestamp = ServiceTime.pack(tripInfo.getOperatingDay(), tripInfo.getStartTime());
+            if (TimeUtils.isBetween(operatingTimestamp, validFromServiceTime, validToServiceTime)) {
+                outputTripInfos.add(tripInfo);
+            }
+        }
 
         log.info("There are {} trip infos after filtering (before filtering {} trip infos). validFrom={}, validTo={}, timeZone={}",
                 outputTripInfos.size(), inputTripInfos.size(), validFrom, validTo, TimeZone.getDefault().getDisplayName());
 
         return outputTripInfos;
     }
-
-    /**
-     * Get trip infos of a single day and routeIds.
-     *
-     * @param date                       date as string, with format 'YYYYMMDD' (e.g. '20240131')
-     * @param routeIds                   route identifiers
-     * @param timezone                   time zone
-     * @param digitransitDeveloperApiUri Digitransit API URL
-     * @return trip infos
-     */
-    public static List<InternalMessages.TripInfo> getTripInfos(
-            String date, List<String> routeIds, String timezone, String digitransitDeveloperApiUri) {
-        List<Route> routes = getRoutes(date, routeIds, digitransitDeveloperApiUri);
-        log.info("Found {} routes (date={}, routeIds={}, digitransitDeveloperApiUri={})",
-                routes.size(), date, routeIds, digitransitDeveloperApiUri.startsWith("https://dev-api.digitransit.fi"));
-        
-        List<InternalMessages.TripInfo> tripInfos = new ArrayList<>();
-
-        for (Route route : routes) {
-            if (route == null) {
-                continue;
-            }
-
-            for (Trip trip : route.getTrips()) {
-                String operatingDay = TimeUtils.getDateAsString(trip.getDepartureStoptime().getServiceDay(), timezone);
-                String startTime = TimeUtils.getTimeAsString(trip.getDepartureStoptime().getScheduledDeparture());
-
-                InternalMessages.TripInfo.Builder builder = InternalMessages.TripInfo.newBuilder();
-                builder.setRouteId(route.getGtfsId());
-                builder.setTripId(trip.getGtfsId());
-                builder.setOperatingDay(operatingDay);
-                builder.setStartTime(startTime);
-                builder.setDirectionId(Integer.parseInt(trip.getDirectionId()));
-                tripInfos.add(builder.build());
-            }
-        }
-
-        return tripInfos;
-    }
 }
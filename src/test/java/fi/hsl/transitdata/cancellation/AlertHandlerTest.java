@@ -0,0 +1,239 @@
+package fi.hsl.transitdata.cancellation;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.pulsar.PulsarApplicationContext;
+import fi.hsl.common.transitdata.TransitdataProperties;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.CaffeineBulletinStateStore;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
+import fi.hsl.transitdata.cancellation.util.TripUtilsTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class AlertHandlerTest {
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+
+    private final List<InternalMessages.TripCancellation> sentCancellations = Collections.synchronizedList(new ArrayList<>());
+    // true for an acknowledged input message, false for a negatively acknowledged one
+    private final BlockingQueue<Boolean> acks = new LinkedBlockingQueue<>();
+    private final AtomicBoolean failSending = new AtomicBoolean();
+    // if set, sending completes when this future completes
+    private final AtomicReference<CompletableFuture<MessageId>> sendResult = new AtomicReference<>();
+    private final BulletinStateStore bulletinStateStore = CaffeineBulletinStateStore.newInstance(Duration.ofHours(1));
+    private AlertHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = createHandler("");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        handler.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private AlertHandler createHandler(String configuration) {
+        Config config = ConfigFactory.parseString(configuration)
+                .withFallback(ConfigFactory.parseString("processor.coalescing.quietPeriod=0"))
+                .withFallback(ConfigFactory.parseResources("environment.conf")).resolve();
+
+        Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenAnswer(invocation -> {
+            acks.add(true);
+            return CompletableFuture.completedFuture(null);
+        });
+        doAnswer(invocation -> acks.add(false)).when(consumer).negativeAcknowledge(any(MessageId.class));
+
+        TypedMessageBuilder<byte[]> messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        when(messageBuilder.value(any(byte[].class))).thenAnswer(invocation -> {
+            sentCancellations.add(InternalMessages.TripCancellation.parseFrom((byte[]) invocation.getArgument(0)));
+            return messageBuilder;
+        });
+        when(messageBuilder.sendAsync()).thenAnswer(invocation -> {
+            if (failSending.get()) {
+                return CompletableFuture.failedFuture(new PulsarClientException.TimeoutException("timeout"));
+            }
+            CompletableFuture<MessageId> result = sendResult.get();
+            return result != null ? result : CompletableFuture.completedFuture(mock(MessageId.class));
+        });
+        Producer<byte[]> producer = mock(Producer.class);
+        when(producer.newMessage()).thenReturn(messageBuilder);
+
+        PulsarApplicationContext context = mock(PulsarApplicationContext.class);
+        when(context.getConfig()).thenReturn(config);
+        when(context.getConsumer()).thenReturn(consumer);
+        when(context.getSingleProducer()).thenReturn(producer);
+
+        return new AlertHandler(context, TIMEZONE, new FixedTripInfoProvider(), bulletinStateStore,
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testRedeliveredVersionIsComparedToConfirmedState() throws Exception {
+        assertTrue(handle(createMessage(1, "HSL:1001", "HSL:1002")));
+        assertEquals(4, sentCancellations.size());
+
+        // route HSL:1002 is removed, but its cancellations-of-cancellations cannot be sent
+        Message<byte[]> modified = createMessage(2, "HSL:1001");
+        failSending.set(true);
+        assertFalse(handle(modified));
+
+        failSending.set(false);
+        sentCancellations.clear();
+        assertTrue(handle(modified));
+
+        List<String> runningTrips = new ArrayList<>();
+        for (InternalMessages.TripCancellation cancellation : sentCancellations) {
+            if (cancellation.getStatus() == InternalMessages.TripCancellation.Status.RUNNING) {
+                runningTrips.add(cancellation.getTripId());
+            }
+        }
+        assertEquals(Arrays.asList("HSL:1002_20240212_MaTiKeToPe_1_0800_20240220",
+                "HSL:1002_20240212_MaTiKeToPe_1_1400_20240220"), runningTrips);
+        assertEquals(2, bulletinStateStore.get("bulletin1").size());
+    }
+
+    @Test
+    public void testRepublishedVersionIsSkippedOnlyAfterItHasBeenSent() throws Exception {
+        failSending.set(true);
+        assertFalse(handle(createMessage(1, "HSL:1001")));
+        assertNull(bulletinStateStore.get("bulletin1"));
+
+        failSending.set(false);
+        sentCancellations.clear();
+        assertTrue(handle(createMessage(1, "HSL:1001")));
+        assertEquals(2, sentCancellations.size());
+
+        sentCancellations.clear();
+        assertTrue(handle(createMessage(1, "HSL:1001")));
+        assertTrue(sentCancellations.isEmpty());
+    }
+
+    @Test
+    public void testAllCancellationsAreSentAgainWhenFullRefreshIsDue() throws Exception {
+        handler.close();
+        handler = createHandler("processor.emission.mode=DELTA\n"
+                + "processor.emission.fullRefreshInterval=300 milliseconds");
+        LocalDateTime now = LocalDateTime.now(ZoneId.of(TIMEZONE));
+        assertTrue(handle(createMessage(1, now.minusHours(1), now.plusDays(1), "HSL:1001")));
+        int sent = sentCancellations.size();
+        assertTrue(sent > 0);
+
+        // no new version arrives, the same version is handled again
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sentCancellations.size() < 2 * sent && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2 * sent, sentCancellations.size());
+        assertTrue(acks.isEmpty());
+    }
+
+    @Test
+    public void testCloseWaitsUntilStateOfConfirmedBulletinIsStored() throws Exception {
+        CompletableFuture<MessageId> confirmation = new CompletableFuture<>();
+        sendResult.set(confirmation);
+        handler.handleMessage(createMessage(1, "HSL:1001"));
+        CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS)
+                .execute(() -> confirmation.complete(mock(MessageId.class)));
+
+        handler.close();
+        assertNotNull(bulletinStateStore.get("bulletin1"));
+        assertEquals(Boolean.TRUE, acks.poll(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return true if the message was acknowledged, false if it was negatively acknowledged
+     */
+    private boolean handle(Message<byte[]> message) throws InterruptedException {
+        handler.handleMessage(message);
+        Boolean acked = acks.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Message was not acknowledged", acked);
+        return acked;
+    }
+
+    private static Message<byte[]> createMessage(long lastModified, String... routeIds) {
+        return createMessage(lastModified, LocalDateTime.of(2024, 2, 20, 6, 0), LocalDateTime.of(2024, 2, 20, 23, 0),
+                routeIds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<byte[]> createMessage(long lastModified, LocalDateTime validFrom, LocalDateTime validTo,
+                                                 String... routeIds) {
+        ZoneId zone = ZoneId.of(TIMEZONE);
+        InternalMessages.Bulletin.Builder bulletin = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId("bulletin1")
+                .setImpact(InternalMessages.Bulletin.Impact.CANCELLED)
+                .setPriority(InternalMessages.Bulletin.Priority.WARNING)
+                .setLastModifiedUtcMs(lastModified)
+                .setValidFromUtcMs(validFrom.atZone(zone).toInstant().toEpochMilli())
+                .setValidToUtcMs(validTo.atZone(zone).toInstant().toEpochMilli());
+        for (String routeId : routeIds) {
+            bulletin.addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(routeId));
+        }
+        InternalMessages.ServiceAlert serviceAlert = InternalMessages.ServiceAlert.newBuilder()
+                .setSchemaVersion(1)
+                .addBulletins(bulletin)
+                .build();
+
+        Message<byte[]> message = mock(Message.class);
+        when(message.getMessageId()).thenReturn(mock(MessageId.class));
+        when(message.getProperty(TransitdataProperties.KEY_PROTOBUF_SCHEMA))
+                .thenReturn(TransitdataProperties.ProtobufSchema.TransitdataServiceAlert.toString());
+        when(message.getData()).thenReturn(serviceAlert.toByteArray());
+        return message;
+    }
+
+    /**
+     * Every route has trips at 08:00 and 14:00 on every date.
+     */
+    private static class FixedTripInfoProvider implements TripInfoProvider {
+        @Override
+        public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+            for (String date : dates) {
+                for (String routeId : routeIds) {
+                    List<InternalMessages.TripInfo> trips = new ArrayList<>();
+                    for (String startTime : Arrays.asList("0800", "1400")) {
+                        trips.add(TripUtilsTest.createTripInfo(
+                                routeId, routeId + "_20240212_Ti_1_" + startTime, date, startTime, 1, false));
+                    }
+                    tripInfos.put(new RouteDay(routeId, date), trips);
+                }
+            }
+            return tripInfos;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package fi.hsl.transitdata.cancellation;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BulletinCoalescerTest {
+
+    private final List<InternalMessages.Bulletin> processed = Collections.synchronizedList(new ArrayList<>());
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private BulletinCoalescer coalescer;
+
+    @After
+    public void tearDown() {
+        coalescer.close();
+    }
+
+    @Test
+    public void testRapidVersionsAfterTheFirstAreProcessedOnce() throws Exception {
+        coalescer = createCoalescer(Duration.ofMillis(100), Duration.ofSeconds(5));
+        CompletableFuture<Void> first = coalescer.submit(createBulletin("bulletin1", 1));
+        assertTrue(first.isDone());
+        assertEquals(1, processed.size());
+
+        CompletableFuture<Void> second = coalescer.submit(createBulletin("bulletin1", 2));
+        CompletableFuture<Void> third = coalescer.submit(createBulletin("bulletin1", 4));
+        CompletableFuture<Void> fourth = coalescer.submit(createBulletin("bulletin1", 3));
+
+        assertTrue(fourth.isDone());
+        CompletableFuture.allOf(second, third).get(1, TimeUnit.SECONDS);
+        assertEquals(2, processed.size());
+        assertEquals(4, processed.get(1).getLastModifiedUtcMs());
+        assertEquals(1, count("coalesced"), 0);
+        assertEquals(1, count("outdated"), 0);
+    }
+
+    @Test
+    public void testVersionAfterQuietPeriodIsProcessedImmediately() throws Exception {
+        coalescer = createCoalescer(Duration.ofMillis(100), Duration.ofSeconds(5));
+        coalescer.submit(createBulletin("bulletin1", 1));
+        Thread.sleep(200);
+
+        assertTrue(coalescer.submit(createBulletin("bulletin1", 2)).isDone());
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void testBulletinsAreCoalescedSeparately() throws Exception {
+        coalescer = createCoalescer(Duration.ofMillis(100), Duration.ofSeconds(5));
+        CompletableFuture.allOf(
+                coalescer.submit(createBulletin("bulletin1", 1)),
+                coalescer.submit(createBulletin("bulletin2", 1))).get(1, TimeUnit.SECONDS);
+
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void testVersionOlderThanProcessedIsDiscarded() throws Exception {
+        coalescer = createCoalescer(Duration.ZERO, Duration.ZERO);
+        coalescer.submit(createBulletin("bulletin1", 2)).get(1, TimeUnit.SECONDS);
+        CompletableFuture<Void> older = coalescer.submit(createBulletin("bulletin1", 1));
+        coalescer.submit(createBulletin("bulletin1", 2)).get(1, TimeUnit.SECONDS);
+
+        assertTrue(older.isDone());
+        assertEquals(2, processed.size());
+        assertEquals(1, count("outdated"), 0);
+    }
+
+    @Test
+    public void testVersionsAreProcessedAtMaximumDelay() throws Exception {
+        coalescer = createCoalescer(Duration.ofMillis(200), Duration.ofMillis(300));
+        coalescer.submit(createBulletin("bulletin1", 1));
+        CompletableFuture<Void> second = coalescer.submit(createBulletin("bulletin1", 2));
+        for (int i = 3; i <= 10 && !second.isDone(); i++) {
+            Thread.sleep(50);
+            coalescer.submit(createBulletin("bulletin1", i));
+        }
+
+        // new versions kept arriving within the quiet period, but the collected ones were not held back indefinitely
+        second.get(1, TimeUnit.SECONDS);
+        assertTrue(processed.size() >= 2);
+    }
+
+    @Test
+    public void testFailureIsPassedToCoalescedVersions() throws Exception {
+        coalescer = new BulletinCoalescer(Duration.ofMillis(100), Duration.ofSeconds(5), Duration.ofHours(4),
+                bulletin -> CompletableFuture.failedFuture(new IllegalStateException("send failed")), registry);
+        assertTrue(coalescer.submit(createBulletin("bulletin1", 1)).isCompletedExceptionally());
+        CompletableFuture<Void> second = coalescer.submit(createBulletin("bulletin1", 2));
+        CompletableFuture<Void> third = coalescer.submit(createBulletin("bulletin1", 3));
+
+        try {
+            second.get(1, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (Exception e) {
+            assertTrue(third.isCompletedExceptionally());
+        }
+    }
+
+    private BulletinCoalescer createCoalescer(Duration quietPeriod, Duration maxDelay) {
+        return new BulletinCoalescer(quietPeriod, maxDelay, Duration.ofHours(4), bulletin -> {
+            processed.add(bulletin);
+            return CompletableFuture.completedFuture(null);
+        }, registry);
+    }
+
+    private double count(String result) {
+        return registry.get("cancellation.bulletin.versions").tag("result", result).counter().count();
+    }
+
+    private static InternalMessages.Bulletin createBulletin(String bulletinId, long lastModified) {
+        return InternalMessages.Bulletin.newBuilder()
+                .setBulletinId(bulletinId)
+                .setLastModifiedUtcMs(lastModified)
+                .buildPartial();
+    }
+}
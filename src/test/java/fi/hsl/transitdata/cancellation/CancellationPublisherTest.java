@@ -0,0 +1,158 @@
+package fi.hsl.transitdata.cancellation;
+
+import fi.hsl.common.transitdata.TransitdataProperties;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.createCancellationData;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CancellationPublisherTest {
+    
+    private Producer<byte[]> producer;
+    private TypedMessageBuilder<byte[]> messageBuilder;
+    private List<CompletableFuture<MessageId>> sendFutures;
+    
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        producer = mock(Producer.class);
+        sendFutures = Collections.synchronizedList(new ArrayList<>());
+        messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        when(messageBuilder.sendAsync()).thenAnswer(invocation -> {
+            CompletableFuture<MessageId> future = new CompletableFuture<>();
+            sendFutures.add(future);
+            return future;
+        });
+        when(producer.newMessage()).thenReturn(messageBuilder);
+    }
+    
+    @Test
+    public void testCompletesWhenAllMessagesAreConfirmed() throws Exception {
+        CancellationPublisher publisher = new CancellationPublisher(producer, 10, new SimpleMeterRegistry());
+        
+        CompletableFuture<Void> result = publisher.publish(
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        
+        // both messages are sent before either is confirmed
+        assertEquals(2, sendFutures.size());
+        assertEquals(2, publisher.getOutstandingMessages());
+        
+        sendFutures.get(0).complete(mock(MessageId.class));
+        assertFalse(result.isDone());
+        sendFutures.get(1).complete(mock(MessageId.class));
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+        assertEquals(0, publisher.getOutstandingMessages());
+    }
+    
+    @Test
+    public void testFailsIfAnyMessageFails() throws Exception {
+        CancellationPublisher publisher = new CancellationPublisher(producer, 10, new SimpleMeterRegistry());
+        
+        CompletableFuture<Void> result = publisher.publish(
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        sendFutures.get(0).complete(mock(MessageId.class));
+        sendFutures.get(1).completeExceptionally(new PulsarClientException.TimeoutException("timeout"));
+        
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("Expected publishing to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PulsarClientException.TimeoutException);
+        }
+        assertEquals(0, publisher.getOutstandingMessages());
+    }
+    
+    @Test
+    public void testOutstandingMessagesAreBounded() throws Exception {
+        CancellationPublisher publisher = new CancellationPublisher(producer, 2, new SimpleMeterRegistry());
+        
+        CompletableFuture<CompletableFuture<Void>> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return publisher.publish(Arrays.asList(createCancellationData("trip1"),
+                        createCancellationData("trip2"), createCancellationData("trip3")));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        
+        Thread.sleep(200);
+        assertEquals(2, sendFutures.size());
+        assertFalse(result.isDone());
+        
+        sendFutures.get(0).complete(mock(MessageId.class));
+        CompletableFuture<Void> published = result.get(1, TimeUnit.SECONDS);
+        assertEquals(3, sendFutures.size());
+        sendFutures.get(1).complete(mock(MessageId.class));
+        sendFutures.get(2).complete(mock(MessageId.class));
+        assertTrue(published.isDone());
+    }
+    
+    @Test
+    public void testConfirmedMessagesAreCountedByStatus() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CancellationPublisher publisher = new CancellationPublisher(producer, 10, registry);
+        
+        publisher.publish(Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        assertEquals(2, registry.get("cancellation.publish.outstanding").gauge().value(), 0);
+        sendFutures.get(0).complete(mock(MessageId.class));
+        sendFutures.get(1).completeExceptionally(new PulsarClientException.TimeoutException("timeout"));
+        
+        assertEquals(1, registry.get("cancellation.published").tag("status", "CANCELED").counter().count(), 0);
+        assertEquals(0, registry.get("cancellation.published").tag("status", "RUNNING").counter().count(), 0);
+        assertEquals(1, registry.get("cancellation.publish").tag("outcome", "error").timer().count());
+        assertEquals(0, registry.get("cancellation.publish.outstanding").gauge().value(), 0);
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testForwardSendsReceivedBytes() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CancellationPublisher publisher = new CancellationPublisher(producer, 10, registry);
+        byte[] data = createCancellationData("trip1").getPayload().toByteArray();
+        Map<String, String> properties = Collections.singletonMap(
+                TransitdataProperties.KEY_SCHEMA_VERSION, "1");
+        Message<byte[]> message = mock(Message.class);
+        when(message.getData()).thenReturn(data);
+        when(message.getKey()).thenReturn("dvj-trip1");
+        when(message.getEventTime()).thenReturn(1706616017L);
+        when(message.getProperties()).thenReturn(properties);
+        
+        CompletableFuture<Void> result = publisher.forward(message);
+        sendFutures.get(0).complete(mock(MessageId.class));
+        
+        assertTrue(result.isDone());
+        verify(messageBuilder).value(same(data));
+        verify(messageBuilder).key("dvj-trip1");
+        verify(messageBuilder).eventTime(1706616017L);
+        verify(messageBuilder).properties(properties);
+        verify(messageBuilder).property(TransitdataProperties.KEY_DVJ_ID, "dvj-trip1");
+        assertEquals(1, registry.get("cancellation.forwarded").counter().count(), 0);
+    }
+    
+    @Test
+    public void testNothingToPublish() throws Exception {
+        CancellationPublisher publisher = new CancellationPublisher(producer, 10, new SimpleMeterRegistry());
+        
+        assertTrue(publisher.publish(new ArrayList<>()).isDone());
+        verify(producer, never()).newMessage();
+    }
+}
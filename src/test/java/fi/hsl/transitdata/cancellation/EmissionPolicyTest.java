@@ -0,0 +1,129 @@
+package fi.hsl.transitdata.cancellation;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.util.MutableClock;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.createCancellationData;
+import static org.junit.Assert.*;
+
+public class EmissionPolicyTest {
+    
+    private static final Instant NOW = Instant.parse("2024-02-20T10:00:00Z");
+    
+    private final BulletinChanges changes = new BulletinChanges(
+            Arrays.asList(createCancellationData("trip3", InternalMessages.TripCancellation.Status.CANCELED)),
+            Arrays.asList(createCancellationData("trip1", InternalMessages.TripCancellation.Status.CANCELED)),
+            Arrays.asList(createCancellationData("trip2", InternalMessages.TripCancellation.Status.RUNNING)));
+    
+    @Test
+    public void testAllModeSendsUnchangedCancellations() {
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.ALL, Duration.ZERO, Duration.ofHours(4),
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        
+        assertEquals(3, policy.select("bulletin1", changes).getCancellations().size());
+        assertEquals(0, policy.getSuppressedMessages());
+    }
+    
+    @Test
+    public void testDeltaModeSuppressesUnchangedCancellations() {
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.DELTA, Duration.ZERO, Duration.ofHours(4),
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        
+        List<CancellationData> selected = policy.select("bulletin1", changes).getCancellations();
+        policy.select("bulletin1", changes);
+        
+        assertEquals(2, selected.size());
+        assertEquals("trip3", selected.get(0).getTripId());
+        assertEquals("trip2", selected.get(1).getTripId());
+        assertEquals(4, policy.getEmittedMessages());
+        assertEquals(2, policy.getSuppressedMessages());
+    }
+    
+    @Test
+    public void testDeltaModeWithFullRefresh() {
+        MutableClock clock = new MutableClock(NOW);
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.DELTA, Duration.ofMinutes(30),
+                Duration.ofHours(4), clock);
+        
+        assertEquals(2, send(policy, "bulletin1"));
+        clock.setInstant(NOW.plus(Duration.ofMinutes(10)));
+        assertEquals(2, send(policy, "bulletin1"));
+        clock.setInstant(NOW.plus(Duration.ofMinutes(31)));
+        assertEquals(3, send(policy, "bulletin1"));
+        clock.setInstant(NOW.plus(Duration.ofMinutes(40)));
+        assertEquals(2, send(policy, "bulletin1"));
+        
+        // other bulletins have their own refresh time
+        assertEquals(2, send(policy, "bulletin2"));
+        assertEquals(4, policy.getSuppressedMessages());
+    }
+    
+    @Test
+    public void testFullRefreshIsDueWithoutSelecting() {
+        MutableClock clock = new MutableClock(NOW);
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.DELTA, Duration.ofMinutes(30),
+                Duration.ofHours(4), clock);
+        
+        send(policy, "bulletin1");
+        clock.setInstant(NOW.plus(Duration.ofMinutes(10)));
+        assertFalse(policy.isFullRefreshDue("bulletin1"));
+        assertEquals(Duration.ofMinutes(20), policy.getFullRefreshDelay("bulletin1"));
+        
+        clock.setInstant(NOW.plus(Duration.ofMinutes(30)));
+        assertTrue(policy.isFullRefreshDue("bulletin1"));
+        assertTrue(policy.isFullRefreshDue("bulletin1"));
+        assertEquals(Duration.ZERO, policy.getFullRefreshDelay("bulletin1"));
+        assertEquals(3, send(policy, "bulletin1"));
+        assertFalse(policy.isFullRefreshDue("bulletin1"));
+        assertFalse(policy.isFullRefreshDue("bulletin2"));
+    }
+    
+    @Test
+    public void testFullRefreshIsRecordedOnlyWhenCommitted() {
+        MutableClock clock = new MutableClock(NOW);
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.DELTA, Duration.ofMinutes(30),
+                Duration.ofHours(4), clock);
+        
+        send(policy, "bulletin1");
+        clock.setInstant(NOW.plus(Duration.ofMinutes(31)));
+        // sending the full refresh fails
+        assertEquals(3, policy.select("bulletin1", changes).getCancellations().size());
+        assertTrue(policy.isFullRefreshDue("bulletin1"));
+        
+        clock.setInstant(NOW.plus(Duration.ofMinutes(32)));
+        assertEquals(3, send(policy, "bulletin1"));
+        assertFalse(policy.isFullRefreshDue("bulletin1"));
+        assertEquals(Duration.ofMinutes(30), policy.getFullRefreshDelay("bulletin1"));
+    }
+    
+    @Test
+    public void testNothingIsSuppressedWithoutUnchangedCancellations() {
+        EmissionPolicy policy = new EmissionPolicy(EmissionPolicy.Mode.DELTA, Duration.ZERO, Duration.ofHours(4),
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        BulletinChanges onlyNew = new BulletinChanges(changes.getNewCancellations(), Collections.emptyList(),
+                Collections.emptyList());
+        
+        assertEquals(1, policy.select("bulletin1", onlyNew).getCancellations().size());
+        assertEquals(0, policy.getSuppressedMessages());
+    }
+    
+    /**
+     * @return number of cancellations selected and sent successfully
+     */
+    private int send(EmissionPolicy policy, String bulletinId) {
+        EmissionPolicy.Selection selection = policy.select(bulletinId, changes);
+        selection.commit();
+        return selection.getCancellations().size();
+    }
+}
@@ -0,0 +1,81 @@
+package fi.hsl.transitdata.cancellation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PartitionedExecutorTest {
+
+    private final PartitionedExecutor executor = new PartitionedExecutor(4, "test-worker");
+
+    @After
+    public void tearDown() throws Exception {
+        executor.close();
+    }
+
+    @Test
+    public void testTasksWithSameKeyRunInOrder() throws Exception {
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            futures.add(executor.submit("bulletin1", () -> {
+                completed.add(task);
+                return task;
+            }));
+        }
+
+        assertEquals(99, (int) futures.get(99).get(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) completed.get(i));
+        }
+    }
+
+    @Test
+    public void testSlowTaskDoesNotBlockOtherKeys() throws Exception {
+        String slowKey = "bulletin1";
+        String otherKey = findKeyOnOtherWorker(slowKey);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> slow = executor.submit(slowKey, () -> {
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        CompletableFuture<String> other = executor.submit(otherKey, () -> "done");
+
+        assertEquals("done", other.get(1, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        release.countDown();
+        assertTrue(slow.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSameKeyAlwaysHasSameWorker() {
+        for (int i = 0; i < 100; i++) {
+            String key = "bulletin" + i;
+            int workerIndex = executor.getWorkerIndex(key);
+            assertTrue(workerIndex >= 0 && workerIndex < executor.getNumberOfWorkers());
+            assertEquals(workerIndex, executor.getWorkerIndex(new String(key)));
+        }
+    }
+
+    private String findKeyOnOtherWorker(String key) {
+        for (int i = 0; ; i++) {
+            String candidate = "bulletin-other-" + i;
+            if (executor.getWorkerIndex(candidate) != executor.getWorkerIndex(key)) {
+                return candidate;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class HedgingPolicyTest {
+
+    private final HedgingPolicy policy = new HedgingPolicy(0.9, Duration.ofMillis(50), Duration.ofSeconds(5));
+
+    @Test
+    public void testMaximumDelayIsUsedUntilEnoughLatenciesAreObserved() {
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES - 1; i++) {
+            policy.recordLatency(100);
+        }
+        assertEquals(5000, policy.getDelayMs());
+
+        policy.recordLatency(100);
+        assertEquals(100, policy.getDelayMs());
+    }
+
+    @Test
+    public void testDelayIsPercentileOfRecentLatencies() {
+        for (int i = 1; i <= 100; i++) {
+            policy.recordLatency(i * 10);
+        }
+        assertEquals(900, policy.getDelayMs());
+
+        // older latencies are replaced by newer ones
+        for (int i = 0; i < HedgingPolicy.WINDOW; i++) {
+            policy.recordLatency(200);
+        }
+        assertEquals(200, policy.getDelayMs());
+    }
+
+    @Test
+    public void testDelayIsBounded() {
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            policy.recordLatency(10);
+        }
+        assertEquals(50, policy.getDelayMs());
+
+        for (int i = 0; i < HedgingPolicy.WINDOW; i++) {
+            policy.recordLatency(60000);
+        }
+        assertEquals(5000, policy.getDelayMs());
+    }
+}
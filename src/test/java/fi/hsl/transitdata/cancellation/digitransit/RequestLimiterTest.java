@@ -0,0 +1,76 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class RequestLimiterTest {
+    
+    @Test
+    public void testRequestsOverLimitAreQueued() {
+        RequestLimiter limiter = new RequestLimiter(2);
+        List<CompletableFuture<Integer>> requests = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> request = new CompletableFuture<>();
+            requests.add(request);
+            results.add(limiter.submit(() -> request));
+        }
+        
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(3, limiter.getPending());
+        
+        // complete in reverse order of start, results must still match their own requests
+        requests.get(1).complete(1);
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(2, limiter.getPending());
+        requests.get(0).complete(0);
+        requests.get(3).complete(3);
+        requests.get(2).complete(2);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getPending());
+        requests.get(4).complete(4);
+        assertEquals(0, limiter.getInFlight());
+        
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).join());
+        }
+    }
+    
+    @Test
+    public void testFailedRequestReleasesSlot() {
+        RequestLimiter limiter = new RequestLimiter(1);
+        CompletableFuture<String> failed = limiter.submit(() -> {
+            throw new IllegalStateException("failure");
+        });
+        CompletableFuture<String> next = limiter.submit(() -> CompletableFuture.completedFuture("ok"));
+        
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals("ok", next.join());
+        assertEquals(0, limiter.getInFlight());
+    }
+    
+    @Test
+    public void testRequestsCompletingImmediatelyDoNotRecurse() {
+        RequestLimiter limiter = new RequestLimiter(1);
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        limiter.submit(() -> first);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            int value = i;
+            results.add(limiter.submit(() -> CompletableFuture.completedFuture(value)));
+        }
+        
+        first.complete(-1);
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).join());
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getPending());
+    }
+}
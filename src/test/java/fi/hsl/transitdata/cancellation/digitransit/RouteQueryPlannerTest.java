@@ -0,0 +1,87 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class RouteQueryPlannerTest {
+    
+    private static List<String> getRouteIds(int numberOfRoutes) {
+        return IntStream.range(0, numberOfRoutes).mapToObj(i -> "HSL:" + (1000 + i)).collect(Collectors.toList());
+    }
+    
+    @Test
+    public void testPlanCoversAllRoutesAndDates() {
+        RouteQueryPlanner planner = new RouteQueryPlanner(20, 2, 5, 1000, 1000);
+        List<String> dates = Arrays.asList("20240220", "20240221", "20240222");
+        
+        List<RouteQuery> queries = planner.plan(getRouteIds(12), dates);
+        
+        // 3 route chunks (5, 5, 2) for dates 20240220-20240221 and for date 20240222
+        assertEquals(6, queries.size());
+        assertEquals(36, queries.stream().mapToInt(RouteQuery::getNumberOfRouteDays).sum());
+        assertEquals(Arrays.asList("20240220", "20240221"), queries.get(0).getDates());
+        assertEquals(5, queries.get(0).getRouteIds().size());
+        assertEquals(2, queries.get(2).getRouteIds().size());
+        assertEquals(Arrays.asList("20240222"), queries.get(5).getDates());
+    }
+    
+    @Test
+    public void testLargeResponsesShrinkQueries() {
+        RouteQueryPlanner planner = new RouteQueryPlanner(20, 7, 5, 1000, 10000);
+        List<String> dates = Arrays.asList("20240220");
+        
+        // 500 trips per route-day, so only 2 routes fit into 1000 trips
+        planner.recordResponse(new RouteQuery(getRouteIds(5), dates), 2500, 100);
+        assertEquals(2, planner.getRoutesPerQuery(1));
+        assertEquals(1, planner.getRoutesPerQuery(2));
+    }
+    
+    @Test
+    public void testSmallAndFastResponsesGrowQueriesUpToMaximum() {
+        RouteQueryPlanner planner = new RouteQueryPlanner(20, 7, 5, 1000, 10000);
+        List<String> dates = Arrays.asList("20240220");
+        
+        planner.recordResponse(new RouteQuery(getRouteIds(5), dates), 50, 100);
+        assertEquals(20, planner.getRoutesPerQuery(1));
+        assertEquals(4, planner.plan(getRouteIds(80), dates).size());
+    }
+    
+    @Test
+    public void testSlowResponsesShrinkQueries() {
+        RouteQueryPlanner planner = new RouteQueryPlanner(20, 7, 5, 100000, 2000);
+        List<String> dates = Arrays.asList("20240220");
+        
+        // 500 ms per route-day
+        planner.recordResponse(new RouteQuery(getRouteIds(4), dates), 100, 2000);
+        assertEquals(4, planner.getRoutesPerQuery(1));
+    }
+    
+    @Test
+    public void testDocumentHasAliasPerDate() {
+        RouteQuery query = new RouteQuery(Arrays.asList("HSL:1001", "HSL:1002"), Arrays.asList("20240220", "20240221"));
+        String document = query.getDocument().build();
+        
+        assertTrue(document.contains("d0:routes(ids:$ids)"));
+        assertTrue(document.contains("d1:routes(ids:$ids)"));
+        assertTrue(document.contains("departureStoptime(serviceDate:$d1)"));
+        assertEquals("20240221", query.getVariables().get("d1"));
+        assertEquals(Arrays.asList("HSL:1001", "HSL:1002"), query.getVariables().get("ids"));
+    }
+    
+    @Test
+    public void testLeanDocumentRequestsOnlyTripsOfServiceDate() {
+        RouteQuery query = new RouteQuery(Arrays.asList("HSL:1001"), Arrays.asList("20240220", "20240221"), true);
+        String document = query.getDocument().build();
+        
+        assertTrue(document.contains("d1:routes(ids:$ids)"));
+        assertTrue(document.contains("trips:tripsForDate(serviceDate:$d1)"));
+        assertFalse(document.contains("activeDates"));
+        assertEquals("20240221", query.getVariables().get("d1"));
+    }
+}
@@ -0,0 +1,75 @@
+package fi.hsl.transitdata.cancellation.digitransit;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TripInfoDecoderTest {
+
+    private static final String TIMEZONE = "Europe/Helsinki";
+
+    private final TripInfoDecoder decoder = new TripInfoDecoder(TIMEZONE);
+
+    @Test
+    public void testFullResponseIsDecodedIntoTrips() throws IOException {
+        // recorded response has the routes under 'routes' instead of a date alias
+        String recorded;
+        try (InputStream inputStream = getClass().getResourceAsStream("/schema/graphql-query-results.json")) {
+            recorded = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8)
+                    .replaceFirst("\"routes\"", "\"d0\"");
+        }
+        RouteQuery query = new RouteQuery(Arrays.asList("HSL:4611"), Arrays.asList("20231216"));
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos =
+                decoder.decode(query, recorded.getBytes(StandardCharsets.UTF_8));
+
+        List<InternalMessages.TripInfo> trips = tripInfos.get(new RouteDay("HSL:4611", "20231216"));
+        assertEquals(1398, trips.size());
+        assertEquals(InternalMessages.TripInfo.newBuilder()
+                .setRouteId("HSL:4611")
+                .setTripId("HSL:4611_20231218_Pe_2_0447")
+                .setOperatingDay("20231216")
+                .setStartTime("0447")
+                .setDirectionId(1)
+                .build(), trips.get(0));
+    }
+
+    @Test
+    public void testLeanResponseTripsOfAllPatternsAreCollected() throws IOException {
+        RouteQuery query = new RouteQuery(Arrays.asList("HSL:1001", "HSL:1002"), Arrays.asList("20240220"), true);
+        String response = "{\"data\":{\"d0\":[{\"patterns\":[{\"trips\":[{\"gtfsId\":\"HSL:1001_1\",\"directionId\":\"0\","
+                + "\"departureStoptime\":{\"serviceDay\":1708380000,\"scheduledDeparture\":25200}}]},"
+                + "{\"trips\":[{\"gtfsId\":\"HSL:1001_2\",\"directionId\":1,"
+                + "\"departureStoptime\":{\"serviceDay\":1708380000,\"scheduledDeparture\":90000}}]}],"
+                + "\"gtfsId\":\"HSL:1001\"},null]}}";
+
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos =
+                decoder.decode(query, response.getBytes(StandardCharsets.UTF_8));
+
+        // route that was not found is missing, trips are read even if they come before the route identifier
+        assertEquals(1, tripInfos.size());
+        List<InternalMessages.TripInfo> trips = tripInfos.get(new RouteDay("HSL:1001", "20240220"));
+        assertEquals(2, trips.size());
+        assertEquals("HSL:1001", trips.get(1).getRouteId());
+        assertEquals("20240220", trips.get(1).getOperatingDay());
+        assertEquals("2500", trips.get(1).getStartTime());
+        assertEquals(1, trips.get(1).getDirectionId());
+    }
+
+    @Test(expected = IOException.class)
+    public void testGraphQLErrorsFailDecoding() throws IOException {
+        RouteQuery query = new RouteQuery(Arrays.asList("HSL:1001"), Arrays.asList("20240220"), true);
+        String response = "{\"errors\":[{\"message\":\"Unknown argument serviceDate\"}],\"data\":null}";
+
+        decoder.decode(query, response.getBytes(StandardCharsets.UTF_8));
+    }
+}
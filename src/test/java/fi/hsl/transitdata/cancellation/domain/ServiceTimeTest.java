@@ -0,0 +1,51 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.Assert.*;
+
+public class ServiceTimeTest {
+    
+    @Test
+    public void testTimesBeforeSixBelongToPreviousServiceDay() {
+        ServiceTime afternoon = ServiceTime.of(LocalDateTime.of(2024, 1, 29, 15, 50));
+        ServiceTime night = ServiceTime.of(LocalDateTime.of(2024, 1, 30, 0, 29, 59));
+        ServiceTime monthChange = ServiceTime.of(LocalDateTime.of(2024, 3, 1, 5, 59));
+        
+        assertEquals(20240129, afternoon.getServiceDay());
+        assertEquals(15 * 60 + 50, afternoon.getMinuteOfServiceDay());
+        assertEquals("20240129 2429", night.toString());
+        assertEquals("20240229 2959", monthChange.toString());
+        assertTrue(afternoon.compareTo(night) < 0);
+    }
+    
+    @Test
+    public void testPackedTimesAreOrdered() {
+        long from = ServiceTime.of(LocalDateTime.of(2024, 1, 29, 8, 0)).toPacked();
+        long to = ServiceTime.of(LocalDateTime.of(2024, 1, 30, 8, 0)).toPacked();
+        
+        assertEquals(from, ServiceTime.pack("20240129", "0800"));
+        assertTrue(ServiceTime.pack("20240129", "2510") > from);
+        assertTrue(ServiceTime.pack("20240129", "2510") < to);
+        assertTrue(ServiceTime.pack("20240129", "0759") < from);
+        assertEquals(-1, ServiceTime.pack("20240129", "25:10"));
+        assertEquals(-1, ServiceTime.pack("2024-01-29", "2510"));
+    }
+    
+    @Test
+    public void testFormatTime() {
+        assertEquals("0742", ServiceTime.formatTime(7 * 60 + 42));
+        assertEquals("2405", ServiceTime.formatTime(24 * 60 + 5));
+        assertEquals("10000", ServiceTime.formatTime(100 * 60));
+        assertEquals(7 * 60 + 42, ServiceTime.parseTime("0742"));
+    }
+    
+    @Test
+    public void testZoneIsCached() {
+        assertSame(ServiceTime.zone("Europe/Helsinki"), ServiceTime.zone("Europe/Helsinki"));
+        assertEquals(ZoneId.of("Europe/Helsinki"), ServiceTime.zone("Europe/Helsinki"));
+    }
+}
@@ -0,0 +1,41 @@
+package fi.hsl.transitdata.cancellation.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TripKeyTest {
+    
+    @Test
+    public void testTripKeyIsPackedAndUnpacked() {
+        long tripKey = TripKey.of(0, "20240220", "2530", 1);
+        
+        assertEquals(0, TripKey.getRouteIndex(tripKey));
+        assertEquals(20240220, TripKey.getOperatingDay(tripKey));
+        assertEquals(25 * 60 + 30, TripKey.getStartMinute(tripKey));
+        assertEquals(1, TripKey.getDirectionId(tripKey));
+        assertEquals(tripKey, TripKey.of(0, "20240220", "2530", 1));
+        assertNotEquals(tripKey, TripKey.of(0, "20240220", "2530", 0));
+        assertNotEquals(tripKey, TripKey.of(1, "20240220", "2530", 1));
+    }
+    
+    @Test
+    public void testInvalidTripKey() {
+        assertEquals(TripKey.INVALID, TripKey.of(0, "2024-02-20", "1408", 1));
+        assertEquals(TripKey.INVALID, TripKey.of(0, "20240220", "14:08", 1));
+        assertEquals(TripKey.INVALID, TripKey.of(0, "20240220", "1408", -1));
+        assertEquals(TripKey.INVALID, TripKey.of(-1, "20240220", "1408", 1));
+    }
+    
+    @Test
+    public void testTripKeySet() {
+        TripKeySet set = new TripKeySet(2);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(set.add(TripKey.of(0, "20240220", String.format("%02d%02d", i / 60, i % 60), 1)));
+        }
+        assertFalse(set.add(TripKey.of(0, "20240220", "0042", 1)));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertEquals(101, set.size());
+    }
+}
@@ -0,0 +1,66 @@
+package fi.hsl.transitdata.cancellation.metrics;
+
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.CaffeineBulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.MeteredBulletinStateStore;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MetricsServerTest {
+
+    private MetricsServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MetricsServer(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testStateStoreMetricsAreScraped() throws Exception {
+        MeteredBulletinStateStore store = new MeteredBulletinStateStore(
+                CaffeineBulletinStateStore.newInstance(Duration.ofHours(4)), server.getRegistry());
+        store.get("bulletin1");
+        store.put("bulletin1", BulletinState.of(Collections.emptyList()));
+        store.get("bulletin1");
+
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + server.getPort() + MetricsServer.PATH).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        String body;
+        try (InputStream inputStream = connection.getInputStream()) {
+            body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        assertTrue(body.contains("cancellation_state_requests_total{result=\"hit\",} 1.0"));
+        assertTrue(body.contains("cancellation_state_requests_total{result=\"miss\",} 1.0"));
+        assertTrue(body.contains("cancellation_state_bulletins 1.0"));
+        assertTrue(body.contains("jvm_memory_used_bytes"));
+    }
+
+    @Test
+    public void testOnlyGetIsAllowed() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + server.getPort() + MetricsServer.PATH).openConnection();
+        connection.setRequestMethod("POST");
+
+        assertEquals(405, connection.getResponseCode());
+    }
+}
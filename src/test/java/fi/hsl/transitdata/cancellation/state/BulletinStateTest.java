@@ -0,0 +1,157 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulletinStateTest {
+
+    @Test
+    public void testCancellationIsRestoredFromState() {
+        BulletinState state = BulletinState.of(Arrays.asList(
+                createCancellationData("1030", "20240220", "14:08:00", 2),
+                createCancellationData("1030", "20240221", "14:08:00", 2)));
+
+        assertEquals(2, state.size());
+        assertTrue(state.containsTrip("HSL:1030_20240212_MaTiKeToPe_2_1408_20240221"));
+        // the same departure on both days shares one template
+        assertSame(state.getTemplate(0), state.getTemplate(1));
+
+        CancellationData restored = state.toCancellationMap().get("HSL:1030_20240212_MaTiKeToPe_2_1408_20240220");
+        InternalMessages.TripCancellation payload = restored.getPayload();
+        assertEquals("1030", payload.getRouteId());
+        assertEquals(2, payload.getDirectionId());
+        assertEquals("20240220", payload.getStartDate());
+        assertEquals("14:08:00", payload.getStartTime());
+        assertEquals(payload.getTripId(), restored.getDvjId());
+        assertEquals(1708000000000L, restored.getTimestamp());
+        assertEquals(InternalMessages.TripCancellation.DeviationCasesType.CANCEL_DEPARTURE.getNumber(),
+                restored.deviationCaseId);
+    }
+
+    @Test
+    public void testDiffWithPreviousVersion() {
+        CancellationData unchanged = createCancellationData("1030", "20240220", "14:08:00", 2);
+        CancellationData removed = createCancellationData("1030", "20240220", "15:08:00", 2);
+        CancellationData added = createCancellationData("2550", "20240220", "07:15:00", 1);
+        BulletinState previous = BulletinState.of(Arrays.asList(removed, unchanged));
+
+        BulletinState.Diff diff = BulletinState.diff(previous, Arrays.asList(added, unchanged));
+        BulletinChanges changes = diff.getChanges();
+
+        assertEquals(Collections.singletonList(added), changes.getNewCancellations());
+        assertEquals(Collections.singletonList(unchanged), changes.getUnchangedCancellations());
+        assertEquals(1, changes.getCancelledCancellations().size());
+        InternalMessages.TripCancellation cancelled = changes.getCancelledCancellations().get(0).getPayload();
+        assertEquals(removed.getTripId(), cancelled.getTripId());
+        assertEquals("15:08:00", cancelled.getStartTime());
+        assertEquals(InternalMessages.TripCancellation.Status.RUNNING, cancelled.getStatus());
+        assertEquals(2, diff.getState().size());
+    }
+
+    @Test
+    public void testTripWithChangedStartTimeIsNewButNotCancelled() {
+        CancellationData original = createCancellationData("1030", "20240220", "14:08:00", 2);
+        InternalMessages.TripCancellation changedPayload = original.getPayload().toBuilder()
+                .setStartTime("14:10:00")
+                .build();
+        CancellationData changed = new CancellationData(changedPayload, original.getTimestamp(), original.getDvjId(),
+                original.deviationCaseId);
+
+        BulletinChanges changes = BulletinState.diff(BulletinState.of(Collections.singletonList(original)),
+                Collections.singletonList(changed)).getChanges();
+
+        // the trip is not cancelled with status RUNNING, so it stays cancelled whatever order the messages arrive in
+        assertEquals(Collections.singletonList(changed), changes.getNewCancellations());
+        assertTrue(changes.getUnchangedCancellations().isEmpty());
+        assertTrue(changes.getCancelledCancellations().isEmpty());
+    }
+
+    @Test
+    public void testStateInternedWithOtherTemplatesIsCompared() {
+        CancellationData unchanged = createCancellationData("1030", "20240220", "14:08:00", 2);
+        CancellationData removed = createCancellationData("1030", "20240221", "14:08:00", 2);
+        BulletinState previous = BulletinState.of(Arrays.asList(unchanged, removed));
+        TripTemplates storeTemplates = new TripTemplates();
+
+        BulletinState.Diff diff = BulletinState.diff(previous, Collections.singletonList(unchanged), storeTemplates);
+
+        assertEquals(Collections.singletonList(unchanged), diff.getChanges().getUnchangedCancellations());
+        assertEquals(1, diff.getChanges().getCancelledCancellations().size());
+        assertEquals(removed.getTripId(), diff.getChanges().getCancelledCancellations().get(0).getTripId());
+        assertSame(storeTemplates, diff.getState().getTemplate(0).owner);
+    }
+
+    @Test
+    public void testDuplicateTripsAreStoredOnce() {
+        CancellationData cancellationData = createCancellationData("1030", "20240220", "14:08:00", 2);
+
+        BulletinState.Diff diff = BulletinState.diff(null, Arrays.asList(cancellationData, cancellationData));
+
+        assertEquals(2, diff.getChanges().getNewCancellations().size());
+        assertEquals(1, diff.getState().size());
+    }
+
+    @Test
+    public void testStateIsEncodedAndDecoded() throws Exception {
+        List<CancellationData> cancellations = Arrays.asList(
+                createCancellationData("1030", "20240220", "14:08:00", 2),
+                createCancellationData("1030", "20240221", "14:08:00", 2),
+                createCancellationData("2550", "20240220", "25:15:00", 1));
+        BulletinState state = BulletinState.of(cancellations);
+
+        byte[] encoded = BulletinStateCodec.encode("bulletin1", 1708000000000L, state);
+        BulletinStateCodec.Record record = BulletinStateCodec.read(new ByteArrayInputStream(encoded));
+
+        assertEquals("bulletin1", record.bulletinId);
+        assertEquals(state.toCancellationMap().keySet(), record.state.toCancellationMap().keySet());
+        BulletinChanges changes = BulletinState.diff(record.state, cancellations).getChanges();
+        assertEquals(3, changes.getUnchangedCancellations().size());
+        assertTrue(changes.getCancelledCancellations().isEmpty());
+    }
+
+    @Test
+    public void testVersionIsEncodedAndDecoded() throws Exception {
+        BulletinState state = BulletinState.of(Arrays.asList(createCancellationData("1030", "20240220", "14:08:00", 2)))
+                .withVersion(1708000000000L, 123456789L);
+        BulletinState empty = BulletinState.of(Collections.emptyList()).withVersion(1708000000000L, 987654321L);
+
+        BulletinStateCodec.Record record = BulletinStateCodec.read(
+                new ByteArrayInputStream(BulletinStateCodec.encode("bulletin1", 1708000000000L, state)));
+        BulletinStateCodec.Record emptyRecord = BulletinStateCodec.read(
+                new ByteArrayInputStream(BulletinStateCodec.encode("bulletin2", 1708000000000L, empty)));
+
+        assertEquals(123456789L, record.state.getFingerprint());
+        assertEquals(1708000000000L, record.state.getTimestamp());
+        assertEquals(1, record.state.size());
+        assertEquals(987654321L, emptyRecord.state.getFingerprint());
+        assertEquals(1708000000000L, emptyRecord.state.getTimestamp());
+        assertTrue(emptyRecord.state.isEmpty());
+    }
+
+    private static CancellationData createCancellationData(String routeId, String startDate, String startTime,
+                                                           int directionId) {
+        String tripId = "HSL:" + routeId + "_20240212_MaTiKeToPe_" + directionId + "_"
+                + startTime.substring(0, 2) + startTime.substring(3, 5) + "_" + startDate;
+        InternalMessages.TripCancellation tripCancellation = InternalMessages.TripCancellation.newBuilder()
+                .setRouteId(routeId)
+                .setDirectionId(directionId)
+                .setStartDate(startDate)
+                .setStartTime(startTime)
+                .setStatus(InternalMessages.TripCancellation.Status.CANCELED)
+                .setSchemaVersion(1)
+                .setTripId(tripId)
+                .setTitle("bulletin1")
+                .build();
+        return new CancellationData(tripCancellation, 1708000000000L, tripId,
+                InternalMessages.TripCancellation.DeviationCasesType.CANCEL_DEPARTURE.getNumber());
+    }
+}
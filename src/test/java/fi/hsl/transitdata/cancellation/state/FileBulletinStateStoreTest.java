@@ -0,0 +1,221 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.util.MutableClock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.createCancellationData;
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.storeBulletin;
+import static org.junit.Assert.*;
+
+public class FileBulletinStateStoreTest {
+    
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-02-20T10:00:00Z"), ZoneOffset.UTC);
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void testStateIsRecoveredAfterRestart() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        store.put("bulletin1", createTripCancellations("trip1", "trip2"));
+        store.put("bulletin2", createTripCancellations("trip3"));
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.close();
+        
+        FileBulletinStateStore recovered = createStore(directory, CLOCK);
+        assertEquals(2, recovered.size());
+        assertEquals(createTripCancellations("trip1").toCancellationMap().keySet(),
+                recovered.get("bulletin1").toCancellationMap().keySet());
+        CancellationData cancellationData = recovered.get("bulletin2").toCancellationMap().get("trip3");
+        assertEquals("trip3", cancellationData.getPayload().getTripId());
+        assertEquals(1706616017L, cancellationData.getTimestamp());
+        assertEquals("dvj-trip3", cancellationData.getDvjId());
+        assertEquals(123L, cancellationData.deviationCaseId);
+        recovered.close();
+    }
+    
+    @Test
+    public void testRestartProducesOnlyDeltas() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        storeBulletin(store, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        store.close();
+        
+        FileBulletinStateStore recovered = createStore(directory, CLOCK);
+        List<CancellationData> cancellations = storeBulletin(recovered, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"))).getAll();
+        recovered.close();
+        
+        // unchanged trip1 and cancellation-of-cancellation for trip2 removed before the restart
+        assertEquals(2, cancellations.size());
+        assertEquals(InternalMessages.TripCancellation.Status.CANCELED, cancellations.get(0).getPayload().getStatus());
+        assertEquals("trip2", cancellations.get(1).getTripId());
+        assertEquals(InternalMessages.TripCancellation.Status.RUNNING, cancellations.get(1).getPayload().getStatus());
+    }
+    
+    @Test
+    public void testIncompleteRecordAtEndOfLogIsDropped() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.close();
+        
+        Path logPath = directory.resolve(FileBulletinStateStore.LOG_FILE);
+        long validLength = Files.size(logPath);
+        byte[] record = BulletinStateCodec.encode("bulletin2", CLOCK.millis(), createTripCancellations("trip2"));
+        Files.write(logPath, Arrays.copyOf(record, record.length - 5), StandardOpenOption.APPEND);
+        
+        FileBulletinStateStore recovered = createStore(directory, CLOCK);
+        assertEquals(1, recovered.size());
+        assertNull(recovered.get("bulletin2"));
+        assertEquals(validLength, Files.size(logPath));
+        
+        // new records are appended after the last complete record
+        recovered.put("bulletin3", createTripCancellations("trip3"));
+        recovered.close();
+        FileBulletinStateStore recoveredAgain = createStore(directory, CLOCK);
+        assertEquals(2, recoveredAgain.size());
+        recoveredAgain.close();
+    }
+    
+    @Test
+    public void testCompaction() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = new FileBulletinStateStore(directory, Duration.ofHours(4), Duration.ZERO, 200, CLOCK);
+        long written = 0;
+        for (int i = 0; i < 10; i++) {
+            BulletinState state = createTripCancellations("trip" + i);
+            store.put("bulletin" + (i % 3), state);
+            written += BulletinStateCodec.encode("bulletin" + (i % 3), CLOCK.millis(), state).length;
+        }
+        // compaction runs in the background, and it is finished on close
+        store.close();
+        
+        assertTrue(Files.exists(directory.resolve(FileBulletinStateStore.SNAPSHOT_FILE)));
+        assertFalse(Files.exists(directory.resolve(FileBulletinStateStore.PREVIOUS_LOG_FILE)));
+        assertTrue(Files.size(directory.resolve(FileBulletinStateStore.LOG_FILE)) < written);
+        
+        FileBulletinStateStore recovered = createStore(directory, CLOCK);
+        assertEquals(3, recovered.size());
+        assertTrue(recovered.get("bulletin0").containsTrip("trip9"));
+        assertTrue(recovered.get("bulletin1").containsTrip("trip7"));
+        assertTrue(recovered.get("bulletin2").containsTrip("trip8"));
+        recovered.close();
+    }
+    
+    @Test
+    public void testLogOfUnfinishedCompactionIsReplayed() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.put("bulletin2", createTripCancellations("trip2"));
+        store.close();
+        // log was moved aside, but the snapshot was not written
+        Files.move(directory.resolve(FileBulletinStateStore.LOG_FILE),
+                directory.resolve(FileBulletinStateStore.PREVIOUS_LOG_FILE));
+        
+        FileBulletinStateStore recovered = createStore(directory, CLOCK);
+        assertEquals(2, recovered.size());
+        recovered.put("bulletin1", createTripCancellations("trip3"));
+        recovered.compact();
+        recovered.close();
+        assertFalse(Files.exists(directory.resolve(FileBulletinStateStore.PREVIOUS_LOG_FILE)));
+        
+        FileBulletinStateStore recoveredAgain = createStore(directory, CLOCK);
+        assertEquals(2, recoveredAgain.size());
+        assertTrue(recoveredAgain.get("bulletin1").containsTrip("trip3"));
+        assertTrue(recoveredAgain.get("bulletin2").containsTrip("trip2"));
+        recoveredAgain.close();
+    }
+    
+    @Test
+    public void testFailedWriteIsNotApplied() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.close();
+        
+        try {
+            store.put("bulletin1", createTripCancellations("trip2"));
+            fail("Write to a closed log should fail");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        assertTrue(store.get("bulletin1").containsTrip("trip1"));
+        assertFalse(store.get("bulletin1").containsTrip("trip2"));
+    }
+    
+    @Test
+    public void testReadRenewsExpiration() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        MutableClock clock = new MutableClock(CLOCK.instant());
+        
+        FileBulletinStateStore store = createStore(directory, clock);
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.put("bulletin2", createTripCancellations("trip2"));
+        clock.advance(Duration.ofHours(3));
+        assertNotNull(store.get("bulletin1"));
+        clock.advance(Duration.ofHours(3));
+        assertNotNull(store.get("bulletin1"));
+        assertNull(store.get("bulletin2"));
+        
+        // last read is kept by compaction
+        store.compact();
+        store.close();
+        clock.advance(Duration.ofHours(3));
+        FileBulletinStateStore recovered = createStore(directory, clock);
+        assertNotNull(recovered.get("bulletin1"));
+        recovered.close();
+    }
+    
+    @Test
+    public void testExpiredBulletinsAreNotRecovered() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        
+        FileBulletinStateStore store = createStore(directory, CLOCK);
+        store.put("bulletin1", createTripCancellations("trip1"));
+        store.close();
+        
+        FileBulletinStateStore recovered = createStore(directory, Clock.offset(CLOCK, Duration.ofHours(5)));
+        assertEquals(0, recovered.size());
+        assertNull(recovered.get("bulletin1"));
+        recovered.close();
+    }
+    
+    private static FileBulletinStateStore createStore(Path directory, Clock clock) throws IOException {
+        return new FileBulletinStateStore(directory, Duration.ofHours(4), Duration.ofSeconds(1), 1024 * 1024, clock);
+    }
+    
+    private static BulletinState createTripCancellations(String... tripIds) {
+        List<CancellationData> tripCancellations = new ArrayList<>();
+        for (String tripId : tripIds) {
+            tripCancellations.add(createCancellationData(tripId));
+        }
+        return BulletinState.of(tripCancellations);
+    }
+}
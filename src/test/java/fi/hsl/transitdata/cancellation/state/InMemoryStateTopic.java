@@ -0,0 +1,89 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory stand-in for a compacted state topic. Records are delivered synchronously to the other connected
+ * instances. New subscribers receive the latest record of each key, like from a compacted topic, and keys with a
+ * null value are dropped.
+ */
+class InMemoryStateTopic {
+
+    private static class StoredRecord {
+        final String writerId;
+        final byte[] value;
+
+        StoredRecord(String writerId, byte[] value) {
+            this.writerId = writerId;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, StoredRecord> compacted = new LinkedHashMap<>();
+    private final List<Connection> connections = new ArrayList<>();
+
+    synchronized StateTopic connect(String writerId) {
+        Connection connection = new Connection(writerId);
+        connections.add(connection);
+        return connection;
+    }
+
+    synchronized int size() {
+        return compacted.size();
+    }
+
+    private synchronized void publish(String writerId, String key, byte[] value) {
+        compacted.remove(key);
+        if (value != null) {
+            compacted.put(key, new StoredRecord(writerId, value));
+        }
+        for (Connection connection : connections) {
+            connection.deliver(writerId, key, value);
+        }
+    }
+
+    private class Connection implements StateTopic {
+        private final String writerId;
+        private StateTopic.Listener listener;
+
+        Connection(String writerId) {
+            this.writerId = writerId;
+        }
+
+        @Override
+        public void subscribe(StateTopic.Listener listener) {
+            synchronized (InMemoryStateTopic.this) {
+                this.listener = listener;
+                compacted.forEach((key, record) -> deliver(record.writerId, key, record.value));
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> publish(String key, byte[] value) {
+            InMemoryStateTopic.this.publish(writerId, key, value);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> catchUp() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            synchronized (InMemoryStateTopic.this) {
+                connections.remove(this);
+            }
+        }
+
+        private void deliver(String recordWriterId, String key, byte[] value) {
+            if (listener != null && !writerId.equals(recordWriterId)) {
+                listener.onRecord(key, value);
+            }
+        }
+    }
+}
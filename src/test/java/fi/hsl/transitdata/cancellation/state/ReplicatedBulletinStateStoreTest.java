@@ -0,0 +1,114 @@
+package fi.hsl.transitdata.cancellation.state;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.util.MutableClock;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.createCancellationData;
+import static fi.hsl.transitdata.cancellation.util.CancellationFixtures.storeBulletin;
+import static org.junit.Assert.*;
+
+public class ReplicatedBulletinStateStoreTest {
+    
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-02-20T10:00:00Z"), ZoneOffset.UTC);
+    
+    private final InMemoryStateTopic stateTopic = new InMemoryStateTopic();
+    
+    @Test
+    public void testStandbyKeepsWarmCopy() {
+        ReplicatedBulletinStateStore active = createStore("active");
+        ReplicatedBulletinStateStore standby = createStore("standby");
+        
+        storeBulletin(active, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        
+        assertTrue(active.isWriter());
+        assertFalse(standby.isWriter());
+        assertEquals(2, standby.get("bulletin1").size());
+        assertEquals(1, stateTopic.size());
+    }
+    
+    @Test
+    public void testTakeoverProducesOnlyDeltas() {
+        ReplicatedBulletinStateStore active = createStore("active");
+        ReplicatedBulletinStateStore standby = createStore("standby");
+        
+        storeBulletin(active, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        active.close();
+        
+        // standby takes over and receives a new version of the bulletin with trip2 removed
+        List<CancellationData> cancellations = storeBulletin(standby, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"))).getAll();
+        
+        assertEquals(2, cancellations.size());
+        assertEquals("trip1", cancellations.get(0).getTripId());
+        assertEquals("trip2", cancellations.get(1).getTripId());
+        assertEquals(InternalMessages.TripCancellation.Status.RUNNING, cancellations.get(1).getPayload().getStatus());
+        assertTrue(standby.isWriter());
+    }
+    
+    @Test
+    public void testNewInstanceReadsCompactedState() {
+        ReplicatedBulletinStateStore active = createStore("active");
+        storeBulletin(active, "bulletin1", Arrays.asList(createCancellationData("trip1")));
+        storeBulletin(active, "bulletin1",
+                Arrays.asList(createCancellationData("trip1"), createCancellationData("trip2")));
+        storeBulletin(active, "bulletin2", Arrays.asList(createCancellationData("trip3")));
+        
+        ReplicatedBulletinStateStore started = createStore("started");
+        
+        assertEquals(2, stateTopic.size());
+        assertEquals(2, started.get("bulletin1").size());
+        assertEquals(1, started.get("bulletin2").size());
+    }
+    
+    @Test
+    public void testExpiredRecordsAreNotApplied() {
+        ReplicatedBulletinStateStore active = createStore("active");
+        storeBulletin(active, "bulletin1", Arrays.asList(createCancellationData("trip1")));
+        
+        ReplicatedBulletinStateStore started = new ReplicatedBulletinStateStore(
+                CaffeineBulletinStateStore.newInstance(Duration.ofHours(4)), stateTopic.connect("started"),
+                Duration.ofHours(4), Duration.ofSeconds(1), Clock.offset(CLOCK, Duration.ofHours(5)));
+        
+        assertNull(started.get("bulletin1"));
+    }
+    
+    @Test
+    public void testExpiredBulletinsAreRemovedFromTopic() {
+        MutableClock clock = new MutableClock(CLOCK.instant());
+        ReplicatedBulletinStateStore active = new ReplicatedBulletinStateStore(
+                CaffeineBulletinStateStore.newInstance(Duration.ofHours(4)), stateTopic.connect("active"),
+                Duration.ofHours(4), Duration.ofSeconds(1), clock);
+        ReplicatedBulletinStateStore standby = createStore("standby");
+        storeBulletin(active, "bulletin1", Arrays.asList(createCancellationData("trip1")));
+        storeBulletin(active, "bulletin2", Arrays.asList(createCancellationData("trip2")));
+        
+        // bulletin1 is read, bulletin2 is not
+        clock.advance(Duration.ofHours(3));
+        assertNotNull(active.get("bulletin1"));
+        clock.advance(Duration.ofHours(2));
+        standby.removeExpired();
+        assertEquals(2, stateTopic.size());
+        active.removeExpired();
+        
+        assertEquals(1, stateTopic.size());
+        ReplicatedBulletinStateStore started = createStore("started");
+        assertNotNull(started.get("bulletin1"));
+        assertNull(started.get("bulletin2"));
+    }
+    
+    private ReplicatedBulletinStateStore createStore(String writerId) {
+        return new ReplicatedBulletinStateStore(CaffeineBulletinStateStore.newInstance(Duration.ofHours(4)),
+                stateTopic.connect(writerId), Duration.ofHours(4), Duration.ofSeconds(1), CLOCK);
+    }
+}
@@ -0,0 +1,206 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingTripInfoProviderTest {
+    
+    private CountingTripInfoProvider delegate;
+    private CachingTripInfoProvider provider;
+    
+    @Before
+    public void setUp() {
+        delegate = new CountingTripInfoProvider();
+        provider = new CachingTripInfoProvider(
+                delegate, Duration.ofHours(6), Duration.ofMinutes(30), Duration.ofHours(1), 1000);
+    }
+    
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+    
+    @Test
+    public void testSecondLookupIsServedFromCache() {
+        List<String> routeIds = Arrays.asList("HSL:1001", "HSL:1002");
+        List<String> dates = Arrays.asList("20240220", "20240221");
+        
+        Map<RouteDay, List<InternalMessages.TripInfo>> first = provider.getTripInfos(routeIds, dates);
+        Map<RouteDay, List<InternalMessages.TripInfo>> second = provider.getTripInfos(routeIds, dates);
+        
+        assertEquals(1, delegate.calls.get());
+        assertEquals(4, second.size());
+        assertEquals(first, second);
+        assertEquals(4, provider.getStats().hitCount());
+        assertEquals(4, provider.getStats().missCount());
+    }
+    
+    @Test
+    public void testOnlyMissingRouteDaysAreLoaded() {
+        provider.getTripInfos(Arrays.asList("HSL:1001"), Arrays.asList("20240220"));
+        provider.getTripInfos(Arrays.asList("HSL:1001", "HSL:1002"), Arrays.asList("20240220"));
+        
+        assertEquals(2, delegate.calls.get());
+        assertEquals(Arrays.asList("HSL:1002"), delegate.lastRouteIds);
+    }
+    
+    @Test
+    public void testRoutesWithoutTripsAreCached() {
+        Map<RouteDay, List<InternalMessages.TripInfo>> first = provider.getTripInfos(
+                Arrays.asList(CountingTripInfoProvider.EMPTY_ROUTE), Arrays.asList("20240220"));
+        provider.getTripInfos(Arrays.asList(CountingTripInfoProvider.EMPTY_ROUTE), Arrays.asList("20240220"));
+        
+        assertTrue(first.get(new RouteDay(CountingTripInfoProvider.EMPTY_ROUTE, "20240220")).isEmpty());
+        assertEquals(1, delegate.calls.get());
+    }
+    
+    @Test
+    public void testPreloadReplacesCachedTripsAndServesLaterLookups() {
+        List<String> routeIds = Arrays.asList("HSL:1001", "HSL:1002");
+        List<String> dates = Arrays.asList("20240220");
+        provider.getTripInfos(Arrays.asList("HSL:1001"), dates);
+        
+        provider.preload(routeIds, dates);
+        provider.getTripInfos(routeIds, dates);
+        
+        assertEquals(2, delegate.calls.get());
+        assertEquals(routeIds, delegate.lastRouteIds);
+        assertEquals(2, provider.getSize());
+    }
+    
+    @Test
+    public void testLastLoadedTripsAreUsedWhenLoadingFails() throws Exception {
+        provider.close();
+        provider = new CachingTripInfoProvider(delegate, Duration.ofMillis(50), Duration.ofMillis(50),
+                Duration.ofHours(1), 1000, Duration.ofHours(1));
+        List<String> dates = Arrays.asList("20240220");
+        Map<RouteDay, List<InternalMessages.TripInfo>> loaded = provider.getTripInfos(Arrays.asList("HSL:1001"), dates);
+        Thread.sleep(100);
+        
+        delegate.failing = true;
+        assertEquals(loaded, provider.getTripInfos(Arrays.asList("HSL:1001"), dates));
+        assertEquals(2, delegate.calls.get());
+        
+        // trips of a route that has never been loaded are not known
+        try {
+            provider.getTripInfos(Arrays.asList("HSL:1001", "HSL:1002"), dates);
+            fail("Expected failure");
+        } catch (RuntimeException e) {
+            assertEquals("Failed to get trip data", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testConcurrentLookupsShareOneLoad() throws Exception {
+        delegate.blocker = new CountDownLatch(1);
+        List<String> routeIds = Arrays.asList("HSL:1001");
+        List<String> dates = Arrays.asList("20240220");
+        
+        CompletableFuture<Map<RouteDay, List<InternalMessages.TripInfo>>> first =
+                CompletableFuture.supplyAsync(() -> provider.getTripInfos(routeIds, dates));
+        CompletableFuture<Map<RouteDay, List<InternalMessages.TripInfo>>> second =
+                CompletableFuture.supplyAsync(() -> provider.getTripInfos(routeIds, dates));
+        
+        Thread.sleep(200);
+        delegate.blocker.countDown();
+        
+        assertEquals(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, delegate.calls.get());
+    }
+    
+    @Test
+    public void testRefreshedRouteDaysAreReloadedTogether() throws Exception {
+        provider.close();
+        provider = new CachingTripInfoProvider(delegate, Duration.ofHours(6), Duration.ofMinutes(30),
+                Duration.ofMillis(50), 1000);
+        List<String> routeIds = Arrays.asList("HSL:1001", "HSL:1002", "HSL:1003");
+        List<String> dates = Arrays.asList("20240220");
+        provider.getTripInfos(routeIds, dates);
+        Thread.sleep(100);
+        
+        // cached trips are returned while they are refreshed
+        assertEquals(3, provider.getTripInfos(routeIds, dates).size());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delegate.calls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        
+        assertEquals(2, delegate.calls.get());
+        assertEquals(routeIds, delegate.lastRouteIds);
+    }
+    
+    @Test
+    public void testCacheStatisticsArePublished() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        provider.bindTo(registry);
+        List<String> dates = Arrays.asList("20240220");
+        provider.getTripInfos(Arrays.asList("HSL:1001", "HSL:1002"), dates);
+        provider.getTripInfos(Arrays.asList("HSL:1001"), dates);
+        
+        assertEquals(2, registry.get("cache.gets").tags("cache", "timetable", "result", "miss")
+                .functionCounter().count(), 0);
+        assertEquals(1, registry.get("cache.gets").tags("cache", "timetable", "result", "hit")
+                .functionCounter().count(), 0);
+        assertEquals(2, registry.get("cache.size").tag("cache", "timetable").gauge().value(), 0);
+    }
+    
+    private static class CountingTripInfoProvider implements TripInfoProvider {
+        static final String EMPTY_ROUTE = "HSL:9999";
+        
+        final AtomicInteger calls = new AtomicInteger();
+        volatile List<String> lastRouteIds;
+        volatile CountDownLatch blocker;
+        volatile boolean failing;
+        
+        @Override
+        public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+            calls.incrementAndGet();
+            lastRouteIds = new ArrayList<>(routeIds);
+            if (failing) {
+                throw new IllegalStateException("Digitransit API is down");
+            }
+            if (blocker != null) {
+                try {
+                    blocker.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+            for (String date : dates) {
+                for (String routeId : routeIds) {
+                    tripInfos.put(new RouteDay(routeId, date), EMPTY_ROUTE.equals(routeId)
+                            ? Collections.emptyList()
+                            : Collections.singletonList(InternalMessages.TripInfo.newBuilder()
+                                    .setRouteId(routeId)
+                                    .setTripId(routeId + "_Ma_1_0700")
+                                    .setOperatingDay(date)
+                                    .setStartTime("0700")
+                                    .setDirectionId(1)
+                                    .build()));
+                }
+            }
+            return tripInfos;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the GTFS fixture feed in src/test/resources/gtfs into a zip file.
+ */
+class GtfsFixture {
+
+    private static final String[] FILES = {
+            "routes.txt", "calendar.txt", "calendar_dates.txt", "trips.txt", "stop_times.txt" };
+
+    static Path writeZip(Path zipFile) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(zipFile);
+             ZipOutputStream zip = new ZipOutputStream(outputStream)) {
+            for (String file : FILES) {
+                zip.putNextEntry(new ZipEntry(file));
+                try (InputStream inputStream = GtfsFixture.class.getResourceAsStream("/gtfs/" + file)) {
+                    inputStream.transferTo(zip);
+                }
+                zip.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+}
@@ -0,0 +1,99 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GtfsTimetableIndexTest {
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private GtfsTimetableIndex index;
+    
+    @Before
+    public void setUp() throws Exception {
+        index = GtfsTimetableIndex.load(GtfsFixture.writeZip(temporaryFolder.getRoot().toPath().resolve("gtfs.zip")), "HSL");
+    }
+    
+    @Test
+    public void testIndexSize() {
+        assertEquals(2, index.getNumberOfRoutes());
+        assertEquals(6, index.getNumberOfTrips());
+    }
+    
+    @Test
+    public void testWeekdayTripsOrderedByFirstDeparture() {
+        List<InternalMessages.TripInfo> tripInfos = index.getTripInfos("HSL:1001", "20240219");
+        
+        assertEquals(3, tripInfos.size());
+        
+        InternalMessages.TripInfo first = tripInfos.get(0);
+        assertEquals("HSL:1001", first.getRouteId());
+        assertEquals("HSL:1001_20240219_Ma_1_0700", first.getTripId());
+        assertEquals("20240219", first.getOperatingDay());
+        assertEquals("0700", first.getStartTime());
+        assertEquals(0, first.getDirectionId());
+        
+        // first departure is taken from the lowest stop_sequence, not from the first row
+        assertEquals("0830", tripInfos.get(1).getStartTime());
+        assertEquals(1, tripInfos.get(1).getDirectionId());
+        
+        // trips after midnight belong to the previous service date
+        assertEquals("2505", tripInfos.get(2).getStartTime());
+        assertEquals("20240219", tripInfos.get(2).getOperatingDay());
+    }
+    
+    @Test
+    public void testWeekendTrips() {
+        List<InternalMessages.TripInfo> tripInfos = index.getTripInfos("HSL:1001", "20240224");
+        
+        assertEquals(1, tripInfos.size());
+        assertEquals("HSL:1001_20240219_La_1_0900", tripInfos.get(0).getTripId());
+    }
+    
+    @Test
+    public void testCalendarDateExceptions() {
+        List<String> tripIds = index.getTripInfos("HSL:1001", "20240221").stream()
+                .map(InternalMessages.TripInfo::getTripId).collect(Collectors.toList());
+        
+        assertEquals(List.of("HSL:1001_20240221_Ke_1_0730"), tripIds);
+    }
+    
+    @Test
+    public void testTripsOutsideCalendarPeriod() {
+        assertTrue(index.getTripInfos("HSL:1001", "20250101").isEmpty());
+    }
+    
+    @Test
+    public void testTimeWindow() {
+        List<InternalMessages.TripInfo> tripInfos = index.getTripInfos("HSL:1001", "20240219", 7 * 3600 + 1, 25 * 3600 + 5 * 60);
+        
+        assertEquals(2, tripInfos.size());
+        assertEquals("0830", tripInfos.get(0).getStartTime());
+        assertEquals("2505", tripInfos.get(1).getStartTime());
+        
+        assertTrue(index.getTripInfos("HSL:1001", "20240219", 9 * 3600, 10 * 3600).isEmpty());
+    }
+    
+    @Test
+    public void testArrivalTimeAndDirectionDefaults() {
+        List<InternalMessages.TripInfo> tripInfos = index.getTripInfos("HSL:1002", "20240219");
+        
+        assertEquals(1, tripInfos.size());
+        assertEquals("0600", tripInfos.get(0).getStartTime());
+        assertEquals(0, tripInfos.get(0).getDirectionId());
+    }
+    
+    @Test
+    public void testUnknownRoute() {
+        assertTrue(index.getTripInfos("HSL:9999", "20240219").isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GtfsTripInfoProviderTest {
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void testTripInfosForEveryRouteAndDate() throws Exception {
+        Path gtfsZip = GtfsFixture.writeZip(temporaryFolder.getRoot().toPath().resolve("gtfs.zip"));
+        
+        try (GtfsTripInfoProvider provider = new GtfsTripInfoProvider(gtfsZip, "HSL", Duration.ZERO)) {
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = provider.getTripInfos(
+                    Arrays.asList("HSL:1001", "HSL:1003"), Arrays.asList("20240219", "20240224"));
+            
+            assertEquals(Arrays.asList(
+                    new RouteDay("HSL:1001", "20240219"), new RouteDay("HSL:1003", "20240219"),
+                    new RouteDay("HSL:1001", "20240224"), new RouteDay("HSL:1003", "20240224")),
+                    new ArrayList<>(tripInfos.keySet()));
+            assertEquals(3, tripInfos.get(new RouteDay("HSL:1001", "20240219")).size());
+            assertEquals(1, tripInfos.get(new RouteDay("HSL:1001", "20240224")).size());
+            assertTrue(tripInfos.get(new RouteDay("HSL:1003", "20240219")).isEmpty());
+        }
+    }
+    
+    @Test
+    public void testReloadIfModified() throws Exception {
+        Path gtfsZip = GtfsFixture.writeZip(temporaryFolder.getRoot().toPath().resolve("gtfs.zip"));
+        
+        try (GtfsTripInfoProvider provider = new GtfsTripInfoProvider(gtfsZip, "HSL", Duration.ZERO)) {
+            GtfsTimetableIndex original = provider.getIndex();
+            assertFalse(provider.reloadIfModified());
+            assertSame(original, provider.getIndex());
+            
+            Files.setLastModifiedTime(gtfsZip, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            assertTrue(provider.reloadIfModified());
+            assertNotSame(original, provider.getIndex());
+            
+            // broken feed keeps the previous index
+            GtfsTimetableIndex reloaded = provider.getIndex();
+            Files.write(gtfsZip, new byte[] { 1, 2, 3 });
+            Files.setLastModifiedTime(gtfsZip, FileTime.fromMillis(System.currentTimeMillis() + 120000));
+            assertFalse(provider.reloadIfModified());
+            assertSame(reloaded, provider.getIndex());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PrewarmingTripInfoProviderTest {
+    
+    // 03:00 in Helsinki
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-02-20T01:00:00Z"), ZoneOffset.UTC);
+    
+    private final RecordingTripInfoProvider delegate = new RecordingTripInfoProvider();
+    private PrewarmingTripInfoProvider provider;
+    
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+    
+    @Test
+    public void testConfiguredAndMostOftenLookedUpRoutesAreLoaded() {
+        provider = createProvider(LocalTime.of(3, 30), 2, Arrays.asList("HSL:1001"));
+        provider.getTripInfos(Arrays.asList("HSL:2002", "HSL:3003"), Arrays.asList("20240219"));
+        provider.getTripInfos(Arrays.asList("HSL:3003", "HSL:3003"), Arrays.asList("20240219"));
+        provider.getTripInfos(Arrays.asList("HSL:4004"), Arrays.asList("20240219"));
+        
+        assertEquals(4, provider.prewarm());
+        
+        assertEquals(1, delegate.preloads.size());
+        assertEquals(Arrays.asList("HSL:1001", "HSL:3003"), delegate.preloads.get(0).get(0));
+        assertEquals(Arrays.asList("20240220", "20240221"), delegate.preloads.get(0).get(1));
+    }
+    
+    @Test
+    public void testRoutesAreLoadedInParts() {
+        List<String> routeIds = new ArrayList<>();
+        for (int i = 0; i < PrewarmingTripInfoProvider.ROUTES_PER_LOAD + 1; i++) {
+            routeIds.add("HSL:" + (1000 + i));
+        }
+        provider = createProvider(LocalTime.of(3, 30), 1, routeIds);
+        delegate.failFirst = true;
+        
+        assertEquals(1, provider.prewarm());
+        assertEquals(2, delegate.preloads.size());
+        assertEquals(Collections.singletonList("HSL:" + (1000 + PrewarmingTripInfoProvider.ROUTES_PER_LOAD)),
+                delegate.preloads.get(1).get(0));
+    }
+    
+    @Test
+    public void testNextRunIsAtConfiguredLocalTime() {
+        assertEquals(Duration.ofMinutes(30), createProvider(LocalTime.of(3, 30), 1, Collections.emptyList())
+                .getDelayToNextRun());
+        provider.close();
+        assertEquals(Duration.ofHours(23), createProvider(LocalTime.of(2, 0), 1, Collections.emptyList())
+                .getDelayToNextRun());
+    }
+    
+    private PrewarmingTripInfoProvider createProvider(LocalTime at, int days, List<String> routeIds) {
+        provider = new PrewarmingTripInfoProvider(delegate, at, days, 1, routeIds, "Europe/Helsinki", CLOCK);
+        return provider;
+    }
+    
+    private static class RecordingTripInfoProvider implements TripInfoProvider {
+        // each preload as (routeIds, dates)
+        final List<List<List<String>>> preloads = new ArrayList<>();
+        boolean failFirst;
+        
+        @Override
+        public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+            return Collections.emptyMap();
+        }
+        
+        @Override
+        public void preload(List<String> routeIds, List<String> dates) {
+            preloads.add(Arrays.asList(new ArrayList<>(routeIds), new ArrayList<>(dates)));
+            if (failFirst && preloads.size() == 1) {
+                throw new RuntimeException("Digitransit is not available");
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTripInfoProviderTest {
+    
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-02-20T10:00:00Z"), ZoneOffset.UTC);
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void testRestartedProviderServesSnapshotOnce() {
+        Path path = temporaryFolder.getRoot().toPath().resolve("timetable.snapshot");
+        List<String> routeIds = Arrays.asList("HSL:1001", "HSL:1002");
+        List<String> dates = Arrays.asList("20240220");
+        
+        RecordingTripInfoProvider firstDelegate = new RecordingTripInfoProvider();
+        SnapshotTripInfoProvider first = createProvider(firstDelegate, path, Duration.ofHours(24));
+        Map<RouteDay, List<InternalMessages.TripInfo>> expected = first.getTripInfos(routeIds, dates);
+        first.close();
+        assertEquals(1, firstDelegate.calls.size());
+        
+        RecordingTripInfoProvider secondDelegate = new RecordingTripInfoProvider();
+        SnapshotTripInfoProvider second = createProvider(secondDelegate, path, Duration.ofHours(24));
+        assertEquals(expected, second.getTripInfos(routeIds, dates));
+        assertTrue(secondDelegate.calls.isEmpty());
+        
+        // later lookups of the same route-days go to the delegate
+        second.getTripInfos(Arrays.asList("HSL:1001", "HSL:1003"), dates);
+        assertEquals(Arrays.asList("HSL:1001", "HSL:1003"), secondDelegate.calls.get(0));
+        second.close();
+    }
+    
+    @Test
+    public void testOldSnapshotIsNotUsed() {
+        Path path = temporaryFolder.getRoot().toPath().resolve("timetable.snapshot");
+        List<String> routeIds = Arrays.asList("HSL:1001");
+        List<String> dates = Arrays.asList("20240220");
+        
+        SnapshotTripInfoProvider first = createProvider(new RecordingTripInfoProvider(), path, Duration.ofHours(24));
+        first.getTripInfos(routeIds, dates);
+        first.close();
+        
+        RecordingTripInfoProvider delegate = new RecordingTripInfoProvider();
+        SnapshotTripInfoProvider second = new SnapshotTripInfoProvider(delegate, path, Duration.ofHours(1),
+                Duration.ZERO, "UTC", Clock.offset(CLOCK, Duration.ofHours(2)));
+        second.getTripInfos(routeIds, dates);
+        assertEquals(1, delegate.calls.size());
+        second.close();
+    }
+    
+    @Test
+    public void testPastDatesAreDroppedFromSnapshot() {
+        Path path = temporaryFolder.getRoot().toPath().resolve("timetable.snapshot");
+        
+        SnapshotTripInfoProvider provider = createProvider(new RecordingTripInfoProvider(), path, Duration.ofHours(24));
+        provider.getTripInfos(Arrays.asList("HSL:1001"), Arrays.asList("20240218", "20240219", "20240220"));
+        provider.writeSnapshot();
+        
+        TimetableSnapshot snapshot = provider.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.get(new RouteDay("HSL:1001", "20240218")));
+        assertNotNull(snapshot.get(new RouteDay("HSL:1001", "20240219")));
+        provider.close();
+    }
+    
+    private static SnapshotTripInfoProvider createProvider(TripInfoProvider delegate, Path path, Duration maxAge) {
+        return new SnapshotTripInfoProvider(delegate, path, maxAge, Duration.ZERO, "UTC", CLOCK);
+    }
+    
+    private static class RecordingTripInfoProvider implements TripInfoProvider {
+        final List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        
+        @Override
+        public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+            calls.add(new ArrayList<>(routeIds));
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+            for (String date : dates) {
+                for (String routeId : routeIds) {
+                    tripInfos.put(new RouteDay(routeId, date), Collections.singletonList(
+                            TimetableSnapshotTest.createTripInfo(routeId, routeId + "_Ma_1_0700", date, "0700", 1)));
+                }
+            }
+            return tripInfos;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package fi.hsl.transitdata.cancellation.timetable;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TimetableSnapshotTest {
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new HashMap<>();
+        tripInfos.put(new RouteDay("HSL:1001", "20240220"), Arrays.asList(
+                createTripInfo("HSL:1001", "HSL:1001_20240219_Ti_2_0700", "20240220", "0700", 1),
+                createTripInfo("HSL:1001", "HSL:1001_20240219_Ti_1_2505", "20240220", "2505", 0)));
+        tripInfos.put(new RouteDay("HSL:1001", "20240221"), Collections.singletonList(
+                createTripInfo("HSL:1001", "HSL:1001_20240219_Ke_1_0005", "20240221", "0005", 0)));
+        tripInfos.put(new RouteDay("HSL:2550", "20240220"), Collections.emptyList());
+        
+        Path path = temporaryFolder.getRoot().toPath().resolve("snapshots").resolve("timetable.snapshot");
+        TimetableSnapshot.write(path, tripInfos, 1708400000000L);
+        TimetableSnapshot snapshot = TimetableSnapshot.open(path);
+        
+        assertEquals(1708400000000L, snapshot.getCreatedAt());
+        assertEquals(3, snapshot.size());
+        for (Map.Entry<RouteDay, List<InternalMessages.TripInfo>> entry : tripInfos.entrySet()) {
+            assertEquals(entry.getValue(), snapshot.get(entry.getKey()));
+        }
+        assertNull(snapshot.get(new RouteDay("HSL:1001", "20240222")));
+        assertNull(snapshot.get(new RouteDay("HSL:1002", "20240220")));
+        
+        Map<RouteDay, List<InternalMessages.TripInfo>> read = new HashMap<>();
+        snapshot.forEach(read::put);
+        assertEquals(tripInfos, read);
+    }
+    
+    @Test
+    public void testWriteReplacesPreviousSnapshot() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("timetable.snapshot");
+        RouteDay routeDay = new RouteDay("HSL:1001", "20240220");
+        
+        TimetableSnapshot.write(path, Map.of(routeDay, Collections.emptyList()), 1L);
+        TimetableSnapshot previous = TimetableSnapshot.open(path);
+        TimetableSnapshot.write(path, Map.of(routeDay, Collections.singletonList(
+                createTripInfo("HSL:1001", "HSL:1001_20240219_Ti_2_0700", "20240220", "0700", 1))), 2L);
+        
+        assertEquals(2L, TimetableSnapshot.open(path).getCreatedAt());
+        assertEquals(1, TimetableSnapshot.open(path).get(routeDay).size());
+        // previously opened snapshot still reads the old content
+        assertTrue(previous.get(routeDay).isEmpty());
+        assertEquals(1, Files.list(path.getParent()).count());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testInvalidFileIsRejected() throws Exception {
+        Path path = temporaryFolder.newFile("timetable.snapshot").toPath();
+        Files.write(path, "not a snapshot, just some text".getBytes());
+        TimetableSnapshot.open(path);
+    }
+    
+    static InternalMessages.TripInfo createTripInfo(
+            String routeId, String tripId, String operatingDay, String startTime, int directionId) {
+        return InternalMessages.TripInfo.newBuilder()
+                .setRouteId(routeId)
+                .setTripId(tripId)
+                .setOperatingDay(operatingDay)
+                .setStartTime(startTime)
+                .setDirectionId(directionId)
+                .build();
+    }
+}
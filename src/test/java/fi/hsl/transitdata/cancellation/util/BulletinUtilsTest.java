@@ -1,12 +1,21 @@
 package fi.hsl.transitdata.cancellation.util;
 
 import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinScope;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.domain.RouteDay;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.timetable.TripInfoProvider;
 import org.junit.Test;
 import org.mockito.MockedStatic;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -14,6 +23,9 @@ import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.*;
 
 public class BulletinUtilsTest {
+    
+    private static final String TIMEZONE = "Europe/Helsinki";
+    
     @Test
     public void testFilterMassCancellationsFromEmptyBulletinsList() {
         List<InternalMessages.Bulletin> inputBulletins = new ArrayList<>();
@@ -36,7 +48,7 @@ public class BulletinUtilsTest {
         trips.add(TripUtilsTest.createTripInfo("HSL:1079", "HSL:1079_20240102_La_1_0734", "20240102", "0734", 2, true));
         
         tripUtils.when(() -> TripUtils.getTripInfos(
-                anyList(), any(LocalDateTime.class), any(LocalDateTime.class), "Europe/Helsinki", anyString())).thenReturn(trips);
+                anyList(), any(LocalDateTime.class), any(LocalDateTime.class), any(TripInfoProvider.class))).thenReturn(trips);
         
         InternalMessages.Bulletin bulletinMassCancellation = createBulletin(
                 InternalMessages.Bulletin.Impact.CANCELLED,
@@ -48,6 +60,126 @@ public class BulletinUtilsTest {
         return inputBulletins;
     }
     
+    @Test
+    public void testExtendedBulletinFetchesOnlyNewDates() {
+        RecordingTripInfoProvider provider = new RecordingTripInfoProvider();
+        InternalMessages.Bulletin previous = createMassCancellation(1, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:1001", "HSL:1002");
+        InternalMessages.Bulletin modified = createMassCancellation(2, "2024-02-20T06:00", "2024-02-22T23:00", "HSL:1001", "HSL:1002");
+        
+        List<CancellationData> cancellations = createIncrementally(previous, modified, provider);
+        
+        // trips after midnight of the previous last date were not in the previous version
+        assertEquals(Arrays.asList(new RouteDay("HSL:1001", "20240221"), new RouteDay("HSL:1002", "20240221"),
+                        new RouteDay("HSL:1001", "20240222"), new RouteDay("HSL:1002", "20240222")),
+                provider.requested);
+        assertSameCancellations(BulletinUtils.createTripCancellations(modified, TIMEZONE, provider), cancellations);
+    }
+    
+    @Test
+    public void testShortenedBulletinIsCreatedFromPreviousVersion() {
+        RecordingTripInfoProvider provider = new RecordingTripInfoProvider();
+        InternalMessages.Bulletin previous = createMassCancellation(1, "2024-02-20T06:00", "2024-02-22T23:00", "HSL:1001", "HSL:1002");
+        InternalMessages.Bulletin modified = createMassCancellation(2, "2024-02-20T12:00", "2024-02-21T23:00", "HSL:1001");
+        
+        List<CancellationData> cancellations = createIncrementally(previous, modified, provider);
+        
+        assertTrue(provider.requested.isEmpty());
+        assertFalse(cancellations.isEmpty());
+        assertSameCancellations(BulletinUtils.createTripCancellations(modified, TIMEZONE, provider), cancellations);
+    }
+    
+    @Test
+    public void testAddedRouteAndEarlierStartAreFetched() {
+        RecordingTripInfoProvider provider = new RecordingTripInfoProvider();
+        InternalMessages.Bulletin previous = createMassCancellation(1, "2024-02-20T12:00", "2024-02-21T23:00", "HSL:1001");
+        InternalMessages.Bulletin modified = createMassCancellation(2, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:1001", "HSL:1002");
+        
+        List<CancellationData> cancellations = createIncrementally(previous, modified, provider);
+        
+        assertEquals(Arrays.asList(new RouteDay("HSL:1001", "20240220"),
+                        new RouteDay("HSL:1002", "20240220"), new RouteDay("HSL:1002", "20240221")),
+                provider.requested);
+        assertSameCancellations(BulletinUtils.createTripCancellations(modified, TIMEZONE, provider), cancellations);
+    }
+    
+    @Test
+    public void testFingerprintDependsOnlyOnFieldsAffectingCancellations() {
+        InternalMessages.Bulletin bulletin = createMassCancellation(1, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:1001", "HSL:1002");
+        InternalMessages.Bulletin reordered = createMassCancellation(1, "2024-02-20T06:00", "2024-02-21T23:00", "1002", "HSL:1001");
+        
+        assertEquals(BulletinUtils.getFingerprint(bulletin), BulletinUtils.getFingerprint(reordered));
+        assertEquals(BulletinUtils.getFingerprint(bulletin),
+                BulletinUtils.getFingerprint(bulletin.toBuilder().setCategory(InternalMessages.Category.STRIKE).build()));
+        assertNotEquals(BulletinUtils.getFingerprint(bulletin), BulletinUtils.getFingerprint(
+                createMassCancellation(2, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:1001", "HSL:1002")));
+        assertNotEquals(BulletinUtils.getFingerprint(bulletin), BulletinUtils.getFingerprint(
+                createMassCancellation(1, "2024-02-20T06:00", "2024-02-22T23:00", "HSL:1001", "HSL:1002")));
+        assertNotEquals(BulletinUtils.getFingerprint(bulletin), BulletinUtils.getFingerprint(
+                createMassCancellation(1, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:1001")));
+        assertNotEquals(BulletinUtils.getFingerprint(bulletin), BulletinUtils.getFingerprint(
+                createMassCancellation(1, "2024-02-20T06:00", "2024-02-21T23:00", "HSL:100", "HSL:11002")));
+    }
+    
+    /**
+     * @return cancellations of the modified bulletin, after the previous version has been handled
+     */
+    private static List<CancellationData> createIncrementally(InternalMessages.Bulletin previous,
+                                                              InternalMessages.Bulletin modified,
+                                                              RecordingTripInfoProvider provider) {
+        BulletinState previousState = BulletinState.of(BulletinUtils.createTripCancellations(previous, TIMEZONE, provider));
+        BulletinScope previousScope = BulletinScope.of(previous, ZoneId.of(TIMEZONE));
+        provider.requested.clear();
+        return BulletinUtils.createTripCancellations(modified, TIMEZONE, provider, previousScope, previousState);
+    }
+    
+    private static void assertSameCancellations(List<CancellationData> expected, List<CancellationData> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.stream().map(CancellationData::getPayload).collect(Collectors.toSet()),
+                actual.stream().map(CancellationData::getPayload).collect(Collectors.toSet()));
+        assertEquals(expected.stream().map(CancellationData::getDvjId).collect(Collectors.toSet()),
+                actual.stream().map(CancellationData::getDvjId).collect(Collectors.toSet()));
+        for (CancellationData cancellation : actual) {
+            assertEquals(expected.get(0).getTimestamp(), cancellation.getTimestamp());
+        }
+    }
+    
+    private static InternalMessages.Bulletin createMassCancellation(
+            long lastModified, String validFrom, String validTo, String... routeIds) {
+        ZoneId zone = ZoneId.of(TIMEZONE);
+        return createBulletin(InternalMessages.Bulletin.Impact.CANCELLED, InternalMessages.Bulletin.Priority.WARNING, routeIds)
+                .toBuilder()
+                .setBulletinId("bulletin1")
+                .setLastModifiedUtcMs(lastModified)
+                .setValidFromUtcMs(LocalDateTime.parse(validFrom).atZone(zone).toInstant().toEpochMilli())
+                .setValidToUtcMs(LocalDateTime.parse(validTo).atZone(zone).toInstant().toEpochMilli())
+                .build();
+    }
+    
+    /**
+     * Every route has trips at 08:00, 14:00 and 25:00 on every date. Requested timetables are recorded.
+     */
+    private static class RecordingTripInfoProvider implements TripInfoProvider {
+        private final List<RouteDay> requested = new ArrayList<>();
+        
+        @Override
+        public Map<RouteDay, List<InternalMessages.TripInfo>> getTripInfos(List<String> routeIds, List<String> dates) {
+            Map<RouteDay, List<InternalMessages.TripInfo>> tripInfos = new LinkedHashMap<>();
+            for (String date : dates) {
+                for (String routeId : routeIds) {
+                    RouteDay routeDay = new RouteDay(routeId, date);
+                    requested.add(routeDay);
+                    List<InternalMessages.TripInfo> trips = new ArrayList<>();
+                    for (String startTime : Arrays.asList("0800", "1400", "2500")) {
+                        trips.add(TripUtilsTest.createTripInfo(
+                                routeId, routeId + "_20240212_Ti_1_" + startTime, date, startTime, 1, false));
+                    }
+                    tripInfos.put(routeDay, trips);
+                }
+            }
+            return tripInfos;
+        }
+    }
+    
     @Test
     public void testRemoveHSLPrefixFromRouteId() {
         String routeId1 = BulletinUtils.removeHSLPrefixFromRouteId("1234");
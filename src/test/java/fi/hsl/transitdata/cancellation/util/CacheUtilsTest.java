@@ -3,7 +3,11 @@ package fi.hsl.transitdata.cancellation.util;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
 import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+import fi.hsl.transitdata.cancellation.state.CaffeineBulletinStateStore;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
@@ -42,50 +46,50 @@ public class CacheUtilsTest {
     
     @Test
     public void testSingleCancellationDataIsSavedToCache() {
-        Cache<String, Map<String, CancellationData>> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build(key -> new HashMap<>());
-        CacheUtils.handleBulletinCancellations("bulletin1", buildCancellationDataList() , bulletinsCache);
+        Cache<String, BulletinState> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build();
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", buildCancellationDataList());
 
-        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsKey("trip1"));
+        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip1"));
     }
 
     @Test
     public void testModifiedCancellationWithCancelledCancellationIsCorrectlySaved() {
 
-        Cache<String, Map<String, CancellationData>> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build(key -> new HashMap<>());
-        CacheUtils.handleBulletinCancellations("bulletin1", buildCancellationDataList() , bulletinsCache);
+        Cache<String, BulletinState> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build();
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", buildCancellationDataList());
 
         ArrayList<CancellationData> cancelledBulletin = new ArrayList<>();
         cancelledBulletin.add(buildCancellationDataList().get(0)); // trip1
 
-        CacheUtils.handleBulletinCancellations("bulletin1", cancelledBulletin, bulletinsCache);
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", cancelledBulletin);
 
-        assertFalse(bulletinsCache.getIfPresent("bulletin1").containsKey("trip2"));
-        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsKey("trip1"));
+        assertFalse(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip2"));
+        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip1"));
     }
     
     @Test
     public void testModifiedCancellationWithAddedCancellationIsCorrectlySaved() {
         InternalMessages.TripCancellation tripCancellation3 = InternalMessages.TripCancellation.newBuilder().setTripId("trip3").setSchemaVersion(1).setStatus(InternalMessages.TripCancellation.Status.CANCELED).build();
         
-        Cache<String, Map<String, CancellationData>> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build(key -> new HashMap<>());
-        CacheUtils.handleBulletinCancellations("bulletin1", buildCancellationDataList() , bulletinsCache);
+        Cache<String, BulletinState> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build();
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", buildCancellationDataList());
         
         ArrayList<CancellationData> cancelledBulletin = new ArrayList<>();
         cancelledBulletin.add(buildCancellationDataList().get(0)); // trip1
         cancelledBulletin.add(buildCancellationDataList().get(1)); // trip2
         cancelledBulletin.add(getSampleCancellation(tripCancellation3)); // added
         
-        CacheUtils.handleBulletinCancellations("bulletin1", cancelledBulletin, bulletinsCache);
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", cancelledBulletin);
         
-        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsKey("trip1"));
-        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsKey("trip2"));
-        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsKey("trip3"));
+        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip1"));
+        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip2"));
+        assertTrue(bulletinsCache.getIfPresent("bulletin1").containsTrip("trip3"));
     }
     
     @Test
     public void testGetTripCancellationMapFromCache() {
-        Cache<String, Map<String, CancellationData>> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build(key -> new HashMap<>());
-        CacheUtils.handleBulletinCancellations("bulletin1", buildCancellationDataList() , bulletinsCache);
+        Cache<String, BulletinState> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build();
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", buildCancellationDataList());
         assertNull(CacheUtils.getTripCancellationMap("shouldNotExist", bulletinsCache));
         assertTrue(CacheUtils.getTripCancellationMap("bulletin1", bulletinsCache).containsKey("trip1"));
         assertTrue(CacheUtils.getTripCancellationMap("bulletin1", bulletinsCache).containsKey("trip2"));
@@ -93,10 +97,33 @@ public class CacheUtilsTest {
     
     @Test
     public void testGetTripCancellationMapNoNullFromCache() {
-        Cache<String, Map<String, CancellationData>> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build(key -> new HashMap<>());
-        CacheUtils.handleBulletinCancellations("bulletin1", buildCancellationDataList() , bulletinsCache);
+        Cache<String, BulletinState> bulletinsCache =  Caffeine.newBuilder().expireAfterAccess(Duration.ofHours(4)).build();
+        CancellationFixtures.storeBulletin(new CaffeineBulletinStateStore(bulletinsCache), "bulletin1", buildCancellationDataList());
         assertEquals(0, CacheUtils.getTripCancellationMapNoNull("shouldNotExist", bulletinsCache).size());
         assertTrue(CacheUtils.getTripCancellationMap("bulletin1", bulletinsCache).containsKey("trip1"));
         assertTrue(CacheUtils.getTripCancellationMap("bulletin1", bulletinsCache).containsKey("trip2"));
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void testBulletinChangesAreSeparated() {
+        InternalMessages.TripCancellation tripCancellation3 = InternalMessages.TripCancellation.newBuilder().setTripId("trip3").setSchemaVersion(1).setStatus(InternalMessages.TripCancellation.Status.CANCELED).build();
+        
+        BulletinStateStore bulletinStateStore = CaffeineBulletinStateStore.newInstance(Duration.ofHours(4));
+        BulletinChanges first = CancellationFixtures.storeBulletin(bulletinStateStore, "bulletin1", buildCancellationDataList());
+        assertEquals(2, first.getNewCancellations().size());
+        assertTrue(first.getUnchangedCancellations().isEmpty());
+        assertTrue(first.getCancelledCancellations().isEmpty());
+        
+        ArrayList<CancellationData> modifiedBulletin = new ArrayList<>();
+        modifiedBulletin.add(buildCancellationDataList().get(0)); // trip1
+        modifiedBulletin.add(getSampleCancellation(tripCancellation3)); // added
+        BulletinChanges second = CancellationFixtures.storeBulletin(bulletinStateStore, "bulletin1", modifiedBulletin);
+        
+        assertEquals("trip3", second.getNewCancellations().get(0).getTripId());
+        assertEquals("trip1", second.getUnchangedCancellations().get(0).getTripId());
+        assertEquals("trip2", second.getCancelledCancellations().get(0).getTripId());
+        assertEquals(InternalMessages.TripCancellation.Status.RUNNING, second.getCancelledCancellations().get(0).getPayload().getStatus());
+        assertEquals(3, second.getAll().size());
+        assertEquals(2, second.getChanges(false).size());
+    }
+}
@@ -0,0 +1,47 @@
+package fi.hsl.transitdata.cancellation.util;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import fi.hsl.transitdata.cancellation.domain.BulletinChanges;
+import fi.hsl.transitdata.cancellation.domain.CancellationData;
+import fi.hsl.transitdata.cancellation.state.BulletinState;
+import fi.hsl.transitdata.cancellation.state.BulletinStateStore;
+
+import java.util.List;
+
+/**
+ * Cancellations shared by tests that do not depend on the timetable of the trips.
+ */
+public class CancellationFixtures {
+
+    private CancellationFixtures() {
+    }
+
+    /**
+     * @return cancellation of the trip, with DVJ identifier 'dvj-' + tripId
+     */
+    public static CancellationData createCancellationData(String tripId) {
+        return createCancellationData(tripId, InternalMessages.TripCancellation.Status.CANCELED);
+    }
+
+    public static CancellationData createCancellationData(String tripId, InternalMessages.TripCancellation.Status status) {
+        InternalMessages.TripCancellation tripCancellation = InternalMessages.TripCancellation.newBuilder()
+                .setTripId(tripId)
+                .setSchemaVersion(1)
+                .setStatus(status)
+                .build();
+        return new CancellationData(tripCancellation, 1706616017, "dvj-" + tripId, 123);
+    }
+
+    /**
+     * Compare a bulletin version to the state in the store and store its state, like the handler of the bulletins does
+     * once the cancellations have been sent.
+     *
+     * @return changes compared to the previous version of the bulletin
+     */
+    public static BulletinChanges storeBulletin(BulletinStateStore store, String bulletinId,
+                                                List<CancellationData> cancellations) {
+        BulletinState.Diff diff = CacheUtils.getBulletinDiff(bulletinId, cancellations, store.get(bulletinId), store);
+        store.put(bulletinId, diff.getState());
+        return diff.getChanges();
+    }
+}
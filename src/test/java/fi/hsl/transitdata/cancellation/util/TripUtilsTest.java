@@ -157,6 +157,25 @@ public class TripUtilsTest {
         assertEquals("HSL:1071_LaSu_2_2307_20240215", TripUtils.getTripId("HSL:1071_La_2_2307", "20240215"));
     }
     
+    @Test
+    public void testGetTripIdUsesTokenPriority() {
+        // 'Ti' has higher priority than 'La' even though 'La' comes first
+        assertEquals("HSL:La_MaTiKeToPe_1_0700_20240215", TripUtils.getTripId("HSL:La_Ti_1_0700", "20240215"));
+        // only the first occurrence is replaced
+        assertEquals("HSL:1_LaSu_Su_20240215", TripUtils.getTripId("HSL:1_Su_Su", "20240215"));
+        assertEquals("HSL:1071_1_0700_20240215", TripUtils.getTripId("HSL:1071_1_0700", "20240215"));
+    }
+    
+    @Test
+    public void testRemoveDuplicatesWithUnpackableStartTime() {
+        List<InternalMessages.TripInfo> inputTrips = Arrays.asList(
+                createTripInfo("HSL:1030", "HSL:1030_Ma_2_1408", "20240220", "14:08", 1, false),
+                createTripInfo("HSL:1030", "HSL:1030_Ti_2_1408", "20240220", "14:08", 1, false),
+                createTripInfo("HSL:1030", "HSL:1030_Ma_2_1408", "20240220", "1408", 1, false));
+        
+        assertEquals(2, TripUtils.removeDuplicates(inputTrips).size());
+    }
+    
     public static InternalMessages.TripInfo createTripInfo(
             String routeId, String gtfsId, String operationDay, String startTime, int directionId, boolean generateTripId) {
         InternalMessages.TripInfo.Builder builder = InternalMessages.TripInfo.newBuilder();